@@ -0,0 +1,177 @@
+package lox;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/*
+ * ahead-of-time compilation: `lox compile script.lox -o script.jar` writes a runnable jar holding the
+ * resolved program and every function `JitCompiler` can handle, already translated to JVM bytecode,
+ * next to the interpreter's own classes. starting the jar skips scanning, parsing and resolving, and
+ * compiled functions run as bytecode from their first call instead of waiting to get hot.
+ */
+class Aot {
+    private static final String PROGRAM = "lox/program.bin";
+    // development tools that have no business in a compiled program
+    private static final Set<String> TOOLS = Set.of("GenerateAst", "PrintAst", "Benchmark");
+
+    // everything the jar needs at startup, serialized in one go so the AST nodes stay shared
+    private static class Program implements Serializable {
+        final String filename;
+        final List<Stmt> statements;
+        final Map<Expr, Integer> locals;
+        final Set<Stmt.Fun> capturing;
+        final Set<Stmt.Return> tailCalls;
+        final Map<Stmt.Fun, JitCompiler.Compiled> compiled;
+
+        Program(String filename, List<Stmt> statements, Map<Expr, Integer> locals, Set<Stmt.Fun> capturing,
+                Set<Stmt.Return> tailCalls, Map<Stmt.Fun, JitCompiler.Compiled> compiled) {
+            this.filename = filename;
+            this.statements = statements;
+            this.locals = locals;
+            this.capturing = capturing;
+            this.tailCalls = tailCalls;
+            this.compiled = compiled;
+        }
+    }
+
+    private Aot() {
+    }
+
+    // `interpreter` must have resolved `statements`
+    static void compile(Path source, Iterable<Stmt> statements, Interpreter interpreter, Path output)
+            throws IOException {
+        var program = new Program(source.getFileName().toString(), new ArrayList<>(), new HashMap<>(),
+                new HashSet<>(), new HashSet<>(), new IdentityHashMap<>());
+        for (Stmt statement : statements) {
+            program.statements.add(statement);
+            collect(statement, false, interpreter, program);
+        }
+        program.locals.putAll(interpreter.locals());
+        program.tailCalls.addAll(interpreter.tailCalls());
+
+        var manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, Aot.class.getName());
+        try (var jar = new JarOutputStream(Files.newOutputStream(output), manifest)) {
+            copyRuntime(jar);
+            jar.putNextEntry(new JarEntry(PROGRAM));
+            var out = new ObjectOutputStream(jar);
+            out.writeObject(program);
+            out.flush();
+            jar.closeEntry();
+        }
+    }
+
+    // finds every function declaration and translates the ones the jit would accept
+    private static void collect(Stmt stmt, boolean isInitializer, Interpreter interpreter, Program program) {
+        if (stmt instanceof Stmt.Block block) {
+            for (Stmt statement : block.statements) {
+                collect(statement, false, interpreter, program);
+            }
+        } else if (stmt instanceof Stmt.If ifStmt) {
+            collect(ifStmt.thenBranch, false, interpreter, program);
+            collect(ifStmt.elseBranch, false, interpreter, program);
+        } else if (stmt instanceof Stmt.IfVariable ifStmt) {
+            collect(ifStmt.thenBranch, false, interpreter, program);
+            collect(ifStmt.elseBranch, false, interpreter, program);
+        } else if (stmt instanceof Stmt.While whileStmt) {
+            collect(whileStmt.body, false, interpreter, program);
+        } else if (stmt instanceof Stmt.Class classStmt) {
+            for (Stmt.Fun method : classStmt.methods) {
+                collect(method, method.name.lexeme.equals("init") && !method.isStatic, interpreter, program);
+            }
+        } else if (stmt instanceof Stmt.Fun function) {
+            boolean capturing = interpreter.isCapturing(function);
+            if (capturing)
+                program.capturing.add(function);
+            try {
+                program.compiled.put(function, Jit.translate(function, capturing, isInitializer, interpreter));
+            } catch (JitCompiler.Unsupported | ClassEmitter.TooLargeException e) {
+                // stays interpreted, the jit will leave it alone at runtime too
+            }
+            collect(function.body, false, interpreter, program);
+        }
+    }
+
+    // copies the interpreter's classes from wherever they were loaded, a directory or a jar
+    private static void copyRuntime(JarOutputStream jar) throws IOException {
+        Path location;
+        try {
+            location = Path.of(Aot.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        if (Files.isDirectory(location)) {
+            try (Stream<Path> files = Files.walk(location.resolve("lox"))) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String name = location.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+                    if (isRuntimeClass(name))
+                        copy(jar, name, Files.readAllBytes(file));
+                }
+            }
+        } else {
+            try (var source = new JarFile(location.toFile())) {
+                for (JarEntry entry : (Iterable<JarEntry>) source.stream()::iterator) {
+                    if (isRuntimeClass(entry.getName()))
+                        copy(jar, entry.getName(), source.getInputStream(entry).readAllBytes());
+                }
+            }
+        }
+    }
+
+    private static boolean isRuntimeClass(String name) {
+        if (!name.startsWith("lox/") || !name.endsWith(".class"))
+            return false;
+        String simpleName = name.substring("lox/".length(), name.length() - ".class".length()).split("\\$")[0];
+        return !TOOLS.contains(simpleName);
+    }
+
+    private static void copy(JarOutputStream jar, String name, byte[] bytes) throws IOException {
+        jar.putNextEntry(new JarEntry(name));
+        jar.write(bytes);
+        jar.closeEntry();
+    }
+
+    // entry point of compiled jars
+    public static void main(String[] args) throws Throwable {
+        Program program;
+        try (var in = new ObjectInputStream(Aot.class.getClassLoader().getResourceAsStream(PROGRAM))) {
+            program = (Program) in.readObject();
+        }
+        Lox.file = Path.of(program.filename);
+        var interpreter = new Interpreter();
+        for (Map.Entry<Expr, Integer> local : program.locals.entrySet()) {
+            interpreter.resolve(local.getKey(), local.getValue());
+        }
+        for (Stmt.Fun function : program.capturing) {
+            interpreter.markCapturing(function);
+        }
+        for (Stmt.Return stmt : program.tailCalls) {
+            interpreter.markTailCall(stmt);
+        }
+        for (Map.Entry<Stmt.Fun, JitCompiler.Compiled> compiled : program.compiled.entrySet()) {
+            Jit.preload(compiled.getKey(), Jit.load(compiled.getValue()));
+        }
+        Lox.onLoxStack(() -> interpreter.interpret(program.statements));
+        if (Lox.hadError) System.exit(65);
+        if (Lox.hadRuntimeError) System.exit(70);
+    }
+}
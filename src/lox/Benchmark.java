@@ -0,0 +1,152 @@
+package lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.ref.Reference;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/*
+ * throughput of the execution backends on whole scripts. the front-end (scanning, parsing,
+ * resolving, compiling) runs outside the timed region, and script output is discarded.
+ * `--memory` also reports the heap a script's objects still take up once it has run.
+ * usage: make run-Benchmark ARGS="[--runs N] [--memory] <filename>..."
+ */
+class Benchmark {
+    private interface Backend {
+        // does the per-run setup and returns the part that gets timed
+        Runnable prepare(Iterable<Stmt> statements);
+    }
+
+    private static final List<String> names = List.of("unfused", "records", "interpreter", "jit", "vm");
+    private static final List<Backend> backends = List.of(
+            statements -> {
+                Jit.enabled = false;
+                var interpreter = new Interpreter();
+                new Resolver(interpreter).resolve(statements);
+                return () -> interpreter.interpret(statements);
+            },
+            statements -> {
+                var interpreter = new Interpreter();
+                new Resolver(interpreter).resolve(statements);
+                var lowered = new RecordInterpreter.Lowering(interpreter).lower(statements);
+                var recordInterpreter = new RecordInterpreter(interpreter);
+                return () -> recordInterpreter.interpret(lowered);
+            },
+            statements -> {
+                Jit.enabled = false;
+                var interpreter = new Interpreter();
+                new Resolver(interpreter).resolve(statements);
+                var fused = new Fuser(interpreter).fuse(statements);
+                return () -> interpreter.interpret(fused);
+            },
+            statements -> {
+                Jit.enabled = true;
+                var interpreter = new Interpreter();
+                new Resolver(interpreter).resolve(statements);
+                var fused = new Fuser(interpreter).fuse(statements);
+                return () -> interpreter.interpret(fused);
+            },
+            statements -> {
+                var interpreter = new Interpreter();
+                new Resolver(interpreter).resolve(statements);
+                VmFunction script = new Compiler().compile(statements);
+                var vm = new VM(interpreter);
+                return () -> vm.interpret(script);
+            });
+
+    public static void main(String[] args) throws IOException {
+        int runs = 10;
+        int first = 0;
+        boolean memory = false;
+        for (;;) {
+            if (args.length > first + 1 && args[first].equals("--runs")) {
+                runs = Integer.parseInt(args[first + 1]);
+                first += 2;
+            } else if (args.length > first && args[first].equals("--memory")) {
+                memory = true;
+                ++first;
+            } else break;
+        }
+        if (first >= args.length) {
+            System.err.println("usage: java lox.Benchmark [--runs N] [--memory] <filename>...");
+            System.exit(-1);
+        }
+        int timed = runs, from = first;
+        boolean retained = memory;
+        // same stack as `Lox` gives programs
+        Lox.onLoxStack(() -> run(args, from, timed, retained));
+    }
+
+    private static void run(String[] args, int first, int runs, boolean memory) throws IOException {
+        PrintStream out = System.out;
+        for (int i = first; i < args.length; ++i) {
+            Path file = Path.of(args[i]);
+            var tokens = new Scanner(Files.readString(file, Charset.defaultCharset())).scanTokens();
+            Iterable<Stmt> statements = new Parser(tokens).parse();
+            if (Lox.hadError) {
+                System.exit(65);
+            }
+            for (int b = 0; b < backends.size(); ++b) {
+                double millis = measure(backends.get(b), statements, runs);
+                if (Lox.hadError || Lox.hadRuntimeError) {
+                    System.exit(70);
+                }
+                if (memory)
+                    out.printf("%-24s %-12s %10.3f ms/run %10d KiB retained%n", file.getFileName(), names.get(b),
+                            millis, retained(backends.get(b), statements) >> 10);
+                else
+                    out.printf("%-24s %-12s %10.3f ms/run%n", file.getFileName(), names.get(b), millis);
+            }
+        }
+    }
+
+    private static double measure(Backend backend, Iterable<Stmt> statements, int runs) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            // warm-up runs let the JVM compile the backend before timing it
+            for (int i = 0; i < runs; ++i) {
+                backend.prepare(statements).run();
+            }
+            long total = 0;
+            for (int i = 0; i < runs; ++i) {
+                Runnable run = backend.prepare(statements);
+                long start = System.nanoTime();
+                run.run();
+                total += System.nanoTime() - start;
+            }
+            return total / 1e6 / runs;
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    // heap in use after a run, less what was in use before it. `run` holds on to the backend and
+    // through it the script's globals, so whatever they reference is counted
+    private static long retained(Backend backend, Iterable<Stmt> statements) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            long before = usedHeap();
+            Runnable run = backend.prepare(statements);
+            run.run();
+            long after = usedHeap();
+            Reference.reachabilityFence(run);
+            return after - before;
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
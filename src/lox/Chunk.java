@@ -0,0 +1,95 @@
+package lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/* a compiled function body: bytecode plus its constant pool */
+class Chunk {
+    byte[] code = new byte[64];
+    // token responsible for each byte of `code`, so runtime errors report the same line and
+    // lexeme as the tree-walking interpreter. only set on the opcode byte
+    Token[] tokens = new Token[64];
+    int count = 0;
+    Object[] constants = new Object[8];
+    int constantCount = 0;
+    // doubles, strings and names are deduplicated so e.g. a loop bound only takes one slot
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+
+    void write(byte b, Token token) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            tokens = Arrays.copyOf(tokens, count * 2);
+        }
+        code[count] = b;
+        tokens[count] = token;
+        ++count;
+    }
+
+    int addConstant(Object value) {
+        // tokens are keyed by lexeme: any token with the same name is interchangeable for lookups
+        Object key = value instanceof Token token ? "name:" + token.lexeme : value;
+        boolean dedup = value instanceof Double || value instanceof String || value instanceof Token;
+        if (dedup) {
+            Integer index = constantIndices.get(key);
+            if (null != index)
+                return index;
+        }
+        if (constantCount == constants.length)
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        constants[constantCount] = value;
+        if (dedup)
+            constantIndices.put(key, constantCount);
+        return constantCount++;
+    }
+
+    String disassemble(String name) {
+        StringBuilder builder = new StringBuilder("== ").append(name).append(" ==\n");
+        for (int offset = 0; offset < count;) {
+            offset = disassembleInstruction(builder, offset);
+        }
+        return builder.toString();
+    }
+
+    private int readShort(int offset) {
+        return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    }
+
+    private int disassembleInstruction(StringBuilder builder, int offset) {
+        byte op = code[offset];
+        builder.append(String.format("%04d %4s %-14s", offset,
+                null == tokens[offset] ? "|" : String.valueOf(tokens[offset].line), OpCode.NAMES[op]));
+        switch (op) {
+            case OpCode.GET_LOCAL, OpCode.SET_LOCAL, OpCode.GET_UPVALUE, OpCode.SET_UPVALUE, OpCode.CALL:
+                builder.append(code[offset + 1] & 0xff).append('\n');
+                return offset + 2;
+            case OpCode.JUMP, OpCode.JUMP_IF_FALSE:
+                builder.append("-> ").append(offset + 3 + readShort(offset + 1)).append('\n');
+                return offset + 3;
+            case OpCode.LOOP:
+                builder.append("-> ").append(offset + 3 - readShort(offset + 1)).append('\n');
+                return offset + 3;
+            case OpCode.CLOSURE: {
+                VmFunction function = (VmFunction) constants[readShort(offset + 1)];
+                builder.append(function).append('\n');
+                offset += 3;
+                for (int i = 0; i < function.upvalueCount; ++i) {
+                    builder.append(String.format("%04d    |   %s %d\n", offset,
+                            code[offset] != 0 ? "local" : "upvalue", code[offset + 1] & 0xff));
+                    offset += 2;
+                }
+                return offset;
+            }
+            case OpCode.CONSTANT, OpCode.GET_GLOBAL, OpCode.DEFINE_GLOBAL, OpCode.SET_GLOBAL,
+                    OpCode.GET_PROPERTY, OpCode.SET_PROPERTY, OpCode.CLASS, OpCode.METHOD, OpCode.ERROR,
+                    OpCode.GET_SUPER: {
+                Object constant = constants[readShort(offset + 1)];
+                builder.append(constant instanceof Token token ? token.lexeme : constant).append('\n');
+                return offset + 3;
+            }
+            default:
+                builder.append('\n');
+                return offset + 1;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * just enough of a JVM class file writer for `JitCompiler`: a constant pool, fields, and methods
+ * with a single Code attribute. classes are emitted as version 49 (Java 5) so the verifier infers
+ * types itself and we don't have to compute StackMapTable frames for every branch target.
+ */
+class ClassEmitter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // opcodes used by the compiler
+    static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13,
+            ILOAD = 0x15, ALOAD = 0x19, ISTORE = 0x36, ASTORE = 0x3a, AALOAD = 0x32, AASTORE = 0x53,
+            POP = 0x57, DUP = 0x59, SWAP = 0x5f, IINC = 0x84, IFEQ = 0x99, IFNE = 0x9a, IF_ICMPGE = 0xa2,
+            GOTO = 0xa7, IRETURN = 0xac, ARETURN = 0xb0, RETURN = 0xb1, GETSTATIC = 0xb2,
+            PUTSTATIC = 0xb3, GETFIELD = 0xb4, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7,
+            INVOKESTATIC = 0xb8, INVOKEINTERFACE = 0xb9, NEW = 0xbb, ANEWARRAY = 0xbd, ATHROW = 0xbf,
+            CHECKCAST = 0xc0;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private int poolCount = 1;
+    private final Map<String, Integer> poolIndices = new HashMap<>();
+
+    private final String name;
+    private final String superName;
+    private final String[] interfaces;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<Method> methods = new ArrayList<>();
+
+    ClassEmitter(String name, String superName, String... interfaces) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+    }
+
+    String name() {
+        return name;
+    }
+
+    private int entry(String key, int tag, Writer writer) {
+        Integer index = poolIndices.get(key);
+        if (null != index)
+            return index;
+        try {
+            poolOut.writeByte(tag);
+            writer.write(poolOut);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        poolIndices.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    int utf8(String value) {
+        return entry("U" + value, 1, out -> out.writeUTF(value));
+    }
+
+    int integer(int value) {
+        return entry("I" + value, 3, out -> out.writeInt(value));
+    }
+
+    int classRef(String internalName) {
+        int utf8 = utf8(internalName);
+        return entry("C" + internalName, 7, out -> out.writeShort(utf8));
+    }
+
+    int string(String value) {
+        int utf8 = utf8(value);
+        return entry("S" + value, 8, out -> out.writeShort(utf8));
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int n = utf8(name), d = utf8(descriptor);
+        return entry("N" + name + ":" + descriptor, 12, out -> {
+            out.writeShort(n);
+            out.writeShort(d);
+        });
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int c = classRef(owner), nt = nameAndType(name, descriptor);
+        return entry("M" + tag + owner + "." + name + ":" + descriptor, tag, out -> {
+            out.writeShort(c);
+            out.writeShort(nt);
+        });
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(9, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(10, owner, name, descriptor);
+    }
+
+    int interfaceMethodRef(String owner, String name, String descriptor) {
+        return memberRef(11, owner, name, descriptor);
+    }
+
+    void field(int access, String name, String descriptor) {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    Method method(int access, String name, String descriptor, int argSlots) {
+        var method = new Method(access, name, descriptor, argSlots);
+        methods.add(method);
+        return method;
+    }
+
+    byte[] toByteArray() {
+        int thisClass = classRef(name);
+        int superClass = classRef(superName);
+        int[] interfaceRefs = new int[interfaces.length];
+        for (int i = 0; i < interfaces.length; ++i) {
+            interfaceRefs[i] = classRef(interfaces[i]);
+        }
+        int codeName = utf8("Code");
+        for (Method method : methods) {
+            method.nameIndex = utf8(method.name);
+            method.descriptorIndex = utf8(method.descriptor);
+        }
+
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaceRefs.length);
+            for (int ref : interfaceRefs) {
+                out.writeShort(ref);
+            }
+            out.writeShort(fields.size());
+            for (byte[] field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methods.size());
+            for (Method method : methods) {
+                method.writeTo(out, codeName);
+            }
+            out.writeShort(0); // class attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static class Label {
+        private int position = -1;
+        private final List<Integer> fixups = new ArrayList<>(); // offsets of branch instructions
+    }
+
+    static class TooLargeException extends RuntimeException {
+        TooLargeException() {
+            super(null, null, false, false);
+        }
+    }
+
+    class Method {
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private int nameIndex, descriptorIndex;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final List<Label> labels = new ArrayList<>();
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+
+        private Method(int access, String name, String descriptor, int argSlots) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = argSlots;
+        }
+
+        ClassEmitter owner() {
+            return ClassEmitter.this;
+        }
+
+        int newLocal() {
+            return maxLocals++;
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            if (stack > maxStack)
+                maxStack = stack;
+        }
+
+        private void u1(int b) {
+            code.write(b);
+        }
+
+        private void u2(int s) {
+            code.write((s >> 8) & 0xff);
+            code.write(s & 0xff);
+        }
+
+        // an instruction without operands, with its effect on the operand stack
+        void op(int opcode, int stackDelta) {
+            u1(opcode);
+            adjust(stackDelta);
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                u1(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                u1(LDC_W);
+                u2(integer(value));
+            }
+            adjust(1);
+        }
+
+        void pushString(String value) {
+            u1(LDC_W);
+            u2(string(value));
+            adjust(1);
+        }
+
+        void pushClass(String internalName) {
+            u1(LDC_W);
+            u2(classRef(internalName));
+            adjust(1);
+        }
+
+        void local(int opcode, int slot) {
+            if (slot > 0xff)
+                throw new TooLargeException();
+            u1(opcode);
+            u1(slot);
+            adjust(opcode == ALOAD || opcode == ILOAD ? 1 : -1);
+        }
+
+        void iinc(int slot, int delta) {
+            u1(IINC);
+            u1(slot);
+            u1(delta);
+        }
+
+        void type(int opcode, String internalName) {
+            u1(opcode);
+            u2(classRef(internalName));
+            adjust(opcode == NEW ? 1 : 0);
+        }
+
+        void field(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            u2(fieldRef(owner, name, descriptor));
+            int size = 1;
+            adjust(switch (opcode) {
+                case GETSTATIC -> size;
+                case PUTSTATIC -> -size;
+                case GETFIELD -> size - 1;
+                default -> -size - 1;
+            });
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            int args = argumentCount(descriptor);
+            if (opcode == INVOKEINTERFACE) {
+                u2(interfaceMethodRef(owner, name, descriptor));
+                u1(args + 1);
+                u1(0);
+            } else {
+                u2(methodRef(owner, name, descriptor));
+            }
+            boolean returns = !descriptor.endsWith(")V");
+            adjust(-args - (opcode == INVOKESTATIC ? 0 : 1) + (returns ? 1 : 0));
+        }
+
+        // only reference and int-sized arguments are ever passed
+        private static int argumentCount(String descriptor) {
+            int count = 0;
+            for (int i = 1; descriptor.charAt(i) != ')'; ++i) {
+                char c = descriptor.charAt(i);
+                while (c == '[')
+                    c = descriptor.charAt(++i);
+                if (c == 'L')
+                    i = descriptor.indexOf(';', i);
+                ++count;
+            }
+            return count;
+        }
+
+        Label newLabel() {
+            var label = new Label();
+            labels.add(label);
+            return label;
+        }
+
+        void mark(Label label) {
+            label.position = code.size();
+        }
+
+        void jump(int opcode, Label label) {
+            label.fixups.add(code.size());
+            u1(opcode);
+            u2(0);
+            adjust(opcode == GOTO ? 0 : -1);
+        }
+
+        // the operand stack height is tracked linearly; after an unconditional jump or return the
+        // next instruction is a branch target whose height the caller restores with this
+        void setStack(int height) {
+            stack = height;
+        }
+
+        int stack() {
+            return stack;
+        }
+
+        private void writeTo(DataOutputStream out, int codeName) throws IOException {
+            byte[] bytes = code.toByteArray();
+            if (bytes.length > 0xffff)
+                throw new TooLargeException();
+            for (Label label : labels) {
+                for (int fixup : label.fixups) {
+                    int offset = label.position - fixup;
+                    if (offset > Short.MAX_VALUE || offset < Short.MIN_VALUE)
+                        throw new TooLargeException();
+                    bytes[fixup + 1] = (byte) ((offset >> 8) & 0xff);
+                    bytes[fixup + 2] = (byte) (offset & 0xff);
+                }
+            }
+            out.writeShort(access);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + bytes.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // code attributes
+        }
+    }
+}
@@ -0,0 +1,618 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * compiles a resolved AST to bytecode for the `VM`. the `Resolver` has already reported scoping
+ * errors, so this only has to mirror its scopes to hand out stack slots: a local lives in its
+ * function's frame and is captured by closures as an upvalue, anything else is a global.
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        METHOD,
+        STATICMETHOD,
+        INITIALIZER,
+    }
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Loop {
+        final Loop enclosing;
+        final int start;
+        final int scopeDepth;
+        final List<Integer> breakJumps = new ArrayList<>();
+
+        Loop(Loop enclosing, int start, int scopeDepth) {
+            this.enclosing = enclosing;
+            this.start = start;
+            this.scopeDepth = scopeDepth;
+        }
+    }
+
+    // per-function compilation state, chained to the function it's nested in
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VmFunction function;
+        final FunctionType type;
+        final Local[] locals = new Local[MAX_LOCALS];
+        int localCount = 0;
+        final List<int[]> upvalues = new ArrayList<>(); // {isLocal, index}
+        int scopeDepth = 0;
+        Loop loop = null;
+
+        FunctionState(FunctionState enclosing, VmFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+            // slot 0 holds the callee, or the receiver for methods
+            boolean hasThis = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+            locals[localCount++] = new Local(hasThis ? "this" : "", 0);
+        }
+    }
+
+    private static class CompileError extends RuntimeException {
+    }
+
+    private FunctionState current;
+
+    VmFunction compile(Iterable<Stmt> statements) {
+        current = new FunctionState(null, new VmFunction(null, false, false, false, false), FunctionType.SCRIPT);
+        try {
+            for (Stmt stmt : statements) {
+                // top-level expressions are echoed like in `Interpreter.interpret`
+                if (stmt instanceof Stmt.Expression exprstmt
+                        && !(exprstmt.expression instanceof Expr.Assignment)) {
+                    compile(exprstmt.expression);
+                    emit(OpCode.PRINT, null);
+                } else
+                    compile(stmt);
+            }
+            emit(OpCode.NIL, null);
+            emit(OpCode.RETURN, null);
+        } catch (CompileError error) {
+            return null;
+        }
+        return current.function;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private Chunk chunk() {
+        return current.function.chunk;
+    }
+
+    private CompileError error(Token token, String message) {
+        Lox.error(token, message);
+        return new CompileError();
+    }
+
+    private void emit(byte op, Token token) {
+        chunk().write(op, token);
+    }
+
+    private void emitByte(int b) {
+        chunk().write((byte) b, null);
+    }
+
+    private void emitShort(int s) {
+        emitByte((s >> 8) & 0xff);
+        emitByte(s & 0xff);
+    }
+
+    private void emitConstant(byte op, Object value, Token token) {
+        int index = chunk().addConstant(value);
+        if (index > 0xffff)
+            throw error(token, "too many constants in one function");
+        emit(op, token);
+        emitShort(index);
+    }
+
+    private int emitJump(byte op) {
+        emit(op, null);
+        emitShort(0xffff);
+        return chunk().count - 2;
+    }
+
+    private void patchJump(int offset, Token token) {
+        int jump = chunk().count - offset - 2;
+        if (jump > 0xffff)
+            throw error(token, "too much code to jump over");
+        chunk().code[offset] = (byte) ((jump >> 8) & 0xff);
+        chunk().code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int start, Token token) {
+        emit(OpCode.LOOP, null);
+        int offset = chunk().count - start + 2;
+        if (offset > 0xffff)
+            throw error(token, "loop body too large");
+        emitShort(offset);
+    }
+
+    private void beginScope() {
+        ++current.scopeDepth;
+    }
+
+    private void endScope() {
+        --current.scopeDepth;
+        while (current.localCount > 0 && current.locals[current.localCount - 1].depth > current.scopeDepth) {
+            emit(current.locals[current.localCount - 1].isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP, null);
+            --current.localCount;
+        }
+    }
+
+    // pops the locals above `depth` without forgetting them, for jumps out of a loop body
+    private void discardLocals(int depth) {
+        for (int i = current.localCount - 1; i >= 0 && current.locals[i].depth > depth; --i) {
+            emit(current.locals[i].isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP, null);
+        }
+    }
+
+    private void addLocal(Token name) {
+        if (current.localCount == MAX_LOCALS)
+            throw error(name, "too many local variables in function");
+        current.locals[current.localCount++] = new Local(name.lexeme, current.scopeDepth);
+    }
+
+    // declares `name` in the current scope: a new local slot, or a global at the top level.
+    // the value must already be on top of the stack
+    private void defineVariable(Token name) {
+        if (current.scopeDepth > 0) {
+            addLocal(name);
+            return;
+        }
+        emitConstant(OpCode.DEFINE_GLOBAL, name, name);
+    }
+
+    private static int resolveLocal(FunctionState state, String name) {
+        for (int i = state.localCount - 1; i >= 0; --i) {
+            if (state.locals[i].name.equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, Token name) {
+        if (null == state.enclosing)
+            return -1;
+        int local = resolveLocal(state.enclosing, name.lexeme);
+        if (local != -1) {
+            state.enclosing.locals[local].isCaptured = true;
+            return addUpvalue(state, true, local, name);
+        }
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1)
+            return addUpvalue(state, false, upvalue, name);
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, boolean isLocal, int index, Token name) {
+        for (int i = 0; i < state.upvalues.size(); ++i) {
+            int[] upvalue = state.upvalues.get(i);
+            if (upvalue[0] == (isLocal ? 1 : 0) && upvalue[1] == index)
+                return i;
+        }
+        if (state.upvalues.size() == MAX_UPVALUES)
+            throw error(name, "too many closure variables in function");
+        state.upvalues.add(new int[] { isLocal ? 1 : 0, index });
+        return state.function.upvalueCount++;
+    }
+
+    private void namedVariable(Token name, boolean assign) {
+        int slot = resolveLocal(current, name.lexeme);
+        if (slot != -1) {
+            emit(assign ? OpCode.SET_LOCAL : OpCode.GET_LOCAL, name);
+            emitByte(slot);
+            return;
+        }
+        slot = resolveUpvalue(current, name);
+        if (slot != -1) {
+            emit(assign ? OpCode.SET_UPVALUE : OpCode.GET_UPVALUE, name);
+            emitByte(slot);
+            return;
+        }
+        emitConstant(assign ? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL, name, name);
+    }
+
+    private void function(Stmt.Fun stmt, FunctionType type) {
+        var function = new VmFunction(stmt.name.lexeme, type == FunctionType.INITIALIZER, stmt.isStatic,
+                stmt.isGetter, stmt.isGenerator);
+        current = new FunctionState(current, function, type);
+        // parameters and the body share one scope, like `LoxFunction.call`
+        beginScope();
+        for (Token param : stmt.params) {
+            ++function.arity;
+            addLocal(param);
+        }
+        if (stmt.body instanceof Stmt.Block block) {
+            for (Stmt statement : block.statements) {
+                compile(statement);
+            }
+        } else {
+            compile(stmt.body);
+        }
+        emitReturn();
+        var state = current;
+        current = current.enclosing;
+
+        emitConstant(OpCode.CLOSURE, function, stmt.name);
+        for (int[] upvalue : state.upvalues) {
+            emitByte(upvalue[0]);
+            emitByte(upvalue[1]);
+        }
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emit(OpCode.GET_LOCAL, null);
+            emitByte(0);
+        } else {
+            emit(OpCode.NIL, null);
+        }
+        emit(OpCode.RETURN, null);
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalBinaryExpr(Expr.LogicalBinary expr) {
+        compile(expr.left);
+        switch (expr.operator.type) {
+            case AND: {
+                // `a and b` yields `b` only when both are truthy, `a` otherwise
+                int end = emitJump(OpCode.JUMP_IF_FALSE);
+                compile(expr.right);
+                emit(OpCode.AND_RIGHT, expr.operator);
+                patchJump(end, expr.operator);
+                break;
+            }
+            case OR: {
+                int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+                int end = emitJump(OpCode.JUMP);
+                patchJump(elseJump, expr.operator);
+                emit(OpCode.POP, null);
+                compile(expr.right);
+                patchJump(end, expr.operator);
+                break;
+            }
+            default:
+                throw error(expr.operator, "undefined operator behavior for logical binary expression");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        byte op;
+        switch (expr.operator.type) {
+            case BANG_EQUAL: op = OpCode.NOT_EQUAL; break;
+            case EQUAL_EQUAL: op = OpCode.EQUAL; break;
+            case GREATER: op = OpCode.GREATER; break;
+            case GREATER_EQUAL: op = OpCode.GREATER_EQUAL; break;
+            case LESS: op = OpCode.LESS; break;
+            case LESS_EQUAL: op = OpCode.LESS_EQUAL; break;
+            case SLASH: op = OpCode.DIVIDE; break;
+            case STAR: op = OpCode.MULTIPLY; break;
+            case MINUS: op = OpCode.SUBTRACT; break;
+            case PLUS: op = OpCode.ADD; break;
+            default:
+                throw error(expr.operator, "undefined operator behavior for binary expression");
+        }
+        emit(op, expr.operator);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignmentExpr(Expr.Assignment expr) {
+        compile(expr.value);
+        namedVariable(expr.name, true);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        switch (expr.operator.type) {
+            case BANG:
+                emit(OpCode.NOT, expr.operator);
+                break;
+            case MINUS:
+                emit(OpCode.NEGATE, expr.operator);
+                break;
+            default:
+                throw error(expr.operator, "undefined operator behavior for unary expression");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        namedVariable(expr.name, false);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (null == expr.value)
+            emit(OpCode.NIL, null);
+        else if (expr.value instanceof Boolean bool)
+            emit(bool ? OpCode.TRUE : OpCode.FALSE, null);
+        else
+            emitConstant(OpCode.CONSTANT, expr.value, null);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        compile(expr.condition);
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, null);
+        compile(expr.thenExpr);
+        int end = emitJump(OpCode.JUMP);
+        patchJump(elseJump, null);
+        emit(OpCode.POP, null);
+        compile(expr.elseExpr);
+        patchJump(end, null);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        emit(OpCode.CALL, expr.paren);
+        emitByte(expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        emitConstant(OpCode.GET_PROPERTY, expr.name.lexeme, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        emitConstant(OpCode.SET_PROPERTY, expr.name.lexeme, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        compile(expr.object);
+        compile(expr.index);
+        emit(OpCode.GET_INDEX, expr.bracket);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        compile(expr.object);
+        compile(expr.index);
+        compile(expr.value);
+        emit(OpCode.SET_INDEX, expr.bracket);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        namedVariable(expr.keyword, false);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        namedVariable(new Token(TokenType.THIS, "this", null, expr.keyword.line), false);
+        namedVariable(expr.keyword, false);
+        emitConstant(OpCode.GET_SUPER, expr.method.lexeme, expr.method);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT, null);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, null);
+        compile(stmt.thenBranch);
+        int end = emitJump(OpCode.JUMP);
+        patchJump(elseJump, null);
+        emit(OpCode.POP, null);
+        if (null != stmt.elseBranch)
+            compile(stmt.elseBranch);
+        patchJump(end, null);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int start = chunk().count;
+        current.loop = new Loop(current.loop, start, current.scopeDepth);
+        compile(stmt.condition);
+        int exit = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, null);
+        compile(stmt.body);
+        emitLoop(start, null);
+        patchJump(exit, null);
+        emit(OpCode.POP, null);
+        // `break` lands past the condition's pop, it was already popped when entering the body
+        for (int jump : current.loop.breakJumps) {
+            patchJump(jump, null);
+        }
+        current.loop = current.loop.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        if (null == current.loop) {
+            emitConstant(OpCode.ERROR, "statement may only be used inside a loop", stmt.token);
+            return null;
+        }
+        discardLocals(current.loop.scopeDepth);
+        emitLoop(current.loop.start, stmt.token);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        if (null == current.loop) {
+            emitConstant(OpCode.ERROR, "statement may only be used inside a loop", stmt.token);
+            return null;
+        }
+        discardLocals(current.loop.scopeDepth);
+        current.loop.breakJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (null == stmt.initializer)
+            emit(OpCode.NIL, null);
+        else
+            compile(stmt.initializer);
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitFunStmt(Stmt.Fun stmt) {
+        // a local function is declared before its body so it can call itself through an upvalue
+        if (current.scopeDepth > 0) {
+            addLocal(stmt.name);
+            function(stmt, FunctionType.FUNCTION);
+        } else {
+            function(stmt, FunctionType.FUNCTION);
+            defineVariable(stmt.name);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        if (null == stmt.value)
+            emit(OpCode.NIL, null);
+        else
+            compile(stmt.value);
+        emit(OpCode.YIELD, stmt.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (null == stmt.expr) {
+            emitReturn();
+            return null;
+        }
+        compile(stmt.expr);
+        emit(OpCode.RETURN, stmt.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        emitConstant(OpCode.CLASS, stmt.name.lexeme, stmt.name);
+        defineVariable(stmt.name);
+        if (null != stmt.superclass) {
+            // the superclass stays on the stack as the local `super`, which methods capture
+            namedVariable(stmt.superclass.name, false);
+            beginScope();
+            addLocal(new Token(TokenType.SUPER, "super", null, stmt.superclass.name.line));
+            namedVariable(stmt.name, false);
+            emit(OpCode.INHERIT, stmt.superclass.name);
+        }
+        namedVariable(stmt.name, false);
+        for (Stmt.Fun method : stmt.methods) {
+            boolean isConstructor = method.name.lexeme.equals("init");
+            if (isConstructor && method.isStatic) {
+                emitConstant(OpCode.ERROR, "constructor may not be static", method.name);
+                continue;
+            }
+            function(method, method.isStatic ? FunctionType.STATICMETHOD
+                    : isConstructor ? FunctionType.INITIALIZER : FunctionType.METHOD);
+            emitConstant(OpCode.METHOD, method.name.lexeme, method.name);
+        }
+        emit(OpCode.POP, null);
+        if (null != stmt.superclass)
+            endScope();
+        return null;
+    }
+
+    // fused nodes only come out of `Fuser`, which runs for the interpreter. compile them like the
+    // code they replace anyway
+
+    @Override
+    public Void visitIncrementExpr(Expr.Increment expr) {
+        return Fuser.unfuse(expr).accept(this);
+    }
+
+    @Override
+    public Void visitCompareConstantExpr(Expr.CompareConstant expr) {
+        return Fuser.unfuse(expr).accept(this);
+    }
+
+    @Override
+    public Void visitInvokeExpr(Expr.Invoke expr) {
+        return Fuser.unfuse(expr).accept(this);
+    }
+
+    @Override
+    public Void visitIfVariableStmt(Stmt.IfVariable stmt) {
+        return Fuser.unfuse(stmt).accept(this);
+    }
+}
@@ -1,9 +1,10 @@
 /* CODE AUTO-GENERATED BY GenerateAst.java */
 package lox;
 
+import java.io.Serializable;
 import java.util.List;
 
-abstract class Expr {
+abstract class Expr implements Serializable {
     interface Visitor<R> {
         R visitGroupingExpr(Grouping expr);
         R visitLogicalBinaryExpr(LogicalBinary expr);
@@ -17,6 +18,12 @@ abstract class Expr {
         R visitGetExpr(Get expr);
         R visitSetExpr(Set expr);
         R visitThisExpr(This expr);
+        R visitSuperExpr(Super expr);
+        R visitIndexExpr(Index expr);
+        R visitIndexSetExpr(IndexSet expr);
+        R visitIncrementExpr(Increment expr);
+        R visitCompareConstantExpr(CompareConstant expr);
+        R visitInvokeExpr(Invoke expr);
     }
     abstract <R> R accept(Visitor<R> visitor);
 
@@ -142,6 +149,7 @@ abstract class Expr {
     static class Get extends Expr {
         final Expr object;
         final Token name;
+        transient InlineCache cache;
         Get(Expr object, Token name) {
             this.object = object;
             this.name = name;
@@ -156,6 +164,7 @@ abstract class Expr {
         final Expr object;
         final Token name;
         final Expr value;
+        transient InlineCache cache;
         Set(Expr object, Token name, Expr value) {
             this.object = object;
             this.name = name;
@@ -177,4 +186,101 @@ abstract class Expr {
             return visitor.visitThisExpr(this);
         }
     }
+
+    static class Super extends Expr {
+        final Token keyword;
+        final Token method;
+        Super(Token keyword, Token method) {
+            this.keyword = keyword;
+            this.method = method;
+        }
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitSuperExpr(this);
+        }
+    }
+
+    static class Index extends Expr {
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+        Index(Expr object, Token bracket, Expr index) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIndexExpr(this);
+        }
+    }
+
+    static class IndexSet extends Expr {
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+        final Expr value;
+        IndexSet(Expr object, Token bracket, Expr index, Expr value) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.value = value;
+        }
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIndexSetExpr(this);
+        }
+    }
+
+    static class Increment extends Expr {
+        final Token name;
+        final Token operator;
+        final Double delta;
+        final int depth;
+        Increment(Token name, Token operator, Double delta, int depth) {
+            this.name = name;
+            this.operator = operator;
+            this.delta = delta;
+            this.depth = depth;
+        }
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIncrementExpr(this);
+        }
+    }
+
+    static class CompareConstant extends Expr {
+        final Token name;
+        final Token operator;
+        final Double constant;
+        final int depth;
+        CompareConstant(Token name, Token operator, Double constant, int depth) {
+            this.name = name;
+            this.operator = operator;
+            this.constant = constant;
+            this.depth = depth;
+        }
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitCompareConstantExpr(this);
+        }
+    }
+
+    static class Invoke extends Expr {
+        final Expr object;
+        final Token name;
+        final List<Expr> arguments;
+        final Token paren;
+        transient InlineCache cache;
+        Invoke(Expr object, Token name, List<Expr> arguments, Token paren) {
+            this.object = object;
+            this.name = name;
+            this.arguments = arguments;
+            this.paren = paren;
+        }
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitInvokeExpr(this);
+        }
+    }
 }
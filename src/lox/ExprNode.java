@@ -0,0 +1,52 @@
+/* CODE AUTO-GENERATED BY GenerateAst.java */
+package lox;
+
+import java.util.List;
+
+sealed interface ExprNode {
+
+    record Grouping(ExprNode expression) implements ExprNode {
+    }
+
+    record LogicalBinary(ExprNode left, Token operator, ExprNode right) implements ExprNode {
+    }
+
+    record Binary(ExprNode left, Token operator, ExprNode right) implements ExprNode {
+    }
+
+    record Assignment(Token name, ExprNode value, int depth) implements ExprNode {
+    }
+
+    record Unary(Token operator, ExprNode right) implements ExprNode {
+    }
+
+    record Variable(Token name, int depth) implements ExprNode {
+    }
+
+    record Literal(Object value) implements ExprNode {
+    }
+
+    record Ternary(ExprNode condition, ExprNode thenExpr, ExprNode elseExpr) implements ExprNode {
+    }
+
+    record Call(ExprNode callee, List<ExprNode> arguments, Token paren) implements ExprNode {
+    }
+
+    record Get(ExprNode object, Token name) implements ExprNode {
+    }
+
+    record Set(ExprNode object, Token name, ExprNode value) implements ExprNode {
+    }
+
+    record This(Token keyword, int depth) implements ExprNode {
+    }
+
+    record Super(Token keyword, Token method, int depth) implements ExprNode {
+    }
+
+    record Index(ExprNode object, Token bracket, ExprNode index) implements ExprNode {
+    }
+
+    record IndexSet(ExprNode object, Token bracket, ExprNode index, ExprNode value) implements ExprNode {
+    }
+}
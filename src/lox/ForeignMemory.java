@@ -0,0 +1,44 @@
+package lox;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+/*
+ * native memory for `LoxArena`s from the incubating foreign memory API, which frees it as soon as
+ * its scope is closed instead of whenever the GC gets to it. only loaded when the
+ * jdk.incubator.foreign module is present, see `LoxArena.FOREIGN`. scopes are passed around as
+ * `Object` so nothing else has to mention the module's types
+ */
+final class ForeignMemory {
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private ForeignMemory() {
+    }
+
+    // shared, so an arena can be released from any thread. an arena that's never released, like the
+    // ones `Buffer(n)` and `mapFile(path)` make, is closed by `CLEANER` once it and its buffers are
+    // unreachable, as direct buffers are
+    static Object newScope() {
+        return ResourceScope.newSharedScope(CLEANER);
+    }
+
+    static ByteBuffer allocate(Object scope, int size) {
+        return MemorySegment.allocateNative(size, (ResourceScope) scope).asByteBuffer();
+    }
+
+    static ByteBuffer map(Object scope, Path file, long offset, long size) throws IOException {
+        return MemorySegment.mapFile(file, offset, size, FileChannel.MapMode.READ_ONLY, (ResourceScope) scope)
+                .asByteBuffer();
+    }
+
+    // frees everything allocated or mapped in `scope`. the buffers over it fail from then on
+    static void close(Object scope) {
+        ((ResourceScope) scope).close();
+    }
+}
@@ -0,0 +1,351 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * superinstructions for the tree-walking interpreter: after resolution, rewrites small shapes that
+ * show up all over hot code into single fused nodes (see the bottom of `GenerateAst`) that the
+ * interpreter runs in one visit, without the intermediate dispatches, boxing and lookups.
+ * nodes are only rebuilt when one of their children changed, so untouched subtrees keep their
+ * identity and resolution. the other backends never see fused nodes except through functions the jit
+ * picks up, and they handle them by expanding them back with `unfuse`.
+ */
+class Fuser implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    enum Pattern {
+        INCREMENT("x = x + c"),
+        COMPARE_CONSTANT("x < c"),
+        INVOKE("x.m(...)"),
+        IF_VARIABLE("if (x)");
+
+        // `reporting` as it was when the patterns were first used, which is after the flags were
+        // parsed. a constant, so without the report `hit` compiles to nothing in the fused nodes
+        private static final boolean COUNTED = reporting;
+
+        final String shape;
+        // fused sites found, and how many times the interpreter ran them. generator threads run
+        // fused nodes too, so hits add up without a shared write
+        int sites = 0;
+        final LongAdder hits = new LongAdder();
+
+        Pattern(String shape) {
+            this.shape = shape;
+        }
+
+        void hit() {
+            if (COUNTED)
+                hits.increment();
+        }
+    }
+
+    // set by `--fusion-report`
+    static boolean reporting = false;
+
+    private final Interpreter interpreter;
+
+    Fuser(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    List<Stmt> fuse(Iterable<Stmt> statements) {
+        List<Stmt> fused = new ArrayList<>();
+        for (Stmt statement : statements) {
+            fused.add(fuse(statement));
+        }
+        return fused;
+    }
+
+    static void report(PrintStream out) {
+        out.printf("fusion: %-12s %8s %12s%n", "pattern", "sites", "hits");
+        for (Pattern pattern : Pattern.values()) {
+            out.printf("fusion: %-12s %8d %12d%n", pattern.shape, pattern.sites, pattern.hits.sum());
+        }
+    }
+
+    static Expr.Assignment unfuse(Expr.Increment expr) {
+        return new Expr.Assignment(expr.name,
+                new Expr.Binary(new Expr.Variable(expr.name), expr.operator, new Expr.Literal(expr.delta)));
+    }
+
+    static Expr.Binary unfuse(Expr.CompareConstant expr) {
+        return new Expr.Binary(new Expr.Variable(expr.name), expr.operator, new Expr.Literal(expr.constant));
+    }
+
+    static Expr.Call unfuse(Expr.Invoke expr) {
+        return new Expr.Call(new Expr.Get(expr.object, expr.name), expr.arguments, expr.paren);
+    }
+
+    static Stmt.If unfuse(Stmt.IfVariable stmt) {
+        return new Stmt.If(new Expr.Variable(stmt.name), stmt.thenBranch, stmt.elseBranch);
+    }
+
+    private Stmt fuse(Stmt stmt) {
+        return null == stmt ? null : stmt.accept(this);
+    }
+
+    private Expr fuse(Expr expr) {
+        return null == expr ? null : expr.accept(this);
+    }
+
+    private List<Expr> fuseAll(List<Expr> exprs) {
+        List<Expr> fused = new ArrayList<>(exprs.size());
+        boolean changed = false;
+        for (Expr expr : exprs) {
+            Expr result = fuse(expr);
+            changed |= result != expr;
+            fused.add(result);
+        }
+        return changed ? fused : exprs;
+    }
+
+    private int depth(Expr expr) {
+        Integer depth = interpreter.locals().get(expr);
+        return null == depth ? -1 : depth;
+    }
+
+    private static boolean isNumber(Expr expr) {
+        return expr instanceof Expr.Literal literal && literal.value instanceof Double;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = fuse(expr.expression);
+        return expression == expr.expression ? expr : new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLogicalBinaryExpr(Expr.LogicalBinary expr) {
+        Expr left = fuse(expr.left), right = fuse(expr.right);
+        return left == expr.left && right == expr.right ? expr : new Expr.LogicalBinary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        switch (expr.operator.type) {
+            case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL:
+                if (expr.left instanceof Expr.Variable variable && isNumber(expr.right)) {
+                    ++Pattern.COMPARE_CONSTANT.sites;
+                    return new Expr.CompareConstant(variable.name, expr.operator,
+                            (Double) ((Expr.Literal) expr.right).value, depth(variable));
+                }
+                break;
+            default:
+                break;
+        }
+        Expr left = fuse(expr.left), right = fuse(expr.right);
+        return left == expr.left && right == expr.right ? expr : new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitAssignmentExpr(Expr.Assignment expr) {
+        // only when both sides resolved to the same variable
+        if (expr.value instanceof Expr.Binary binary
+                && (binary.operator.type == TokenType.PLUS || binary.operator.type == TokenType.MINUS)
+                && binary.left instanceof Expr.Variable variable
+                && variable.name.lexeme.equals(expr.name.lexeme)
+                && depth(variable) == depth(expr)
+                && isNumber(binary.right)) {
+            ++Pattern.INCREMENT.sites;
+            return new Expr.Increment(expr.name, binary.operator, (Double) ((Expr.Literal) binary.right).value,
+                    depth(expr));
+        }
+        Expr value = fuse(expr.value);
+        if (value == expr.value)
+            return expr;
+        var assignment = new Expr.Assignment(expr.name, value);
+        if (-1 != depth(expr))
+            interpreter.resolve(assignment, depth(expr));
+        return assignment;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = fuse(expr.right);
+        return right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr) {
+        Expr condition = fuse(expr.condition), thenExpr = fuse(expr.thenExpr), elseExpr = fuse(expr.elseExpr);
+        return condition == expr.condition && thenExpr == expr.thenExpr && elseExpr == expr.elseExpr ? expr
+                : new Expr.Ternary(condition, thenExpr, elseExpr);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        List<Expr> arguments = fuseAll(expr.arguments);
+        if (expr.callee instanceof Expr.Get get) {
+            ++Pattern.INVOKE.sites;
+            return new Expr.Invoke(fuse(get.object), get.name, arguments, expr.paren);
+        }
+        Expr callee = fuse(expr.callee);
+        return callee == expr.callee && arguments == expr.arguments ? expr
+                : new Expr.Call(callee, arguments, expr.paren);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = fuse(expr.object);
+        return object == expr.object ? expr : new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = fuse(expr.object), value = fuse(expr.value);
+        return object == expr.object && value == expr.value ? expr : new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitIndexExpr(Expr.Index expr) {
+        Expr object = fuse(expr.object), index = fuse(expr.index);
+        return object == expr.object && index == expr.index ? expr : new Expr.Index(object, expr.bracket, index);
+    }
+
+    @Override
+    public Expr visitIndexSetExpr(Expr.IndexSet expr) {
+        Expr object = fuse(expr.object), index = fuse(expr.index), value = fuse(expr.value);
+        return object == expr.object && index == expr.index && value == expr.value ? expr
+                : new Expr.IndexSet(object, expr.bracket, index, value);
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitIncrementExpr(Expr.Increment expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitCompareConstantExpr(Expr.CompareConstant expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitInvokeExpr(Expr.Invoke expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = new ArrayList<>();
+        boolean changed = false;
+        for (Stmt statement : stmt.statements) {
+            Stmt result = fuse(statement);
+            changed |= result != statement;
+            statements.add(result);
+        }
+        return changed ? new Stmt.Block(statements) : stmt;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = fuse(stmt.expression);
+        return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = fuse(stmt.expression);
+        return expression == stmt.expression ? stmt : new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Stmt thenBranch = fuse(stmt.thenBranch), elseBranch = fuse(stmt.elseBranch);
+        if (stmt.condition instanceof Expr.Variable variable) {
+            ++Pattern.IF_VARIABLE.sites;
+            return new Stmt.IfVariable(variable.name, depth(variable), thenBranch, elseBranch);
+        }
+        Expr condition = fuse(stmt.condition);
+        return condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch ? stmt
+                : new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = fuse(stmt.condition);
+        Stmt body = fuse(stmt.body);
+        return condition == stmt.condition && body == stmt.body ? stmt : new Stmt.While(condition, body);
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Stmt.Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = fuse(stmt.initializer);
+        return initializer == stmt.initializer ? stmt : new Stmt.Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitFunStmt(Stmt.Fun stmt) {
+        Stmt body = fuse(stmt.body);
+        if (body == stmt.body)
+            return stmt;
+        var function = new Stmt.Fun(stmt.name, stmt.params, body, stmt.isStatic, stmt.isGetter, stmt.isGenerator);
+        if (interpreter.isCapturing(stmt))
+            interpreter.markCapturing(function);
+        return function;
+    }
+
+    @Override
+    public Stmt visitYieldStmt(Stmt.Yield stmt) {
+        Expr value = fuse(stmt.value);
+        return value == stmt.value ? stmt : new Stmt.Yield(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr expr = fuse(stmt.expr);
+        if (expr == stmt.expr)
+            return stmt;
+        var result = new Stmt.Return(stmt.keyword, expr);
+        if (interpreter.isTailCall(stmt))
+            interpreter.markTailCall(result);
+        return result;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Fun> methods = new ArrayList<>();
+        boolean changed = false;
+        for (Stmt.Fun method : stmt.methods) {
+            var result = (Stmt.Fun) fuse(method);
+            changed |= result != method;
+            methods.add(result);
+        }
+        return changed ? new Stmt.Class(stmt.name, stmt.superclass, methods) : stmt;
+    }
+
+    @Override
+    public Stmt visitIfVariableStmt(Stmt.IfVariable stmt) {
+        return stmt;
+    }
+}
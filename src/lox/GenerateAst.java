@@ -5,10 +5,18 @@ import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Set;
 
 class GenerateAst {
+    // fused node types, which only the visitor-based interpreter runs
+    private static final Set<String> FUSED = Set.of("Increment", "CompareConstant", "Invoke", "IfVariable");
+    // node types the resolver annotates with a depth
+    private static final Set<String> RESOLVED = Set.of("Assignment", "Variable", "This", "Super");
+    // node types with an inline cache for their property lookups, filled in as the interpreter runs
+    private static final Set<String> CACHED = Set.of("Get", "Set", "Invoke");
+
     public static void main(String[] args) throws IOException {
-        defineAst("Expr", new String[]{
+        String[] exprTypes = {
             "Grouping     : Expr expression",
             "LogicalBinary: Expr left, Token operator, Expr right",
             "Binary       : Expr left, Token operator, Expr right",
@@ -21,9 +29,17 @@ class GenerateAst {
             "Get          : Expr object, Token name",
             "Set          : Expr object, Token name, Expr value",
             "This         : Token keyword",
-        });
+            "Super        : Token keyword, Token method", // `super.method`
+            "Index        : Expr object, Token bracket, Expr index", // `object[index]`
+            "IndexSet     : Expr object, Token bracket, Expr index, Expr value", // `object[index] = value`
+            // fused nodes, only produced by `Fuser` after resolution. `depth` is the resolved
+            // distance of the variable `name`, -1 for globals
+            "Increment    : Token name, Token operator, Double delta, int depth", // `name = name +/- delta`
+            "CompareConstant: Token name, Token operator, Double constant, int depth", // `name < constant`
+            "Invoke       : Expr object, Token name, List<Expr> arguments, Token paren", // `object.name(arguments)`
+        };
 
-        defineAst("Stmt", new String[]{
+        String[] stmtTypes = {
             "Block      : Iterable<Stmt> statements",
             "Expression : Expr expression", // expressions by themselves can be statements. ex.: `1 + 2;`, `a = 10;`
             "Print      : Expr expression",
@@ -33,10 +49,19 @@ class GenerateAst {
             "Break      : Token token",
             // declarations
             "Var        : Token name, Expr initializer",
-            "Fun        : Token name, List<Token> params, Stmt body, boolean isStatic, boolean isGetter",
+            "Fun        : Token name, List<Token> params, Stmt body, boolean isStatic, boolean isGetter, boolean isGenerator", // generators have a `yield` in their body
+            "Yield      : Token keyword, Expr value",
             "Return     : Token keyword, Expr expr",
-            "Class      : Token name, List<Stmt.Fun> methods",
-        });
+            "Class      : Token name, Expr.Variable superclass, List<Stmt.Fun> methods", // `superclass` may be null
+            // fused, see `Fuser`
+            "IfVariable : Token name, int depth, Stmt thenBranch, Stmt elseBranch", // `if (name) ...`
+        };
+
+        defineAst("Expr", exprTypes);
+        defineAst("Stmt", stmtTypes);
+        // the same nodes as sealed interfaces of records, for `RecordInterpreter`
+        defineRecords("ExprNode", exprTypes);
+        defineRecords("StmtNode", stmtTypes);
     }    
 
     private static void defineAst(String baseName, String[] types) throws IOException {
@@ -52,9 +77,11 @@ class GenerateAst {
         writer.println("/* CODE AUTO-GENERATED BY GenerateAst.java */");
         writer.println("package lox;");
         writer.println();
+        writer.println("import java.io.Serializable;");
         writer.println("import java.util.List;");
         writer.println();
-        writer.println("abstract class "+baseName+" {");
+        // serializable so `Aot` can ship resolved programs
+        writer.println("abstract class "+baseName+" implements Serializable {");
         defineVisitor(writer, baseName, types);
         writer.println("    abstract <R> R accept(Visitor<R> visitor);");
         for (String type : types) {
@@ -88,6 +115,9 @@ class GenerateAst {
         for (String field : fieldsAsArr) {
             writer.println("        final "+field.trim()+";");
         }
+        // not shipped by `Aot`, as it refers to classes of the run that filled it
+        if (CACHED.contains(className))
+            writer.println("        transient InlineCache cache;");
         writer.println("        "+className+"("+fields+") {");
         for (String field : fieldsAsArr) {
             String fieldName = field.trim().split(" ")[1];
@@ -102,4 +132,37 @@ class GenerateAst {
 
         writer.println("    }");
     }
+
+    /*
+     * resolved nodes get their depth (-1 for globals) as a component, as records compare by value
+     * and make poor keys for a side table
+     */
+    private static void defineRecords(String baseName, String[] types) throws IOException {
+        Path path = Paths.get("src/lox/" + baseName + ".java");
+        System.out.println(baseName+".java is being generated");
+
+        PrintWriter writer = new PrintWriter(path.toString());
+        writer.println("/* CODE AUTO-GENERATED BY GenerateAst.java */");
+        writer.println("package lox;");
+        writer.println();
+        writer.println("import java.util.List;");
+        writer.println();
+        writer.println("sealed interface "+baseName+" {");
+        for (String type : types) {
+            String className = type.split(":")[0].trim();
+            if (FUSED.contains(className))
+                continue;
+            String fields = type.split(":")[1].trim()
+                    .replace("Iterable<", "List<")
+                    .replaceAll("\\bExpr\\b", "ExprNode")
+                    .replaceAll("\\bStmt\\b", "StmtNode");
+            if (RESOLVED.contains(className))
+                fields += ", int depth";
+            writer.println();
+            writer.println("    record "+className+"("+fields+") implements "+baseName+" {");
+            writer.println("    }");
+        }
+        writer.println("}");
+        writer.close();
+    }
 }
@@ -0,0 +1,101 @@
+package lox;
+
+/*
+ * what the property lookups at one `Expr.Get`, `Expr.Set` or `Expr.Invoke` site found before, so
+ * they can be redone with a few identity checks. entries are keyed by shape, which decides whether a
+ * field exists and its slot, plus the class when the lookup fell through to a method. a site holds
+ * up to `SIZE` entries, after which it is megamorphic and every new receiver takes the plain lookup
+ * in `LoxInstance`. only instances are cached, class objects always take the plain lookup
+ */
+final class InlineCache {
+    static final int SIZE = 4;
+
+    private final Shape[] shapes = new Shape[SIZE];
+    // null for fields, which don't depend on the class
+    private final LoxClass[] classes = new LoxClass[SIZE];
+    // `get`: the field's slot, or -1 for a method
+    private final int[] slots = new int[SIZE];
+    private final LoxFunction[] methods = new LoxFunction[SIZE];
+    // `set`: the shape after the assignment, different from the key when it adds the field
+    private final Shape[] next = new Shape[SIZE];
+    private int count = 0;
+
+    private int find(Shape shape, LoxClass klass) {
+        for (int i = 0; i < count; ++i) {
+            if (shapes[i] == shape && (null == classes[i] || classes[i] == klass))
+                return i;
+        }
+        return -1;
+    }
+
+    // the entry for `instance`, made if there's room. -1 when the plain lookup has to be used
+    private int lookup(LoxInstance instance, String name) {
+        LoxClass klass = instance.klass;
+        if (null == klass)
+            return -1;
+        Shape shape = instance.shape();
+        int entry = find(shape, klass);
+        if (-1 != entry || SIZE == count)
+            return entry;
+        int slot = shape.slot(name);
+        LoxFunction method = null;
+        if (-1 == slot) {
+            method = klass.methods.get(name);
+            // missing properties are errors, and base class methods are never bound
+            if (null == method || klass instanceof LoxBaseClass)
+                return -1;
+        }
+        shapes[count] = shape;
+        classes[count] = null == method ? null : klass;
+        slots[count] = slot;
+        methods[count] = method;
+        return count++;
+    }
+
+    // `Interpreter.getProperty` on an instance
+    Object get(Interpreter interpreter, LoxInstance instance, Token name) {
+        int entry = lookup(instance, name.lexeme);
+        if (-1 == entry)
+            return interpreter.getter(instance.get(name));
+        LoxFunction method = methods[entry];
+        if (null == method)
+            return instance.slot(slots[entry]);
+        if (method.isGetter)
+            return method.invoke0(interpreter, instance);
+        return method.bind(instance);
+    }
+
+    // the method a call to `name` on `instance` would bind and call, or null when it would call a
+    // field or a getter's value, or can't use the cache. lets `Expr.Invoke` skip the bound copy
+    LoxFunction method(LoxInstance instance, Token name) {
+        int entry = lookup(instance, name.lexeme);
+        if (-1 == entry)
+            return null;
+        LoxFunction method = methods[entry];
+        return null == method || method.isGetter ? null : method;
+    }
+
+    // `LoxInstance.set`
+    void set(LoxInstance instance, Token name, Object value) {
+        Shape shape = instance.shape();
+        for (int i = 0; i < count; ++i) {
+            if (shapes[i] == shape) {
+                if (next[i] == shape)
+                    instance.slot(slots[i], value);
+                else
+                    instance.add(next[i], value);
+                return;
+            }
+        }
+        if (null == instance.klass || SIZE == count) {
+            instance.set(name, value);
+            return;
+        }
+        int slot = shape.slot(name.lexeme);
+        shapes[count] = shape;
+        slots[count] = slot;
+        next[count] = -1 == slot ? shape.with(name.lexeme) : shape;
+        ++count;
+        instance.set(name, value);
+    }
+}
@@ -0,0 +1,547 @@
+package lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lox.Interpreter.RuntimeError;
+import lox.Natives.NativeError;
+
+/*
+ * calling java from lox. `host("java.lang.Math")` is the class, if it was registered with `register`
+ * or `--host=`: its public static fields and methods are its properties, and calling it calls a
+ * constructor. java objects are lox values as they are, and the public methods of registered classes
+ * are their properties. lox strings are `String`s, so they have `String`'s methods.
+ * a method name stands for all of its overloads, which take any number of arguments. the first call
+ * with a combination of argument types picks the overload those types fit best, and builds a
+ * `MethodHandle` for it that converts the arguments (numbers to the int, long etc. the parameter is,
+ * strings to `String` or `char`) and the result (java numbers to doubles, chars to strings, arrays
+ * to lox arrays). later calls with the same types find it again after comparing the argument
+ * classes, a guard like `InlineCache`'s shapes, and don't reflect again.
+ * the handles are per member of a class, not per call site: `VM` and `RecordInterpreter` have
+ * nowhere to keep anything per site, and a site calls the same member anyway
+ */
+final class Interop {
+    private static final MethodHandles.Lookup PUBLIC = MethodHandles.publicLookup();
+    private static final MethodHandle FROM_JAVA;
+    // converters from a lox value to a parameter's type, for the types with one of their own
+    private static final Map<Class<?>, MethodHandle> TO_JAVA = new HashMap<>();
+
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            FROM_JAVA = lookup.findStatic(Interop.class, "fromJava", MethodType.methodType(Object.class, Object.class));
+            for (Class<?> type : new Class<?>[] { double.class, float.class, long.class, int.class, short.class,
+                    byte.class, char.class, boolean.class, String.class, Object.class }) {
+                String name = "to" + Character.toUpperCase(type.getSimpleName().charAt(0))
+                        + type.getSimpleName().substring(1);
+                TO_JAVA.put(type, lookup.findStatic(Interop.class, name, MethodType.methodType(type, Object.class)));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // registered classes, by name
+    private static final Map<String, HostClass> REGISTERED = new ConcurrentHashMap<>();
+    // the registered class whose methods objects of a class have, empty for none
+    private static final Map<Class<?>, Optional<HostClass>> RECEIVERS = new ConcurrentHashMap<>();
+
+    static {
+        for (Class<?> type : new Class<?>[] { Math.class, String.class, StringBuilder.class }) {
+            register(type);
+        }
+    }
+
+    private Interop() {
+    }
+
+    // makes `type` available to scripts. it must be public and exported
+    static void register(Class<?> type) {
+        if (!Modifier.isPublic(type.getModifiers()) || !type.getModule().isExported(type.getPackageName()))
+            throw new IllegalArgumentException(type.getName() + " isn't public");
+        REGISTERED.putIfAbsent(type.getName(), new HostClass(type));
+        RECEIVERS.clear();
+    }
+
+    // null when `name` wasn't registered
+    static HostClass host(String name) {
+        return REGISTERED.get(name);
+    }
+
+    // the property `name` of `object`, for when it isn't a lox instance
+    static Object get(Object object, String name, Token at) {
+        if (object instanceof HostClass host)
+            return host.get(name, at);
+        if (Rope.isString(object))
+            object = object.toString();
+        HostClass host = null == object ? null : receiver(object.getClass());
+        if (null == host)
+            throw new RuntimeError(at, "only instances may have properties");
+        Member method = host.member(name, false);
+        if (null == method)
+            throw new RuntimeError(at, "undefined host method '" + name + "'");
+        return new Bound(method, object);
+    }
+
+    private static HostClass receiver(Class<?> type) {
+        return RECEIVERS.computeIfAbsent(type, Interop::findReceiver).orElse(null);
+    }
+
+    // the registered class or interface nearest to `type`
+    private static Optional<HostClass> findReceiver(Class<?> type) {
+        for (Class<?> c = type; null != c; c = c.getSuperclass()) {
+            HostClass host = REGISTERED.get(c.getName());
+            if (null != host && host.type == c)
+                return Optional.of(host);
+        }
+        for (Class<?> c = type; null != c; c = c.getSuperclass()) {
+            for (Class<?> implemented : c.getInterfaces()) {
+                Optional<HostClass> host = findReceiver(implemented);
+                if (host.isPresent())
+                    return host;
+            }
+        }
+        return Optional.empty();
+    }
+
+    /*
+     * a registered class, the value `host(name)` returns
+     */
+    static final class HostClass implements LoxCallable {
+        final Class<?> type;
+        private final Member constructors;
+        // by name, empty for names that aren't static fields or methods
+        private final Map<String, Optional<MethodHandle>> fields = new ConcurrentHashMap<>();
+        private final Map<String, Optional<Member>> statics = new ConcurrentHashMap<>();
+        private final Map<String, Optional<Member>> virtuals = new ConcurrentHashMap<>();
+
+        HostClass(Class<?> type) {
+            this.type = type;
+            List<Executable> constructors = new ArrayList<>(Arrays.asList(type.getConstructors()));
+            this.constructors = new Member(this, "new", true, constructors);
+        }
+
+        // a static field's value, or a static method
+        Object get(String name, Token at) {
+            MethodHandle field = fields.computeIfAbsent(name, this::staticField).orElse(null);
+            if (null != field) {
+                try {
+                    return fromJava(field.invoke());
+                } catch (Throwable e) {
+                    throw new RuntimeError(at, "can't read " + type.getSimpleName() + "." + name);
+                }
+            }
+            Member method = member(name, true);
+            if (null == method)
+                throw new RuntimeError(at, "undefined host static member '" + name + "'");
+            return method;
+        }
+
+        private Optional<MethodHandle> staticField(String name) {
+            try {
+                Field field = type.getField(name);
+                if (!Modifier.isStatic(field.getModifiers()))
+                    return Optional.empty();
+                return Optional.of(PUBLIC.findStaticGetter(type, name, field.getType()));
+            } catch (ReflectiveOperationException e) {
+                return Optional.empty();
+            }
+        }
+
+        // the public methods called `name`, null if there are none
+        Member member(String name, boolean isStatic) {
+            return (isStatic ? statics : virtuals).computeIfAbsent(name, n -> {
+                // by parameter types: a bridge only stands in for a method that isn't there otherwise,
+                // like those a public class inherits from a package-private one
+                Map<List<Class<?>>, Method> methods = new HashMap<>();
+                for (Method method : type.getMethods()) {
+                    if (method.getName().equals(n) && isStatic == Modifier.isStatic(method.getModifiers()))
+                        methods.merge(Arrays.asList(method.getParameterTypes()), method,
+                                (first, second) -> first.isBridge() ? second : first);
+                }
+                return methods.isEmpty() ? Optional.empty()
+                        : Optional.of(new Member(this, n, isStatic, new ArrayList<>(methods.values())));
+            }).orElse(null);
+        }
+
+        @Override
+        public int arity() {
+            return ANY;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return constructors.invoke(arguments.toArray());
+        }
+
+        @Override
+        public String toString() {
+            return "<host " + type.getName() + ">";
+        }
+    }
+
+    /*
+     * the overloads of a method, or a class's constructors, with the handles resolved so far
+     */
+    static final class Member implements LoxCallable {
+        private static final int SIZE = 4;
+
+        private final HostClass owner;
+        private final String name;
+        // true for constructors too: nothing is called on a receiver
+        private final boolean isStatic;
+        private final List<Executable> overloads;
+        // the argument classes each handle was resolved for, null for nil, and the handle, taking
+        // the receiver (for instance methods) and the arguments as an `Object[]`. the entries below
+        // `count` are complete, as generators may call from other threads
+        private final Class<?>[][] guards = new Class<?>[SIZE][];
+        private final MethodHandle[] handles = new MethodHandle[SIZE];
+        private volatile int count = 0;
+
+        Member(HostClass owner, String name, boolean isStatic, List<Executable> overloads) {
+            this.owner = owner;
+            this.name = name;
+            this.isStatic = isStatic;
+            // the same choice between equally good overloads every run
+            overloads.sort(Comparator.comparing(Executable::toGenericString));
+            this.overloads = overloads;
+        }
+
+        // `values` starts with the receiver for instance methods
+        Object invoke(Object[] values) {
+            int first = isStatic ? 0 : 1;
+            MethodHandle handle = find(values, first);
+            if (null == handle)
+                handle = miss(values, first);
+            try {
+                return (Object) handle.invokeExact(values);
+            } catch (NativeError | RuntimeError e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new NativeError(this + ": " + e);
+            }
+        }
+
+        private MethodHandle find(Object[] values, int first) {
+            int arguments = values.length - first;
+            for (int i = 0; i < count; ++i) {
+                Class<?>[] guard = guards[i];
+                if (guard.length != arguments)
+                    continue;
+                int j = 0;
+                while (j < arguments && guard[j] == (null == values[first + j] ? null : values[first + j].getClass())) {
+                    ++j;
+                }
+                if (j == arguments)
+                    return handles[i];
+            }
+            return null;
+        }
+
+        // past `SIZE` argument types, the handles are resolved again on every call
+        private synchronized MethodHandle miss(Object[] values, int first) {
+            MethodHandle handle = find(values, first);
+            if (null != handle)
+                return handle;
+            handle = resolve(values, first);
+            if (count < SIZE) {
+                Class<?>[] guard = new Class<?>[values.length - first];
+                for (int i = first; i < values.length; ++i) {
+                    guard[i - first] = null == values[i] ? null : values[i].getClass();
+                }
+                guards[count] = guard;
+                handles[count] = handle;
+                ++count;
+            }
+            return handle;
+        }
+
+        // the overload the arguments fit best, adapted to take them as lox values
+        private MethodHandle resolve(Object[] values, int first) {
+            Executable best = null;
+            int bestScore = -1;
+            for (Executable overload : overloads) {
+                int score = score(overload, values, first);
+                if (score > bestScore) {
+                    best = overload;
+                    bestScore = score;
+                }
+            }
+            if (null == best)
+                throw new NativeError(this + ": no overload takes " + describe(values, first));
+            try {
+                return adapt(best, values.length - first);
+            } catch (ReflectiveOperationException e) {
+                throw new NativeError(this + ": can't call " + best);
+            }
+        }
+
+        // -1 if the arguments don't fit `overload`, higher the better they do
+        private static int score(Executable overload, Object[] values, int first) {
+            Class<?>[] parameters = overload.getParameterTypes();
+            int arguments = values.length - first;
+            // lox has no java arrays to pass, so varargs are always collected
+            boolean collects = overload.isVarArgs();
+            int fixed = collects ? parameters.length - 1 : parameters.length;
+            if (collects ? arguments < fixed : arguments != fixed)
+                return -1;
+            // a varargs overload only wins when nothing else fits
+            int total = collects ? 0 : 1;
+            for (int i = 0; i < arguments; ++i) {
+                Class<?> parameter = i < fixed ? parameters[i] : parameters[fixed].getComponentType();
+                int score = score(parameter, values[first + i]);
+                if (-1 == score)
+                    return -1;
+                total += score;
+            }
+            return total;
+        }
+
+        private static int score(Class<?> parameter, Object value) {
+            if (null == value)
+                return parameter.isPrimitive() ? -1 : 1;
+            if (value instanceof Double) {
+                if (double.class == parameter || Double.class == parameter) return 10;
+                if (long.class == parameter || Long.class == parameter) return 8;
+                if (int.class == parameter || Integer.class == parameter) return 7;
+                if (float.class == parameter || Float.class == parameter) return 6;
+                if (short.class == parameter || Short.class == parameter) return 5;
+                if (byte.class == parameter || Byte.class == parameter) return 4;
+            } else if (Rope.isString(value)) {
+                if (String.class == parameter) return 10;
+                if (CharSequence.class == parameter) return 9;
+                if ((char.class == parameter || Character.class == parameter) && 1 == ((CharSequence) value).length())
+                    return 8;
+                if (parameter.isAssignableFrom(String.class)) return 2;
+                return -1;
+            } else if (value instanceof Boolean) {
+                if (boolean.class == parameter || Boolean.class == parameter) return 10;
+            }
+            return parameter.isInstance(value) ? 3 : -1;
+        }
+
+        private MethodHandle adapt(Executable overload, int arguments) throws ReflectiveOperationException {
+            Class<?> type = owner.type;
+            MethodHandle handle;
+            if (overload instanceof Constructor<?> constructor) {
+                handle = PUBLIC.findConstructor(type, MethodType.methodType(void.class, constructor.getParameterTypes()));
+            } else {
+                Method method = (Method) overload;
+                // found on the registered class, so methods inherited from ones that aren't public work
+                MethodType methodType = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+                handle = isStatic
+                        ? PUBLIC.findStatic(type, name, methodType)
+                        : PUBLIC.findVirtual(type, name, methodType);
+            }
+            handle = handle.asFixedArity();
+            Class<?>[] parameters = overload.getParameterTypes();
+            int receiver = isStatic ? 0 : 1;
+            if (overload.isVarArgs())
+                handle = handle.asCollector(parameters[parameters.length - 1], arguments - (parameters.length - 1));
+            MethodType adapted = handle.type();
+            MethodHandle[] filters = new MethodHandle[adapted.parameterCount()];
+            for (int i = receiver; i < filters.length; ++i) {
+                filters[i] = converter(adapted.parameterType(i));
+            }
+            if (1 == receiver)
+                filters[0] = MethodHandles.identity(Object.class).asType(MethodType.methodType(type, Object.class));
+            handle = MethodHandles.filterArguments(handle, 0, filters);
+            handle = handle.asType(handle.type().changeReturnType(Object.class));
+            handle = MethodHandles.filterReturnValue(handle, FROM_JAVA);
+            return handle.asSpreader(Object[].class, filters.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+        }
+
+        private String describe(Object[] values, int first) {
+            var builder = new StringBuilder("(");
+            for (int i = first; i < values.length; ++i) {
+                if (i != first)
+                    builder.append(", ");
+                Object value = values[i];
+                builder.append(null == value ? "nil" : value instanceof Double ? "number"
+                        : Rope.isString(value) ? "string" : value.getClass().getSimpleName());
+            }
+            return builder.append(')').toString();
+        }
+
+        @Override
+        public int arity() {
+            return ANY;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return invoke(arguments.toArray());
+        }
+
+        @Override
+        public Object call0(Interpreter interpreter) {
+            return invoke(new Object[0]);
+        }
+
+        @Override
+        public Object call1(Interpreter interpreter, Object a0) {
+            return invoke(new Object[] { a0 });
+        }
+
+        @Override
+        public Object call2(Interpreter interpreter, Object a0, Object a1) {
+            return invoke(new Object[] { a0, a1 });
+        }
+
+        @Override
+        public String toString() {
+            return "<host fn " + owner.type.getSimpleName() + "." + name + ">";
+        }
+    }
+
+    // an instance method and the object it's called on, what `object.name` evaluates to
+    static final class Bound implements LoxCallable {
+        private final Member method;
+        private final Object receiver;
+
+        Bound(Member method, Object receiver) {
+            this.method = method;
+            this.receiver = receiver;
+        }
+
+        @Override
+        public int arity() {
+            return ANY;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            Object[] values = new Object[arguments.size() + 1];
+            values[0] = receiver;
+            for (int i = 0; i < arguments.size(); ++i) {
+                values[i + 1] = arguments.get(i);
+            }
+            return method.invoke(values);
+        }
+
+        @Override
+        public Object call0(Interpreter interpreter) {
+            return method.invoke(new Object[] { receiver });
+        }
+
+        @Override
+        public Object call1(Interpreter interpreter, Object a0) {
+            return method.invoke(new Object[] { receiver, a0 });
+        }
+
+        @Override
+        public Object call2(Interpreter interpreter, Object a0, Object a1) {
+            return method.invoke(new Object[] { receiver, a0, a1 });
+        }
+
+        @Override
+        public String toString() {
+            return method.toString();
+        }
+    }
+
+    // what a parameter of `type` gets from a lox value
+    private static MethodHandle converter(Class<?> type) {
+        MethodHandle converter = TO_JAVA.get(type);
+        if (null != converter)
+            return converter;
+        if (CharSequence.class == type)
+            return TO_JAVA.get(String.class).asType(MethodType.methodType(type, Object.class));
+        Class<?> primitive = MethodType.methodType(type).unwrap().returnType();
+        if (primitive != type)
+            return TO_JAVA.get(primitive).asType(MethodType.methodType(type, Object.class));
+        return TO_JAVA.get(Object.class).asType(MethodType.methodType(type, Object.class));
+    }
+
+    // a java result as a lox value
+    private static Object fromJava(Object value) {
+        if (value instanceof Double || value instanceof String || value instanceof Boolean)
+            return value;
+        if (value instanceof Number number)
+            return number.doubleValue();
+        if (value instanceof Character c)
+            return String.valueOf(c.charValue());
+        if (value instanceof Object[] values) {
+            var array = new LoxArray(0);
+            for (Object element : values) {
+                array.push(fromJava(element));
+            }
+            return array;
+        }
+        return value;
+    }
+
+    private static double toDouble(Object value) {
+        if (!(value instanceof Double number))
+            throw new NativeError("host: expected a number");
+        return number;
+    }
+
+    private static float toFloat(Object value) {
+        return (float) toDouble(value);
+    }
+
+    // whole numbers only, in the range of the type
+    private static long whole(Object value, double min, double max, String type) {
+        double number = toDouble(value);
+        if (number != Math.rint(number) || number < min || number > max)
+            throw new NativeError("host: " + value + " isn't a " + type);
+        return (long) number;
+    }
+
+    private static long toLong(Object value) {
+        return whole(value, Long.MIN_VALUE, Long.MAX_VALUE, "long");
+    }
+
+    private static int toInt(Object value) {
+        return (int) whole(value, Integer.MIN_VALUE, Integer.MAX_VALUE, "int");
+    }
+
+    private static short toShort(Object value) {
+        return (short) whole(value, Short.MIN_VALUE, Short.MAX_VALUE, "short");
+    }
+
+    private static byte toByte(Object value) {
+        return (byte) whole(value, Byte.MIN_VALUE, Byte.MAX_VALUE, "byte");
+    }
+
+    private static char toChar(Object value) {
+        if (!Rope.isString(value) || 1 != ((CharSequence) value).length())
+            throw new NativeError("host: expected a single character");
+        return ((CharSequence) value).charAt(0);
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (!(value instanceof Boolean bool))
+            throw new NativeError("host: expected true or false");
+        return bool;
+    }
+
+    private static String toString(Object value) {
+        if (null == value)
+            return null;
+        if (!Rope.isString(value))
+            throw new NativeError("host: expected a string");
+        return value.toString();
+    }
+
+    // ropes are flattened, as java only knows `String`
+    private static Object toObject(Object value) {
+        return value instanceof Rope ? value.toString() : value;
+    }
+}
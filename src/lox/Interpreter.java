@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import lox.Expr.Get;
 import lox.Expr.Set;
@@ -13,29 +14,56 @@ import lox.Stmt.Fun;
 import lox.Stmt.Return;
 
 public class Interpreter implements Expr.Visitor<Object>,
-        Stmt.Visitor<Void> {
-
-    final Environment globals = new Environment();
-    Environment environment = globals;
-    private Map<Expr, Integer> locals = new HashMap<>();
+        Stmt.Visitor<Interpreter.Completion> {
+
+    final Environment globals;
+    Environment environment;
+    private final Map<Expr, Integer> locals;
+    // functions that reference locals of an enclosing scope. they need their closure environment
+    // so `Jit` leaves them to the interpreter. written by the resolver, read by the compiler thread
+    private final java.util.Set<Stmt.Fun> capturing;
+    // `return f(...);` statements in tail position, found by the resolver
+    private final java.util.Set<Stmt.Return> tailCalls;
+    // innermost function being interpreted, for back-edge counting
+    LoxFunction currentFunction = null;
+    // lox functions currently on the stack, and how many of them a program may nest. `Lox` runs
+    // programs on a thread whose java stack is sized for that many
+    int callDepth = 0;
+    static int maxDepth = 10_000;
+
+    // how a statement finished. loops and calls look at this instead of catching exceptions
+    enum Completion {
+        NORMAL, BREAK, CONTINUE, RETURN, TAIL_CALL
+    }
+
+    // the value of the last `RETURN`, and the token of the last `BREAK`/`CONTINUE`
+    Object returnValue = null;
+    Token jump = null;
+    // the function and arguments of the last `TAIL_CALL`, which the returning `LoxFunction.call`
+    // runs in place of itself
+    LoxFunction tailCallee = null;
+    List<Object> tailArguments = null;
+    // feedback recorded for the next run of the same script, see `Profile`. null when not profiling
+    Profile profile = null;
 
     Interpreter() {
-        globals.define("time", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
-
-            @Override
-            public Double call(Interpreter interpreter, List<Object> arguments) {
-                return System.currentTimeMillis() / 1000.;
-            }
+        globals = new Environment();
+        environment = globals;
+        locals = new HashMap<>();
+        capturing = ConcurrentHashMap.newKeySet();
+        tailCalls = ConcurrentHashMap.newKeySet();
+        Natives.define(globals);
+    }
 
-            @Override
-            public String toString() {
-                return "<native-fn>";
-            }
-        });
+    // runs the same program as `parent` on another thread, for the body of a generator (see
+    // `LoxGenerator`). everything found by the resolver is shared, the interpreting state is its own
+    Interpreter(Interpreter parent) {
+        globals = parent.globals;
+        environment = globals;
+        locals = parent.locals;
+        capturing = parent.capturing;
+        tailCalls = parent.tailCalls;
+        profile = parent.profile;
     }
 
     static class RuntimeError extends RuntimeException {
@@ -47,10 +75,13 @@ public class Interpreter implements Expr.Visitor<Object>,
         }
     };
 
+    // `break`/`continue` escaping a function body, which then affect the caller's loop. the only
+    // case where control flow still unwinds with exceptions, see `LoxFunction.call`
     static class ContinueException extends RuntimeException {
         final Token token;
 
         ContinueException(Token token) {
+            super(null, null, false, false);
             this.token = token;
         }
     };
@@ -59,16 +90,8 @@ public class Interpreter implements Expr.Visitor<Object>,
         final Token token;
 
         BreakException(Token token) {
-            this.token = token;
-        }
-    };
-
-    static class ReturnException extends RuntimeException {
-        final Object obj;
-
-        ReturnException(Object obj) {
             super(null, null, false, false);
-            this.obj = obj;
+            this.token = token;
         }
     };
 
@@ -77,10 +100,12 @@ public class Interpreter implements Expr.Visitor<Object>,
             for (Stmt stmt : statements) {
                 if (stmt instanceof Stmt.Expression exprstmt
                         // avoid printing `x = y`;
-                        && !(exprstmt.expression instanceof Expr.Assignment))
+                        && !(exprstmt.expression instanceof Expr.Assignment)
+                        && !(exprstmt.expression instanceof Expr.Increment))
                     System.out.println(evaluate((exprstmt.expression)));
-                else
-                    execute(stmt);
+                else if (Completion.NORMAL != execute(stmt))
+                    // the resolver rejects a top-level `return`, so this was a `break` or `continue`
+                    throw new RuntimeError(jump, "statement may only be used inside a loop");
             }
         } catch (RuntimeError error) {
             Lox.runtimeError(error);
@@ -99,11 +124,11 @@ public class Interpreter implements Expr.Visitor<Object>,
         // return expr.accept(this);
     }
 
-    public void execute(Stmt stmt) {
-        stmt.accept(this);
+    public Completion execute(Stmt stmt) {
+        return stmt.accept(this);
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (null == object)
             return false;
         if (object instanceof Boolean obj)
@@ -126,7 +151,7 @@ public class Interpreter implements Expr.Visitor<Object>,
             throw new RuntimeError(operator, "right operand must be a number.");
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         /*
          * Java's `==` may work for primitives, but for Strings it will compare
          * pointers,
@@ -135,8 +160,14 @@ public class Interpreter implements Expr.Visitor<Object>,
          * Object,
          * and for Strings, it actually compares the contents.
          */
+        // interned strings (see `Symbols`) and other shared values are equal without a look inside
+        if (a == b)
+            return true;
         if (null == a)
-            return null == b ? true : false;
+            return false;
+        // a `String` doesn't know it can equal a `Rope`
+        if (b instanceof Rope)
+            return b.equals(a);
         return a.equals(b);
     }
 
@@ -144,6 +175,30 @@ public class Interpreter implements Expr.Visitor<Object>,
         locals.put(expr, ancestor);
     }
 
+    Map<Expr, Integer> locals() {
+        return locals;
+    }
+
+    void markCapturing(Stmt.Fun function) {
+        capturing.add(function);
+    }
+
+    boolean isCapturing(Stmt.Fun function) {
+        return capturing.contains(function);
+    }
+
+    void markTailCall(Stmt.Return stmt) {
+        tailCalls.add(stmt);
+    }
+
+    boolean isTailCall(Stmt.Return stmt) {
+        return tailCalls.contains(stmt);
+    }
+
+    java.util.Set<Stmt.Return> tailCalls() {
+        return tailCalls;
+    }
+
     private Object lookupVariable(Token name, Expr expr) {
         Integer depth = locals.get(expr);
         if (depth == null) {
@@ -249,8 +304,11 @@ public class Interpreter implements Expr.Visitor<Object>,
                 checkNumberOperands(expr.operator, left, right);
                 return (double) left - (double) right;
             case PLUS:
-                if (left instanceof String l && right instanceof String r)
-                    return l + r;
+                if (left instanceof CharSequence l && right instanceof CharSequence r) {
+                    if (null != profile)
+                        profile.sawStrings(expr.operator);
+                    return Rope.concat(l, r);
+                }
                 checkNumberOperands(expr.operator, left, right);
                 return (double) left + (double) right;
 
@@ -267,30 +325,32 @@ public class Interpreter implements Expr.Visitor<Object>,
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         System.out.println(evaluate(stmt.expression));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        return executeBlock(stmt, new Environment(environment));
     }
 
-    void executeBlock(Stmt.Block stmt, Environment environment) {
+    Completion executeBlock(Stmt.Block stmt, Environment environment) {
         var prevEnvironment = this.environment;
         try {
             this.environment = environment;
             for (Stmt statement : stmt.statements) {
-                execute(statement);
+                Completion completion = execute(statement);
+                if (Completion.NORMAL != completion)
+                    return completion;
             }
+            return Completion.NORMAL;
         } finally {
             this.environment = prevEnvironment;
         }
@@ -298,46 +358,60 @@ public class Interpreter implements Expr.Visitor<Object>,
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         // NOTE: evaluating `stmt.initializer` in-place means we're always assigning by
         // value, not reference'
         environment.define(stmt.name,
                 null == stmt.initializer ? null /* for declaration */ : evaluate(stmt.initializer));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition)))
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         else if (null != stmt.elseBranch)
-            execute(stmt.elseBranch);
-        return null;
+            return execute(stmt.elseBranch);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
-            // this is probably bad for performance, but so is making an interpreter in Java
+            if (null != currentFunction)
+                currentFunction.countBackEdge(this);
+            Completion completion;
             try {
-                execute(stmt.body);
+                completion = execute(stmt.body);
             } catch (ContinueException e) {
                 continue;
             } catch (BreakException e) {
                 break;
             }
+            if (Completion.BREAK == completion)
+                break;
+            if (Completion.RETURN == completion || Completion.TAIL_CALL == completion)
+                return completion;
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitContinueStmt(Stmt.Continue stmt) {
-        throw new ContinueException(stmt.token);
+    public Completion visitYieldStmt(Stmt.Yield stmt) {
+        LoxGenerator.yieldValue(evaluate(stmt.value));
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitBreakStmt(Stmt.Break stmt) {
-        throw new BreakException(stmt.token);
+    public Completion visitContinueStmt(Stmt.Continue stmt) {
+        jump = stmt.token;
+        return Completion.CONTINUE;
+    }
+
+    @Override
+    public Completion visitBreakStmt(Stmt.Break stmt) {
+        jump = stmt.token;
+        return Completion.BREAK;
     }
 
     @Override
@@ -347,43 +421,122 @@ public class Interpreter implements Expr.Visitor<Object>,
         // 2. OR callExpr (`fun()();`)
         // 3. OR getExpr (`object.method()`)
         // as checked by Parser.call
-        Object callee = evaluate(expr.callee);
+        LoxCallable function = checkCallable(evaluate(expr.callee), expr.arguments.size(), expr.paren);
+        return call(function, expr.arguments, expr.paren);
+    }
+
+    // evaluates the arguments (not lazily) and picks the entry point for their number, so the
+    // usual calls don't build an argument list
+    private Object call(LoxCallable function, List<Expr> arguments, Token paren) {
+        if (null != profile)
+            profile.called(paren, function);
+        try {
+            switch (arguments.size()) {
+                case 0:
+                    return function.call0(this);
+                case 1:
+                    return function.call1(this, evaluate(arguments.get(0)));
+                case 2:
+                    return function.call2(this, evaluate(arguments.get(0)), evaluate(arguments.get(1)));
+                case 3:
+                    return function.call3(this, evaluate(arguments.get(0)), evaluate(arguments.get(1)),
+                            evaluate(arguments.get(2)));
+                default:
+                    List<Object> args = new ArrayList<>(arguments.size());
+                    for (Expr arg : arguments) {
+                        args.add(evaluate(arg));
+                    }
+                    return function.call(this, args);
+            }
+        } catch (Natives.NativeError error) {
+            throw new RuntimeError(paren, error.getMessage());
+        }
+    }
+
+    // shared with compiled code, see `JitRuntime`
+    static LoxCallable checkCallable(Object callee, int argCount, Token paren) {
         // TODO: should this be a runtime or parse time error?
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "expression is not callable");
+            throw new RuntimeError(paren, "expression is not callable");
         }
         // visitVariableExpr will check against variable mapping in the environment, and
         // should return a callable
         LoxCallable function = (LoxCallable) callee;
-        if (expr.arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren,
-                    "call expected " + function.arity() + " but got " + expr.arguments.size());
+        if (argCount != function.arity() && LoxCallable.ANY != function.arity()) {
+            throw new RuntimeError(paren,
+                    "call expected " + function.arity() + " but got " + argCount);
         }
-        List<Object> args = new ArrayList<>();
-        // args aren't evaluated lazily
-        for (Expr arg : expr.arguments) {
-            args.add(evaluate(arg));
-        }
-
-        return function.call(this, args);
+        return function;
     }
 
     @Override
-    public Void visitFunStmt(Fun stmt) {
+    public Completion visitFunStmt(Fun stmt) {
         environment.define(stmt.name, new LoxFunction(stmt, environment, false, false, false));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Return stmt) {
-        throw new ReturnException(evaluate(stmt.expr));
+    public Completion visitReturnStmt(Return stmt) {
+        if (isTailCall(stmt))
+            return tailCall(stmt.expr);
+        returnValue = evaluate(stmt.expr);
+        return Completion.RETURN;
+    }
+
+    // evaluates the callee and arguments like `visitCallExpr`, but leaves calling a lox function to
+    // the `LoxFunction.call` being returned from, so tail calls don't grow the java stack
+    private Completion tailCall(Expr expr) {
+        LoxCallable function;
+        List<Expr> arguments;
+        Token paren;
+        if (expr instanceof Expr.Invoke invoke) {
+            Fuser.Pattern.INVOKE.hit();
+            arguments = invoke.arguments;
+            paren = invoke.paren;
+            if (null == invoke.cache)
+                invoke.cache = new InlineCache();
+            function = checkCallable(getProperty(evaluate(invoke.object), invoke.name, invoke.cache), arguments.size(),
+                    paren);
+        } else {
+            var call = (Expr.Call) expr;
+            arguments = call.arguments;
+            paren = call.paren;
+            function = checkCallable(evaluate(call.callee), arguments.size(), paren);
+        }
+        if (null != profile)
+            profile.called(paren, function);
+        List<Object> args = new ArrayList<>(arguments.size());
+        for (Expr arg : arguments) {
+            args.add(evaluate(arg));
+        }
+        if (function instanceof LoxFunction callee) {
+            tailCallee = callee;
+            tailArguments = args;
+            return Completion.TAIL_CALL;
+        }
+        try {
+            returnValue = function.call(this, args);
+        } catch (Natives.NativeError error) {
+            throw new RuntimeError(paren, error.getMessage());
+        }
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitClassStmt(Class stmt) {
+    public Completion visitClassStmt(Class stmt) {
         // 2-step declare then define so we can reference the class inside class body
         // (even if it's undefined, just so function declarations can reference `this`)
         environment.define(stmt.name, null);
+        LoxClass superclass = null;
+        // what methods close over: the class's scope, or the one the resolver put `super` in
+        Environment scope = environment;
+        if (null != stmt.superclass) {
+            if (!(evaluate(stmt.superclass) instanceof LoxClass klass))
+                throw new RuntimeError(stmt.superclass.name, "superclass must be a class");
+            superclass = klass;
+            scope = new Environment(environment);
+            scope.define("super", superclass);
+        }
         // environment = new Environment(environment);
         // don't handle `this` here anymore because binding does it instead
         // environment.define("this", null);
@@ -395,7 +548,7 @@ public class Interpreter implements Expr.Visitor<Object>,
             if (isConstructor && method.isStatic) {
                 throw new RuntimeError(method.name, "constructor may not be static");
             }
-            var fun = new LoxFunction(method, environment, isConstructor, method.isStatic, method.isGetter);
+            var fun = new LoxFunction(method, scope, isConstructor, method.isStatic, method.isGetter);
             if (method.isStatic) {
                 staticMethods.put(method.name.lexeme, fun);
             } else {
@@ -403,36 +556,71 @@ public class Interpreter implements Expr.Visitor<Object>,
                 methods.put(method.name.lexeme, fun);
             }
         }
-        var klass = new LoxClass(stmt.name.lexeme, methods, staticMethods);
+        var klass = new LoxClass(stmt.name.lexeme, superclass, methods, staticMethods);
 
         // environment.assign("this", klass);
         // environment = environment.enclosing;
         environment.assign(stmt.name, klass);
 
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitGetExpr(Get expr) {
-        Object left = evaluate(expr.object);
-        if (!(left instanceof LoxInstance)) {
-            throw new RuntimeError(expr.name, "only instances may have properties");
-        }
-        var property = ((LoxInstance) left).get(expr.name);
+        if (null == expr.cache)
+            expr.cache = new InlineCache();
+        return getProperty(evaluate(expr.object), expr.name, expr.cache);
+    }
+
+    Object getProperty(Object object, Token name) {
+        if (!(object instanceof LoxInstance instance))
+            return Interop.get(object, name.lexeme, name);
+        return getter(instance.get(name));
+    }
+
+    // `getProperty` through the inline cache of the site doing it
+    Object getProperty(Object object, Token name, InlineCache cache) {
+        if (!(object instanceof LoxInstance instance))
+            return Interop.get(object, name.lexeme, name);
+        return cache.get(this, instance, name);
+    }
+
+    // what reading `property` evaluates to: getters are called
+    Object getter(Object property) {
         if (property instanceof LoxFunction && ((LoxFunction)property).isGetter) {
-            return ((LoxFunction)property).call(this, null);
+            return ((LoxFunction) property).call0(this);
         }
         return property;
     }
 
+    static LoxInstance checkInstance(Object object, Token name) {
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(name, "only instances may have properties");
+        }
+        return (LoxInstance) object;
+    }
+
     @Override
     public Object visitSetExpr(Set expr) {
-        Object left = evaluate(expr.object);
-        if (!(left instanceof LoxInstance)) {
-            throw new RuntimeError(expr.name, "only instances may have properties");
-        }
+        LoxInstance instance = checkInstance(evaluate(expr.object), expr.name);
         var value = evaluate(expr.value);
-        ((LoxInstance) left).set(expr.name, value);
+        if (null == expr.cache)
+            expr.cache = new InlineCache();
+        expr.cache.set(instance, expr.name, value);
+        return value;
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        return LoxIndexable.check(evaluate(expr.object), expr.bracket).get(evaluate(expr.index), expr.bracket);
+    }
+
+    @Override
+    public Object visitIndexSetExpr(Expr.IndexSet expr) {
+        LoxIndexable indexable = LoxIndexable.check(evaluate(expr.object), expr.bracket);
+        var index = evaluate(expr.index);
+        var value = evaluate(expr.value);
+        indexable.set(index, value, expr.bracket);
         return value;
     }
 
@@ -440,4 +628,106 @@ public class Interpreter implements Expr.Visitor<Object>,
     public Object visitThisExpr(This expr) {
         return lookupVariable(expr.keyword, expr);
     }
+
+    @Override
+    public Object visitSuperExpr(Expr.Super expr) {
+        int depth = locals.get(expr);
+        var superclass = (LoxClass) environment.getAt(depth, "super");
+        // `this` is always in the scope right inside `super`'s
+        Object object = environment.getAt(depth - 1, "this");
+        LoxFunction method = superclass.methods.get(expr.method.lexeme);
+        if (null == method)
+            throw new RuntimeError(expr.method, "undefined superclass method '" + expr.method.lexeme + "'");
+        return getter(method.bind(object));
+    }
+
+    // fused nodes, see `Fuser`. each one does what the nodes it replaces would, with the same errors
+
+    private Environment resolved(int depth) {
+        return -1 == depth ? globals : environment.ancestor(depth);
+    }
+
+    @Override
+    public Object visitIncrementExpr(Expr.Increment expr) {
+        Fuser.Pattern.INCREMENT.hit();
+        Environment environment = resolved(expr.depth);
+        Object value = environment.get(expr.name);
+        if (value instanceof Double number)
+            value = TokenType.PLUS == expr.operator.type ? number + expr.delta : number - expr.delta;
+        else if (TokenType.PLUS == expr.operator.type)
+            value = JitRuntime.add(value, expr.delta, expr.operator);
+        else
+            value = JitRuntime.subtract(value, expr.delta, expr.operator);
+        environment.assign(expr.name, value);
+        return value;
+    }
+
+    @Override
+    public Object visitCompareConstantExpr(Expr.CompareConstant expr) {
+        Fuser.Pattern.COMPARE_CONSTANT.hit();
+        if (!(resolved(expr.depth).get(expr.name) instanceof Double value))
+            throw new RuntimeError(expr.operator, "left operand must be a number.");
+        switch (expr.operator.type) {
+            case GREATER:
+                return value > expr.constant;
+            case GREATER_EQUAL:
+                return value >= expr.constant;
+            case LESS:
+                return value < expr.constant;
+            default:
+                return value <= expr.constant;
+        }
+    }
+
+    @Override
+    public Object visitInvokeExpr(Expr.Invoke expr) {
+        Fuser.Pattern.INVOKE.hit();
+        if (null == expr.cache)
+            expr.cache = new InlineCache();
+        Object object = evaluate(expr.object);
+        if (object instanceof LoxInstance instance) {
+            // methods are called on `instance` directly instead of being bound first
+            LoxFunction method = expr.cache.method(instance, expr.name);
+            if (null != method) {
+                checkCallable(method, expr.arguments.size(), expr.paren);
+                return invoke(method, instance, expr.arguments, expr.paren);
+            }
+        }
+        LoxCallable function = checkCallable(getProperty(object, expr.name, expr.cache), expr.arguments.size(),
+                expr.paren);
+        return call(function, expr.arguments, expr.paren);
+    }
+
+    // `call` for a method of `receiver`
+    private Object invoke(LoxFunction method, LoxInstance receiver, List<Expr> arguments, Token paren) {
+        if (null != profile)
+            profile.called(paren, method);
+        switch (arguments.size()) {
+            case 0:
+                return method.invoke0(this, receiver);
+            case 1:
+                return method.invoke1(this, receiver, evaluate(arguments.get(0)));
+            case 2:
+                return method.invoke2(this, receiver, evaluate(arguments.get(0)), evaluate(arguments.get(1)));
+            case 3:
+                return method.invoke3(this, receiver, evaluate(arguments.get(0)), evaluate(arguments.get(1)),
+                        evaluate(arguments.get(2)));
+            default:
+                List<Object> args = new ArrayList<>(arguments.size());
+                for (Expr arg : arguments) {
+                    args.add(evaluate(arg));
+                }
+                return method.invoke(this, receiver, args);
+        }
+    }
+
+    @Override
+    public Completion visitIfVariableStmt(Stmt.IfVariable stmt) {
+        Fuser.Pattern.IF_VARIABLE.hit();
+        if (isTruthy(resolved(stmt.depth).get(stmt.name)))
+            return execute(stmt.thenBranch);
+        else if (null != stmt.elseBranch)
+            return execute(stmt.elseBranch);
+        return Completion.NORMAL;
+    }
 }
@@ -0,0 +1,118 @@
+package lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * second tier for `LoxFunction`s: once a function is called or loops often enough, a background
+ * thread compiles its body to JVM bytecode (see `JitCompiler`), loads it as a hidden class and swaps
+ * it in as the function's entry point, so HotSpot can inline and optimize it like Java code.
+ * functions using something the compiler doesn't handle just stay interpreted.
+ */
+final class Jit {
+    // entry point of a compiled function, implemented by the generated hidden classes
+    interface Entry {
+        Object invoke(Interpreter interpreter, List<Object> arguments);
+    }
+
+    static boolean enabled = true;
+    static boolean log = false;
+    static int invocationThreshold = 1000;
+    static int backEdgeThreshold = 10000;
+
+    private static final Object UNSUPPORTED = new Object();
+    // compiled code only depends on the declaration, so closures over the same one share it
+    private static final Map<Stmt.Fun, Object> results = Collections.synchronizedMap(new WeakHashMap<>());
+    // functions compiled ahead of time by `Aot`, used from their first call
+    private static final Map<Stmt.Fun, Entry> precompiled = new IdentityHashMap<>();
+    private static final ExecutorService compiler = Executors.newSingleThreadExecutor(task -> {
+        var thread = new Thread(task, "lox-jit");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Jit() {
+    }
+
+    static void setThreshold(int invocations) {
+        invocationThreshold = invocations;
+        backEdgeThreshold = invocations * 10;
+    }
+
+    // called on the interpreter thread when one of `function`'s counters crosses its threshold
+    static void hot(LoxFunction function, Interpreter interpreter) {
+        if (function.queued)
+            return;
+        if (null != interpreter.profile)
+            interpreter.profile.hot(function.declaration);
+        if (!enabled)
+            return;
+        function.queued = true;
+        Object known = results.get(function.declaration);
+        if (known instanceof Entry entry) {
+            function.compiled = entry;
+            return;
+        }
+        if (null != known)
+            return;
+        boolean capturing = interpreter.isCapturing(function.declaration);
+        compiler.execute(() -> {
+            Object result = compile(function, capturing, interpreter);
+            results.put(function.declaration, result);
+            if (result instanceof Entry entry)
+                function.compiled = entry;
+        });
+    }
+
+    private static Object compile(LoxFunction function, boolean capturing, Interpreter interpreter) {
+        try {
+            var entry = load(translate(function.declaration, capturing, function.isInitializer, interpreter));
+            if (log)
+                System.err.println("jit: compiled " + function);
+            return entry;
+        } catch (JitCompiler.Unsupported e) {
+            if (log)
+                System.err.println("jit: " + function + " stays interpreted: " + e.getMessage());
+        } catch (ClassEmitter.TooLargeException e) {
+            if (log)
+                System.err.println("jit: " + function + " stays interpreted: too large");
+        } catch (Throwable e) {
+            // a bug in the compiler shouldn't take the program down, the interpreter still works
+            if (log)
+                System.err.println("jit: failed to compile " + function + ": " + e);
+        }
+        return UNSUPPORTED;
+    }
+
+    // `interpreter` must have resolved `declaration`
+    static JitCompiler.Compiled translate(Stmt.Fun declaration, boolean capturing, boolean isInitializer,
+            Interpreter interpreter) {
+        if (capturing)
+            throw new JitCompiler.Unsupported("closes over enclosing variables");
+        if (isInitializer)
+            throw new JitCompiler.Unsupported("initializers return 'this'");
+        return new JitCompiler(declaration, interpreter).compile();
+    }
+
+    static Entry load(JitCompiler.Compiled compiled) throws Throwable {
+        var lookup = MethodHandles.lookup().defineHiddenClassWithClassData(
+                compiled.bytes(), compiled.constants(), true);
+        return (Entry) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+    }
+
+    // only called before the program starts running
+    static void preload(Stmt.Fun declaration, Entry entry) {
+        precompiled.put(declaration, entry);
+    }
+
+    static Entry precompiled(Stmt.Fun declaration) {
+        return precompiled.isEmpty() ? null : precompiled.get(declaration);
+    }
+}
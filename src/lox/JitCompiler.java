@@ -0,0 +1,581 @@
+package lox;
+
+import static lox.ClassEmitter.*;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * translates one function's resolved AST into a hidden class implementing `Jit.Entry`. values stay
+ * boxed `Object`s and every operation calls into `JitRuntime`, so the generated code has the exact
+ * semantics of the interpreter while HotSpot gets to inline across the whole function.
+ * locals (parameters included) live in JVM local variables, which is only valid because functions
+ * that close over enclosing scopes or declare functions/classes of their own are rejected.
+ */
+class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final String OBJECT = "java/lang/Object";
+    private static final String RUNTIME = JitRuntime.class.getName().replace('.', '/');
+    private static final String TOKEN = "Llox/Token;";
+    private static final String INTERPRETER = "Llox/Interpreter;";
+    private static final String BINARY = "(Ljava/lang/Object;Ljava/lang/Object;" + TOKEN + ")Ljava/lang/Object;";
+    private static final String COMPARISON = "(Ljava/lang/Object;Ljava/lang/Object;" + TOKEN + ")Z";
+    // slots of the entry method's receiver and parameters
+    private static final int INTERPRETER_SLOT = 1;
+    private static final int ARGUMENTS_SLOT = 2;
+
+    static class Unsupported extends RuntimeException {
+        Unsupported(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    record Compiled(byte[] bytes, Object[] constants) implements Serializable {
+    }
+
+    private static class Loop {
+        final Label start;
+        final Label end;
+
+        Loop(Label start, Label end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private final Stmt.Fun function;
+    private final Interpreter interpreter;
+    private final ClassEmitter emitter;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new IdentityHashMap<>();
+    private final Deque<Map<String, Integer>> scopes = new ArrayDeque<>();
+    private Loop loop = null;
+    private ClassEmitter.Method method;
+
+    JitCompiler(Stmt.Fun function, Interpreter interpreter) {
+        this.function = function;
+        this.interpreter = interpreter;
+        this.emitter = new ClassEmitter("lox/Compiled$" + function.name.lexeme, OBJECT, "lox/Jit$Entry");
+    }
+
+    Compiled compile() {
+        emitter.field(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "K", "[Ljava/lang/Object;");
+
+        // the constant pool of Lox values is passed as class data
+        var clinit = emitter.method(ACC_STATIC, "<clinit>", "()V", 0);
+        clinit.invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup",
+                "()Ljava/lang/invoke/MethodHandles$Lookup;");
+        clinit.pushString("_");
+        clinit.pushClass("[Ljava/lang/Object;");
+        clinit.invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "classData",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;");
+        clinit.type(CHECKCAST, "[Ljava/lang/Object;");
+        clinit.field(PUTSTATIC, emitter.name(), "K", "[Ljava/lang/Object;");
+        clinit.op(RETURN, 0);
+
+        var init = emitter.method(ACC_PUBLIC, "<init>", "()V", 1);
+        init.local(ALOAD, 0);
+        init.invoke(INVOKESPECIAL, OBJECT, "<init>", "()V");
+        init.op(RETURN, 0);
+
+        method = emitter.method(ACC_PUBLIC, "invoke", "(" + INTERPRETER + "Ljava/util/List;)Ljava/lang/Object;", 3);
+        // parameters and the body share one scope, like `LoxFunction.call`
+        scopes.push(new HashMap<>());
+        for (int i = 0; i < function.params.size(); ++i) {
+            method.local(ALOAD, ARGUMENTS_SLOT);
+            method.pushInt(i);
+            method.invoke(INVOKESTATIC, RUNTIME, "argument", "(Ljava/util/List;I)Ljava/lang/Object;");
+            declare(function.params.get(i));
+        }
+        if (function.body instanceof Stmt.Block block) {
+            for (Stmt statement : block.statements) {
+                compile(statement);
+            }
+        } else {
+            compile(function.body);
+        }
+        method.op(ACONST_NULL, 1);
+        method.op(ARETURN, -1);
+        scopes.pop();
+        return new Compiled(emitter.toByteArray(), constants.toArray());
+    }
+
+    private void compile(Stmt stmt) {
+        if (null == stmt)
+            throw new Unsupported("parse errors");
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    // pops the value on top of the stack into a new local variable
+    private void declare(Token name) {
+        int slot = method.newLocal();
+        method.local(ASTORE, slot);
+        scopes.peek().put(name.lexeme, slot);
+    }
+
+    private Integer lookup(Token name) {
+        for (Map<String, Integer> scope : scopes) {
+            Integer slot = scope.get(name.lexeme);
+            if (null != slot)
+                return slot;
+        }
+        // the resolver marks functions reaching into enclosing scopes, so anything else is global
+        return null;
+    }
+
+    private void constant(Object value, String type) {
+        Integer index = constantIndices.get(value);
+        if (null == index) {
+            index = constants.size();
+            constants.add(value);
+            constantIndices.put(value, index);
+        }
+        method.field(GETSTATIC, emitter.name(), "K", "[Ljava/lang/Object;");
+        method.pushInt(index);
+        method.op(AALOAD, -1);
+        if (null != type)
+            method.type(CHECKCAST, type);
+    }
+
+    private void token(Token token) {
+        constant(token, "lox/Token");
+    }
+
+    private void runtime(String name, String descriptor) {
+        method.invoke(INVOKESTATIC, RUNTIME, name, descriptor);
+    }
+
+    // branches to `otherwise` when `condition` is falsy, skipping the boxing of comparisons
+    private void branchIfFalse(Expr condition, Label otherwise) {
+        while (condition instanceof Expr.Grouping grouping)
+            condition = grouping.expression;
+        if (condition instanceof Expr.CompareConstant fused)
+            condition = Fuser.unfuse(fused);
+        if (condition instanceof Expr.Binary binary) {
+            String comparison = comparison(binary.operator.type);
+            if (null != comparison) {
+                compile(binary.left);
+                compile(binary.right);
+                token(binary.operator);
+                runtime(comparison, COMPARISON);
+                method.jump(IFEQ, otherwise);
+                return;
+            }
+        }
+        if (condition instanceof Expr.Unary unary && unary.operator.type == TokenType.BANG) {
+            compile(unary.right);
+            runtime("truthy", "(Ljava/lang/Object;)Z");
+            method.jump(IFNE, otherwise);
+            return;
+        }
+        compile(condition);
+        runtime("truthy", "(Ljava/lang/Object;)Z");
+        method.jump(IFEQ, otherwise);
+    }
+
+    private static String comparison(TokenType type) {
+        switch (type) {
+            case GREATER: return "greater";
+            case GREATER_EQUAL: return "greaterEqual";
+            case LESS: return "less";
+            case LESS_EQUAL: return "lessEqual";
+            default: return null;
+        }
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalBinaryExpr(Expr.LogicalBinary expr) {
+        int height = method.stack();
+        compile(expr.left);
+        switch (expr.operator.type) {
+            case AND: {
+                // `a and b` yields `b` only when both are truthy, `a` otherwise
+                int left = method.newLocal();
+                var useLeft = method.newLabel();
+                var end = method.newLabel();
+                method.local(ASTORE, left);
+                method.local(ALOAD, left);
+                runtime("truthy", "(Ljava/lang/Object;)Z");
+                method.jump(IFEQ, useLeft);
+                compile(expr.right);
+                method.op(DUP, 1);
+                runtime("truthy", "(Ljava/lang/Object;)Z");
+                method.jump(IFNE, end);
+                method.op(POP, -1);
+                method.mark(useLeft);
+                method.setStack(height);
+                method.local(ALOAD, left);
+                method.mark(end);
+                break;
+            }
+            case OR: {
+                var end = method.newLabel();
+                method.op(DUP, 1);
+                runtime("truthy", "(Ljava/lang/Object;)Z");
+                method.jump(IFNE, end);
+                method.op(POP, -1);
+                compile(expr.right);
+                method.mark(end);
+                break;
+            }
+            default:
+                throw new Unsupported("operator " + expr.operator.lexeme);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        String comparison = comparison(expr.operator.type);
+        if (null != comparison) {
+            token(expr.operator);
+            runtime(comparison, COMPARISON);
+            runtime("box", "(Z)Ljava/lang/Object;");
+            return null;
+        }
+        switch (expr.operator.type) {
+            case EQUAL_EQUAL:
+            case BANG_EQUAL:
+                runtime("equal", "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+                if (expr.operator.type == TokenType.BANG_EQUAL) {
+                    method.op(ICONST_0 + 1, 1);
+                    method.op(0x82 /* ixor */, -1);
+                }
+                runtime("box", "(Z)Ljava/lang/Object;");
+                return null;
+            case PLUS:
+                token(expr.operator);
+                runtime(null != interpreter.profile && interpreter.profile.seenStrings(expr.operator)
+                        ? "concat" : "add", BINARY);
+                return null;
+            case MINUS:
+                token(expr.operator);
+                runtime("subtract", BINARY);
+                return null;
+            case STAR:
+                token(expr.operator);
+                runtime("multiply", BINARY);
+                return null;
+            case SLASH:
+                token(expr.operator);
+                runtime("divide", BINARY);
+                return null;
+            default:
+                throw new Unsupported("operator " + expr.operator.lexeme);
+        }
+    }
+
+    @Override
+    public Void visitAssignmentExpr(Expr.Assignment expr) {
+        Integer slot = lookup(expr.name);
+        if (null != slot) {
+            compile(expr.value);
+            method.op(DUP, 1);
+            method.local(ASTORE, slot);
+            return null;
+        }
+        method.local(ALOAD, INTERPRETER_SLOT);
+        token(expr.name);
+        compile(expr.value);
+        runtime("assignGlobal", "(" + INTERPRETER + TOKEN + "Ljava/lang/Object;)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        switch (expr.operator.type) {
+            case BANG:
+                runtime("truthy", "(Ljava/lang/Object;)Z");
+                method.op(ICONST_0 + 1, 1);
+                method.op(0x82 /* ixor */, -1);
+                runtime("box", "(Z)Ljava/lang/Object;");
+                return null;
+            case MINUS:
+                token(expr.operator);
+                runtime("negate", "(Ljava/lang/Object;" + TOKEN + ")Ljava/lang/Object;");
+                return null;
+            default:
+                throw new Unsupported("operator " + expr.operator.lexeme);
+        }
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        Integer slot = lookup(expr.name);
+        if (null != slot) {
+            method.local(ALOAD, slot);
+            return null;
+        }
+        method.local(ALOAD, INTERPRETER_SLOT);
+        token(expr.name);
+        runtime("getGlobal", "(" + INTERPRETER + TOKEN + ")Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (null == expr.value)
+            method.op(ACONST_NULL, 1);
+        else if (expr.value instanceof Boolean bool)
+            method.field(GETSTATIC, "java/lang/Boolean", bool ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+        else
+            constant(expr.value, null);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        int height = method.stack();
+        var otherwise = method.newLabel();
+        var end = method.newLabel();
+        branchIfFalse(expr.condition, otherwise);
+        compile(expr.thenExpr);
+        method.jump(GOTO, end);
+        method.mark(otherwise);
+        method.setStack(height);
+        compile(expr.elseExpr);
+        method.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        call(expr, "call");
+        return null;
+    }
+
+    // `target` is the `JitRuntime` method doing the actual call
+    private void call(Expr.Call expr, String target) {
+        // whatever this site called last run gets compiled too, as it's called from hot code
+        if (null != interpreter.profile) {
+            Token callee = interpreter.profile.target(expr.paren);
+            if (null != callee)
+                interpreter.profile.promote(callee);
+        }
+        // the callee is checked before evaluating arguments, like `Interpreter.visitCallExpr`
+        compile(expr.callee);
+        method.pushInt(expr.arguments.size());
+        token(expr.paren);
+        runtime("callable", "(Ljava/lang/Object;I" + TOKEN + ")Llox/LoxCallable;");
+        method.local(ALOAD, INTERPRETER_SLOT);
+        if (target.equals("call") && expr.arguments.size() <= 3) {
+            // arguments go straight on the stack, see `LoxCallable.call0`
+            for (Expr argument : expr.arguments) {
+                compile(argument);
+            }
+            token(expr.paren);
+            runtime("call" + expr.arguments.size(), "(Llox/LoxCallable;" + INTERPRETER
+                    + "Ljava/lang/Object;".repeat(expr.arguments.size()) + TOKEN + ")Ljava/lang/Object;");
+            return;
+        }
+        method.pushInt(expr.arguments.size());
+        method.type(ANEWARRAY, OBJECT);
+        for (int i = 0; i < expr.arguments.size(); ++i) {
+            method.op(DUP, 1);
+            method.pushInt(i);
+            compile(expr.arguments.get(i));
+            method.op(AASTORE, -3);
+        }
+        token(expr.paren);
+        runtime(target, "(Llox/LoxCallable;" + INTERPRETER + "[Ljava/lang/Object;" + TOKEN + ")Ljava/lang/Object;");
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        method.local(ALOAD, INTERPRETER_SLOT);
+        // the node itself, for its inline cache
+        constant(expr, "lox/Expr$Get");
+        runtime("get", "(Ljava/lang/Object;" + INTERPRETER + "Llox/Expr$Get;)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        token(expr.name);
+        runtime("instance", "(Ljava/lang/Object;" + TOKEN + ")Llox/LoxInstance;");
+        compile(expr.value);
+        constant(expr, "lox/Expr$Set");
+        runtime("set", "(Llox/LoxInstance;Ljava/lang/Object;Llox/Expr$Set;)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        compile(expr.object);
+        token(expr.bracket);
+        runtime("indexable", "(Ljava/lang/Object;" + TOKEN + ")Llox/LoxIndexable;");
+        compile(expr.index);
+        token(expr.bracket);
+        runtime("index", "(Llox/LoxIndexable;Ljava/lang/Object;" + TOKEN + ")Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        compile(expr.object);
+        token(expr.bracket);
+        runtime("indexable", "(Ljava/lang/Object;" + TOKEN + ")Llox/LoxIndexable;");
+        compile(expr.index);
+        compile(expr.value);
+        token(expr.bracket);
+        runtime("setIndex", "(Llox/LoxIndexable;Ljava/lang/Object;Ljava/lang/Object;" + TOKEN + ")Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        throw new Unsupported("uses 'this'");
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported("uses 'super'");
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopes.push(new HashMap<>());
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        method.op(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        method.field(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+        compile(stmt.expression);
+        method.invoke(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/Object;)V");
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        var otherwise = method.newLabel();
+        var end = method.newLabel();
+        branchIfFalse(stmt.condition, otherwise);
+        compile(stmt.thenBranch);
+        method.jump(GOTO, end);
+        method.mark(otherwise);
+        if (null != stmt.elseBranch)
+            compile(stmt.elseBranch);
+        method.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        var enclosing = loop;
+        loop = new Loop(method.newLabel(), method.newLabel());
+        method.mark(loop.start);
+        branchIfFalse(stmt.condition, loop.end);
+        compile(stmt.body);
+        method.jump(GOTO, loop.start);
+        method.mark(loop.end);
+        loop = enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        if (null == loop)
+            throw new Unsupported("'continue' outside of a loop");
+        method.jump(GOTO, loop.start);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        if (null == loop)
+            throw new Unsupported("'break' outside of a loop");
+        method.jump(GOTO, loop.end);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (null == stmt.initializer)
+            method.op(ACONST_NULL, 1);
+        else
+            compile(stmt.initializer);
+        declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitFunStmt(Stmt.Fun stmt) {
+        throw new Unsupported("declares function '" + stmt.name.lexeme + "'");
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        throw new Unsupported("yields");
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (null == stmt.expr)
+            method.op(ACONST_NULL, 1);
+        else if (interpreter.isTailCall(stmt))
+            call(stmt.expr instanceof Expr.Invoke invoke ? Fuser.unfuse(invoke) : (Expr.Call) stmt.expr, "tailCall");
+        else
+            compile(stmt.expr);
+        method.op(ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported("declares class '" + stmt.name.lexeme + "'");
+    }
+
+    // fused nodes are just compiled like the code they replace
+
+    @Override
+    public Void visitIncrementExpr(Expr.Increment expr) {
+        return Fuser.unfuse(expr).accept(this);
+    }
+
+    @Override
+    public Void visitCompareConstantExpr(Expr.CompareConstant expr) {
+        return Fuser.unfuse(expr).accept(this);
+    }
+
+    @Override
+    public Void visitInvokeExpr(Expr.Invoke expr) {
+        return Fuser.unfuse(expr).accept(this);
+    }
+
+    @Override
+    public Void visitIfVariableStmt(Stmt.IfVariable stmt) {
+        return Fuser.unfuse(stmt).accept(this);
+    }
+}
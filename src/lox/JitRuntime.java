@@ -0,0 +1,203 @@
+package lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+import lox.Interpreter.RuntimeError;
+
+/*
+ * operations called from code generated by `JitCompiler`. they take and return plain `Object`s
+ * like the interpreter, and are small enough for HotSpot to inline into the compiled function.
+ * must stay in step with the `Interpreter` visitors, including their error messages
+ */
+final class JitRuntime {
+    private JitRuntime() {
+    }
+
+    private static RuntimeError operandsError(Token operator, Object left) {
+        return new RuntimeError(operator, !(left instanceof Double)
+                ? "left operand must be a number."
+                : "right operand must be a number.");
+    }
+
+    static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r)
+            return l + r;
+        if (left instanceof CharSequence l && right instanceof CharSequence r)
+            return Rope.concat(l, r);
+        throw operandsError(operator, left);
+    }
+
+    // `add` for sites that saw strings last run, see `Profile`
+    static Object concat(Object left, Object right, Token operator) {
+        if (left instanceof CharSequence l && right instanceof CharSequence r)
+            return Rope.concat(l, r);
+        if (left instanceof Double l && right instanceof Double r)
+            return l + r;
+        throw operandsError(operator, left);
+    }
+
+    static Object subtract(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r)
+            return l - r;
+        throw operandsError(operator, left);
+    }
+
+    static Object multiply(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r)
+            return l * r;
+        throw operandsError(operator, left);
+    }
+
+    static Object divide(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r)
+            return l / r;
+        throw operandsError(operator, left);
+    }
+
+    // comparisons return a primitive so conditions can branch on them without boxing
+    static boolean greater(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r)
+            return l > r;
+        throw operandsError(operator, left);
+    }
+
+    static boolean greaterEqual(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r)
+            return l >= r;
+        throw operandsError(operator, left);
+    }
+
+    static boolean less(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r)
+            return l < r;
+        throw operandsError(operator, left);
+    }
+
+    static boolean lessEqual(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r)
+            return l <= r;
+        throw operandsError(operator, left);
+    }
+
+    static boolean equal(Object left, Object right) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    static boolean truthy(Object value) {
+        return Interpreter.isTruthy(value);
+    }
+
+    static Object box(boolean value) {
+        return value;
+    }
+
+    static Object negate(Object right, Token operator) {
+        if (!(right instanceof Double value))
+            throw new RuntimeError(operator, "operand must be a number.");
+        return -value;
+    }
+
+    static Object getGlobal(Interpreter interpreter, Token name) {
+        return interpreter.globals.get(name);
+    }
+
+    static Object assignGlobal(Interpreter interpreter, Token name, Object value) {
+        interpreter.globals.assign(name, value);
+        return value;
+    }
+
+    static LoxCallable callable(Object callee, int argCount, Token paren) {
+        return Interpreter.checkCallable(callee, argCount, paren);
+    }
+
+    // natives' errors are reported at `paren`, like `Interpreter.call` does
+
+    static Object call(LoxCallable function, Interpreter interpreter, Object[] arguments, Token paren) {
+        try {
+            return function.call(interpreter, Arrays.asList(arguments));
+        } catch (Natives.NativeError error) {
+            throw new RuntimeError(paren, error.getMessage());
+        }
+    }
+
+    static Object call0(LoxCallable function, Interpreter interpreter, Token paren) {
+        try {
+            return function.call0(interpreter);
+        } catch (Natives.NativeError error) {
+            throw new RuntimeError(paren, error.getMessage());
+        }
+    }
+
+    static Object call1(LoxCallable function, Interpreter interpreter, Object a0, Token paren) {
+        try {
+            return function.call1(interpreter, a0);
+        } catch (Natives.NativeError error) {
+            throw new RuntimeError(paren, error.getMessage());
+        }
+    }
+
+    static Object call2(LoxCallable function, Interpreter interpreter, Object a0, Object a1, Token paren) {
+        try {
+            return function.call2(interpreter, a0, a1);
+        } catch (Natives.NativeError error) {
+            throw new RuntimeError(paren, error.getMessage());
+        }
+    }
+
+    static Object call3(LoxCallable function, Interpreter interpreter, Object a0, Object a1, Object a2,
+            Token paren) {
+        try {
+            return function.call3(interpreter, a0, a1, a2);
+        } catch (Natives.NativeError error) {
+            throw new RuntimeError(paren, error.getMessage());
+        }
+    }
+
+    // what compiled code returns instead of a value after setting up a tail call, which
+    // `LoxFunction.call` then runs like it does for interpreted ones
+    static final Object TAIL_CALL = new Object();
+
+    static Object tailCall(LoxCallable function, Interpreter interpreter, Object[] arguments, Token paren) {
+        if (!(function instanceof LoxFunction callee))
+            return call(function, interpreter, arguments, paren);
+        interpreter.tailCallee = callee;
+        interpreter.tailArguments = Arrays.asList(arguments);
+        return TAIL_CALL;
+    }
+
+    // property accesses share their site's inline cache with the interpreter
+    static Object get(Object object, Interpreter interpreter, Expr.Get site) {
+        if (null == site.cache)
+            site.cache = new InlineCache();
+        return interpreter.getProperty(object, site.name, site.cache);
+    }
+
+    static LoxIndexable indexable(Object object, Token bracket) {
+        return LoxIndexable.check(object, bracket);
+    }
+
+    static Object index(LoxIndexable indexable, Object index, Token bracket) {
+        return indexable.get(index, bracket);
+    }
+
+    static Object setIndex(LoxIndexable indexable, Object index, Object value, Token bracket) {
+        indexable.set(index, value, bracket);
+        return value;
+    }
+
+    static LoxInstance instance(Object object, Token name) {
+        return Interpreter.checkInstance(object, name);
+    }
+
+    static Object set(LoxInstance instance, Object value, Expr.Set site) {
+        if (null == site.cache)
+            site.cache = new InlineCache();
+        site.cache.set(instance, site.name, value);
+        return value;
+    }
+
+    static Object argument(List<Object> arguments, int index) {
+        return arguments.get(index);
+    }
+}
@@ -0,0 +1,699 @@
+package lox;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import lox.Natives.NativeError;
+
+/*
+ * JSON for `jsonParse`, `jsonStringify`, `jsonEvents` and `jsonElements`. objects become maps (see
+ * `LoxMap`, which keeps their keys in order), arrays become arrays, numbers doubles and null nil.
+ * parsing is a single pass over the characters: strings without escapes are cut straight out of the
+ * text, and numbers are accumulated digit by digit and scaled by an exact power of ten when that's
+ * exact too, so only numbers with more than 19 digits or a large exponent go through
+ * `Double.parseDouble`.
+ * `Events` and `Elements` parse the same way, a piece at a time, without building the whole tree.
+ * the text is read through a `Source`, which decodes a buffer of UTF-8 a window at a time, so
+ * streaming from a mapped file never holds more of it as characters than the window
+ */
+final class Json {
+    // how deeply arrays and objects nest before parsing or stringifying gives up
+    private static final int MAX_DEPTH = 512;
+    // the largest mantissa every double can hold exactly
+    private static final long EXACT = 1L << 53;
+    private static final double[] POWERS = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+    };
+
+    // what `Events` yields
+    static final String START_OBJECT = "startObject";
+    static final String END_OBJECT = "endObject";
+    static final String START_ARRAY = "startArray";
+    static final String END_ARRAY = "endArray";
+    static final String KEY = "key";
+    static final String VALUE = "value";
+
+    private Json() {
+    }
+
+    static Object parse(Source text, String function) {
+        var reader = new Reader(text, function);
+        Object value = reader.value(0);
+        reader.end();
+        return value;
+    }
+
+    /*
+     * the characters of the text, by position from its start. a string is there all at once, a
+     * buffer is decoded into a window that moves on as the reader does: characters before `keep`,
+     * the start of the token being read, are dropped when more are decoded, and a token longer than
+     * the window makes it larger. malformed UTF-8 becomes U+FFFD, as with `text(buffer)`
+     */
+    static final class Source {
+        private static final int WINDOW = 1 << 16;
+
+        // null for a string
+        private final LoxBuffer buffer;
+        private final ByteBuffer bytes;
+        private final CharsetDecoder decoder;
+        private final String function;
+        private char[] chars;
+        // the position of `chars[0]`, and how many of them are decoded
+        private int offset = 0;
+        private int limit;
+        private boolean ended;
+        // the earliest position the reader may still go back to
+        private int keep = 0;
+
+        Source(String text) {
+            this.buffer = null;
+            this.bytes = null;
+            this.decoder = null;
+            this.function = null;
+            this.chars = text.toCharArray();
+            this.limit = chars.length;
+            this.ended = true;
+        }
+
+        Source(LoxBuffer buffer, String function) {
+            this.buffer = buffer;
+            this.bytes = buffer.bytes();
+            this.decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.function = function;
+            this.chars = new char[WINDOW];
+            this.limit = 0;
+            this.ended = !bytes.hasRemaining();
+        }
+
+        // whether there's a character at `position`, decoding up to it
+        boolean has(int position) {
+            while (position - offset >= limit) {
+                if (ended)
+                    return false;
+                decode();
+            }
+            return true;
+        }
+
+        // only once `has(position)`
+        char at(int position) {
+            return chars[position - offset];
+        }
+
+        void keep(int position) {
+            keep = position;
+        }
+
+        boolean startsWith(String prefix, int position) {
+            for (int i = 0; i < prefix.length(); ++i) {
+                if (!has(position + i) || prefix.charAt(i) != at(position + i))
+                    return false;
+            }
+            return true;
+        }
+
+        String substring(int from, int to) {
+            return new String(chars, from - offset, to - from);
+        }
+
+        StringBuilder builder(int from, int to) {
+            return new StringBuilder().append(chars, from - offset, to - from);
+        }
+
+        private void decode() {
+            // released buffers fail only with foreign memory, so they're caught here for both
+            if (buffer.arena.isReleased())
+                throw new NativeError(function + ": buffer was released");
+            int dropped = keep - offset;
+            if (dropped > 0) {
+                System.arraycopy(chars, dropped, chars, 0, limit - dropped);
+                limit -= dropped;
+                offset = keep;
+            }
+            if (limit == chars.length)
+                chars = Arrays.copyOf(chars, chars.length * 2);
+            CharBuffer out = CharBuffer.wrap(chars, limit, chars.length - limit);
+            // every byte is there already, so each call is given the end of the input
+            decoder.decode(bytes, out, true);
+            if (!bytes.hasRemaining()) {
+                decoder.flush(out);
+                ended = true;
+            }
+            limit = out.position();
+        }
+    }
+
+    // a cursor over the text. errors give the native's name and the offset they were found at
+    private static final class Reader {
+        final Source text;
+        final String function;
+        int position = 0;
+
+        Reader(Source text, String function) {
+            this.text = text;
+            this.function = function;
+        }
+
+        NativeError error(String message) {
+            return new NativeError(function + ": " + message + " at " + position);
+        }
+
+        NativeError unexpected() {
+            if (!text.has(position))
+                return error("unexpected end");
+            return error("unexpected '" + text.at(position) + "'");
+        }
+
+        // the next character that isn't whitespace, -1 at the end. every token is peeked at first,
+        // so nothing before this is needed again
+        int peek() {
+            text.keep(position);
+            while (text.has(position)) {
+                char c = text.at(position);
+                if (' ' != c && '\n' != c && '\r' != c && '\t' != c)
+                    return c;
+                ++position;
+            }
+            return -1;
+        }
+
+        void expect(char c) {
+            if (c != peek())
+                throw unexpected();
+            ++position;
+        }
+
+        // nothing but whitespace may follow
+        void end() {
+            if (-1 != peek())
+                throw unexpected();
+        }
+
+        Object value(int depth) {
+            switch (peek()) {
+                case '{': return object(depth + 1);
+                case '[': return array(depth + 1);
+                default: return scalar();
+            }
+        }
+
+        private LoxMap object(int depth) {
+            if (depth > MAX_DEPTH)
+                throw error("nesting too deep");
+            ++position;
+            var map = new LoxMap();
+            if ('}' == peek()) {
+                ++position;
+                return map;
+            }
+            for (;;) {
+                if ('"' != peek())
+                    throw unexpected();
+                String key = string();
+                expect(':');
+                map.set(key, value(depth), null);
+                int c = peek();
+                ++position;
+                if ('}' == c)
+                    return map;
+                if (',' != c) {
+                    --position;
+                    throw unexpected();
+                }
+            }
+        }
+
+        private LoxArray array(int depth) {
+            if (depth > MAX_DEPTH)
+                throw error("nesting too deep");
+            ++position;
+            var array = new LoxArray(0);
+            if (']' == peek()) {
+                ++position;
+                return array;
+            }
+            for (;;) {
+                array.push(value(depth));
+                int c = peek();
+                ++position;
+                if (']' == c)
+                    return array;
+                if (',' != c) {
+                    --position;
+                    throw unexpected();
+                }
+            }
+        }
+
+        // a string, number, boolean or null
+        Object scalar() {
+            int c = peek();
+            if ('"' == c)
+                return string();
+            if ('-' == c || ('0' <= c && c <= '9'))
+                return number();
+            if (text.startsWith("true", position)) {
+                position += 4;
+                return true;
+            }
+            if (text.startsWith("false", position)) {
+                position += 5;
+                return false;
+            }
+            if (text.startsWith("null", position)) {
+                position += 4;
+                return null;
+            }
+            throw unexpected();
+        }
+
+        // at the opening quote
+        String string() {
+            int start = ++position;
+            while (text.has(position)) {
+                char c = text.at(position);
+                if ('"' == c)
+                    return text.substring(start, position++);
+                if ('\\' == c)
+                    return escaped(text.builder(start, position));
+                if (c < 0x20)
+                    throw error("control character in string");
+                ++position;
+            }
+            throw error("unterminated string");
+        }
+
+        // the rest of a string from its first escape on
+        private String escaped(StringBuilder builder) {
+            while (text.has(position)) {
+                char c = text.at(position++);
+                if ('"' == c)
+                    return builder.toString();
+                if (c < 0x20) {
+                    --position;
+                    throw error("control character in string");
+                }
+                if ('\\' != c) {
+                    builder.append(c);
+                    continue;
+                }
+                if (!text.has(position))
+                    break;
+                switch (text.at(position++)) {
+                    case '"': builder.append('"'); break;
+                    case '\\': builder.append('\\'); break;
+                    case '/': builder.append('/'); break;
+                    case 'b': builder.append('\b'); break;
+                    case 'f': builder.append('\f'); break;
+                    case 'n': builder.append('\n'); break;
+                    case 'r': builder.append('\r'); break;
+                    case 't': builder.append('\t'); break;
+                    case 'u': builder.append(unicode()); break;
+                    default:
+                        --position;
+                        throw error("unknown escape");
+                }
+            }
+            throw error("unterminated string");
+        }
+
+        private char unicode() {
+            if (!text.has(position + 3))
+                throw error("unterminated string");
+            int code = 0;
+            for (int end = position + 4; position < end; ++position) {
+                int digit = Character.digit(text.at(position), 16);
+                if (-1 == digit)
+                    throw error("expected 4 hex digits");
+                code = code << 4 | digit;
+            }
+            return (char) code;
+        }
+
+        private double number() {
+            boolean negative = '-' == text.at(position);
+            if (negative)
+                ++position;
+            int start = position;
+            long mantissa = 0;
+            int digits = 0;
+            int exponent = 0;
+            // whether `mantissa` and `exponent` hold every digit
+            boolean exact = true;
+            if (text.has(position) && '0' == text.at(position)) {
+                ++position;
+            } else if (isDigit()) {
+                while (isDigit()) {
+                    if (digits < 18) {
+                        mantissa = mantissa * 10 + (text.at(position) - '0');
+                        if (0 != mantissa)
+                            ++digits;
+                    } else {
+                        exact = false;
+                    }
+                    ++position;
+                }
+            } else {
+                throw unexpected();
+            }
+            if (text.has(position) && '.' == text.at(position)) {
+                ++position;
+                if (!isDigit())
+                    throw unexpected();
+                while (isDigit()) {
+                    if (digits < 18) {
+                        mantissa = mantissa * 10 + (text.at(position) - '0');
+                        if (0 != mantissa)
+                            ++digits;
+                        --exponent;
+                    } else {
+                        exact = false;
+                    }
+                    ++position;
+                }
+            }
+            if (text.has(position) && ('e' == text.at(position) || 'E' == text.at(position))) {
+                ++position;
+                boolean negativeExponent = false;
+                if (text.has(position) && ('+' == text.at(position) || '-' == text.at(position)))
+                    negativeExponent = '-' == text.at(position++);
+                if (!isDigit())
+                    throw unexpected();
+                int written = 0;
+                while (isDigit()) {
+                    if (written < 100000)
+                        written = written * 10 + (text.at(position) - '0');
+                    ++position;
+                }
+                exponent += negativeExponent ? -written : written;
+            }
+            double value;
+            if (exact && mantissa <= EXACT && -22 <= exponent && exponent <= 22)
+                value = exponent < 0 ? mantissa / POWERS[-exponent] : mantissa * POWERS[exponent];
+            else
+                value = Double.parseDouble(text.substring(start, position));
+            return negative ? -value : value;
+        }
+
+        private boolean isDigit() {
+            if (!text.has(position))
+                return false;
+            char c = text.at(position);
+            return '0' <= c && c <= '9';
+        }
+    }
+
+    /*
+     * the pull parser, made by `jsonEvents(text)`: yields "startObject", "endObject", "startArray",
+     * "endArray", "key" and "value", parsing only as far as the event asked for. `jsonValue` gives the
+     * key or value of the last event
+     */
+    static final class Events extends LoxIterator {
+        private enum State { VALUE, VALUE_OR_END, KEY, KEY_OR_END, AFTER, DONE }
+
+        private final Reader reader;
+        // true for each object the parser is in, false for each array
+        private final List<Boolean> containers = new ArrayList<>();
+        private State state = State.VALUE;
+        // the next event, once `hasNext` parsed it, and its key or value
+        private String event;
+        private Object pending;
+        private Object current;
+
+        Events(Source text) {
+            super("jsonEvents");
+            this.reader = new Reader(text, "jsonEvents");
+        }
+
+        Object current() {
+            return current;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (null == event)
+                event = parse();
+            return null != event;
+        }
+
+        @Override
+        Object advance() {
+            String next = event;
+            current = pending;
+            event = null;
+            pending = null;
+            return next;
+        }
+
+        private String parse() {
+            for (;;) {
+                switch (state) {
+                    case DONE:
+                        return null;
+                    case AFTER: {
+                        int c = reader.peek();
+                        if (containers.isEmpty()) {
+                            reader.end();
+                            state = State.DONE;
+                            return null;
+                        }
+                        boolean inObject = containers.get(containers.size() - 1);
+                        ++reader.position;
+                        if (',' == c) {
+                            state = inObject ? State.KEY : State.VALUE;
+                            continue;
+                        }
+                        if ((inObject ? '}' : ']') == c)
+                            return close();
+                        --reader.position;
+                        throw reader.unexpected();
+                    }
+                    case KEY, KEY_OR_END: {
+                        int c = reader.peek();
+                        if (State.KEY_OR_END == state && '}' == c) {
+                            ++reader.position;
+                            return close();
+                        }
+                        if ('"' != c)
+                            throw reader.unexpected();
+                        pending = reader.string();
+                        reader.expect(':');
+                        state = State.VALUE;
+                        return KEY;
+                    }
+                    default: {
+                        int c = reader.peek();
+                        if (State.VALUE_OR_END == state && ']' == c) {
+                            ++reader.position;
+                            return close();
+                        }
+                        if ('{' == c || '[' == c) {
+                            if (containers.size() == MAX_DEPTH)
+                                throw reader.error("nesting too deep");
+                            ++reader.position;
+                            containers.add('{' == c);
+                            state = '{' == c ? State.KEY_OR_END : State.VALUE_OR_END;
+                            return '{' == c ? START_OBJECT : START_ARRAY;
+                        }
+                        pending = reader.scalar();
+                        state = State.AFTER;
+                        return VALUE;
+                    }
+                }
+            }
+        }
+
+        private String close() {
+            boolean inObject = containers.remove(containers.size() - 1);
+            state = State.AFTER;
+            return inObject ? END_OBJECT : END_ARRAY;
+        }
+    }
+
+    /*
+     * the elements of a top-level array, each parsed in full as it's asked for, made by
+     * `jsonElements(text)`. for large arrays of records, which never have to exist all at once
+     */
+    static final class Elements extends LoxIterator {
+        private final Reader reader;
+        private boolean first = true;
+        private boolean done = false;
+        private boolean pending = false;
+
+        Elements(Source text) {
+            super("jsonElements");
+            this.reader = new Reader(text, "jsonElements");
+            reader.expect('[');
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (pending)
+                return true;
+            if (done)
+                return false;
+            int c = reader.peek();
+            if (']' == c) {
+                ++reader.position;
+                reader.end();
+                done = true;
+                return false;
+            }
+            if (!first) {
+                if (',' != c)
+                    throw reader.unexpected();
+                ++reader.position;
+            }
+            first = false;
+            pending = true;
+            return true;
+        }
+
+        @Override
+        Object advance() {
+            pending = false;
+            return reader.value(1);
+        }
+    }
+
+    static String stringify(Object value) {
+        var builder = new StringBuilder();
+        write(builder, value, 0);
+        return builder.toString();
+    }
+
+    private static void write(StringBuilder out, Object value, int depth) {
+        if (depth > MAX_DEPTH)
+            throw new NativeError("jsonStringify: nesting too deep");
+        if (null == value) {
+            out.append("null");
+        } else if (value instanceof Boolean) {
+            out.append(value);
+        } else if (value instanceof Double number) {
+            number(out, number);
+        } else if (Rope.isString(value)) {
+            string(out, value.toString());
+        } else if (value instanceof LoxArray array) {
+            out.append('[');
+            for (int i = 0; i < array.size(); ++i) {
+                if (0 != i)
+                    out.append(',');
+                write(out, array.get(i), depth + 1);
+            }
+            out.append(']');
+        } else if (value instanceof PersistentVector vector) {
+            out.append('[');
+            for (int i = 0; i < vector.size(); ++i) {
+                if (0 != i)
+                    out.append(',');
+                write(out, vector.get(i), depth + 1);
+            }
+            out.append(']');
+        } else if (value instanceof LoxMap map) {
+            object(out, map.entries(true), map.entries(false), depth);
+        } else if (value instanceof PersistentMap dict) {
+            object(out, dict.entries(true), dict.entries(false), depth);
+        } else if (value instanceof LoxCallable) {
+            throw new NativeError("jsonStringify: can't encode " + value);
+        } else if (value instanceof LoxInstance instance) {
+            String[] names = instance.shape().names();
+            out.append('{');
+            for (int i = 0; i < names.length; ++i) {
+                if (0 != i)
+                    out.append(',');
+                string(out, names[i]);
+                out.append(':');
+                write(out, instance.slot(i), depth + 1);
+            }
+            out.append('}');
+        } else if (value instanceof VM.Instance instance) {
+            fields(out, instance.fields, depth);
+        } else if (value instanceof RecordInterpreter.Instance instance) {
+            fields(out, instance.fields, depth);
+        } else {
+            throw new NativeError("jsonStringify: can't encode " + value);
+        }
+    }
+
+    private static void object(StringBuilder out, LoxArray keys, LoxArray values, int depth) {
+        out.append('{');
+        for (int i = 0; i < keys.size(); ++i) {
+            if (0 != i)
+                out.append(',');
+            key(out, keys.get(i));
+            out.append(':');
+            write(out, values.get(i), depth + 1);
+        }
+        out.append('}');
+    }
+
+    private static void fields(StringBuilder out, Map<String, Object> fields, int depth) {
+        out.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            if (!first)
+                out.append(',');
+            first = false;
+            string(out, field.getKey());
+            out.append(':');
+            write(out, field.getValue(), depth + 1);
+        }
+        out.append('}');
+    }
+
+    // JSON keys are strings, so number keys are written as their digits
+    private static void key(StringBuilder out, Object key) {
+        if (Rope.isString(key)) {
+            string(out, key.toString());
+        } else if (key instanceof Double number) {
+            out.append('"');
+            number(out, number);
+            out.append('"');
+        } else {
+            throw new NativeError("jsonStringify: can't encode key " + key);
+        }
+    }
+
+    // whole numbers without the ".0" lox prints
+    private static void number(StringBuilder out, double number) {
+        if (Double.isNaN(number) || Double.isInfinite(number))
+            throw new NativeError("jsonStringify: can't encode " + number);
+        if (number == Math.rint(number) && Math.abs(number) < 1e15)
+            out.append((long) number);
+        else
+            out.append(number);
+    }
+
+    private static void string(StringBuilder out, String string) {
+        out.append('"');
+        int start = 0;
+        for (int i = 0; i < string.length(); ++i) {
+            char c = string.charAt(i);
+            if ('"' != c && '\\' != c && c >= 0x20)
+                continue;
+            out.append(string, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                case '\b': out.append("\\b"); break;
+                case '\f': out.append("\\f"); break;
+                default: out.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        out.append(string, start, string.length()).append('"');
+    }
+}
@@ -0,0 +1,111 @@
+package lox;
+
+/*
+ * loops over the `double[]` of numeric arrays, behind the bulk numeric natives (see `Natives`).
+ * `INSTANCE` uses the Vector API when the JVM runs with `--add-modules jdk.incubator.vector`, and
+ * plain loops otherwise. both round every product and every sum of two numbers to a double, without
+ * fusing a multiply and an add, so element-wise results like `axpy` and `map` are the same with
+ * either, whatever the length. sums and dot products may still round differently between the two,
+ * as the vector versions add up several lanes at a time and so in a different order.
+ * arithmetic is `PLUS`, `MINUS`, `STAR` or `SLASH`, comparisons `LESS`, `LESS_EQUAL`, `GREATER`,
+ * `GREATER_EQUAL`, `EQUAL_EQUAL` or `BANG_EQUAL` (compared like java's `==`). masks are 1 where the
+ * comparison holds and 0 where it doesn't, so they can be summed or used with `dot`
+ */
+interface Kernels {
+    Kernels INSTANCE = select();
+
+    // `VectorKernels` can't even be loaded without the module
+    private static Kernels select() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+            return new VectorKernels();
+        return new Scalar();
+    }
+
+    double sum(double[] a, int length);
+
+    double dot(double[] a, double[] b, int length);
+
+    // y = alpha * x + y
+    void axpy(double alpha, double[] x, double[] y, int length);
+
+    // out = a `operator` k
+    void map(double[] a, TokenType operator, double k, double[] out, int length);
+
+    // `length` is at least 1
+    double min(double[] a, int length);
+
+    double max(double[] a, int length);
+
+    // out = a `comparison` k ? 1 : 0
+    void compare(double[] a, TokenType comparison, double k, double[] out, int length);
+
+    final class Scalar implements Kernels {
+        @Override
+        public double sum(double[] a, int length) {
+            double sum = 0;
+            for (int i = 0; i < length; ++i) {
+                sum += a[i];
+            }
+            return sum;
+        }
+
+        @Override
+        public double dot(double[] a, double[] b, int length) {
+            double sum = 0;
+            for (int i = 0; i < length; ++i) {
+                sum += a[i] * b[i];
+            }
+            return sum;
+        }
+
+        @Override
+        public void axpy(double alpha, double[] x, double[] y, int length) {
+            for (int i = 0; i < length; ++i) {
+                y[i] += alpha * x[i];
+            }
+        }
+
+        // one loop per operator, so each stays a simple loop HotSpot can unroll
+        @Override
+        public void map(double[] a, TokenType operator, double k, double[] out, int length) {
+            switch (operator) {
+                case PLUS: for (int i = 0; i < length; ++i) out[i] = a[i] + k; break;
+                case MINUS: for (int i = 0; i < length; ++i) out[i] = a[i] - k; break;
+                case STAR: for (int i = 0; i < length; ++i) out[i] = a[i] * k; break;
+                case SLASH: for (int i = 0; i < length; ++i) out[i] = a[i] / k; break;
+                default: throw new IllegalArgumentException(operator.toString());
+            }
+        }
+
+        @Override
+        public double min(double[] a, int length) {
+            double min = a[0];
+            for (int i = 1; i < length; ++i) {
+                min = Math.min(min, a[i]);
+            }
+            return min;
+        }
+
+        @Override
+        public double max(double[] a, int length) {
+            double max = a[0];
+            for (int i = 1; i < length; ++i) {
+                max = Math.max(max, a[i]);
+            }
+            return max;
+        }
+
+        @Override
+        public void compare(double[] a, TokenType comparison, double k, double[] out, int length) {
+            switch (comparison) {
+                case LESS: for (int i = 0; i < length; ++i) out[i] = a[i] < k ? 1 : 0; break;
+                case LESS_EQUAL: for (int i = 0; i < length; ++i) out[i] = a[i] <= k ? 1 : 0; break;
+                case GREATER: for (int i = 0; i < length; ++i) out[i] = a[i] > k ? 1 : 0; break;
+                case GREATER_EQUAL: for (int i = 0; i < length; ++i) out[i] = a[i] >= k ? 1 : 0; break;
+                case EQUAL_EQUAL: for (int i = 0; i < length; ++i) out[i] = a[i] == k ? 1 : 0; break;
+                case BANG_EQUAL: for (int i = 0; i < length; ++i) out[i] = a[i] != k ? 1 : 0; break;
+                default: throw new IllegalArgumentException(comparison.toString());
+            }
+        }
+    }
+}
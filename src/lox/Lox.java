@@ -12,31 +12,141 @@ import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 
 class Lox {
-    static private Path file;
+    static Path file;
     /* interpreter needs to maintain state, so we can
     * retain variables and other state across multiple evaulations.
     * (i.e. REPL lines, modules) */
     static private final Interpreter interpreter = new Interpreter();
+    // bytecode backend, sharing globals with `interpreter`. only created with `--vm`
+    static private VM vm;
+    // tree-walker over the record AST, dispatching on node types. only created with `--records`
+    static private RecordInterpreter recordInterpreter;
+    static private boolean disassemble = false;
+    static private boolean fusion = true;
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
+    // java stack reserved per nested lox call, see `onLoxStack`
+    static private final long STACK_PER_CALL = 4 << 10;
+
+    interface Task {
+        void run() throws IOException;
+    }
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.err.println("usage: java lox <filename>");
-            System.exit(-1);
-        } else if (args.length == 1) {
-            runFile(args[0]);
-        } else runPrompt();
+        if (args.length > 0 && args[0].equals("compile")) {
+            compile(args);
+            return;
+        }
+        String filename = null;
+        for (String arg : args) {
+            if (arg.equals("--vm")) {
+                vm = new VM(interpreter);
+            } else if (arg.equals("--records")) {
+                recordInterpreter = new RecordInterpreter(interpreter);
+            } else if (arg.equals("--disassemble")) {
+                disassemble = true;
+            } else if (arg.equals("--no-fusion")) {
+                fusion = false;
+            } else if (arg.equals("--fusion-report")) {
+                Fuser.reporting = true;
+            } else if (arg.equals("--no-jit")) {
+                Jit.enabled = false;
+            } else if (arg.equals("--jit-log")) {
+                Jit.log = true;
+            } else if (arg.startsWith("--jit-threshold=")) {
+                Jit.setThreshold(Integer.parseInt(arg.substring("--jit-threshold=".length())));
+            } else if (arg.equals("--profile")) {
+                Profile.enabled = true;
+            } else if (arg.startsWith("--profile-dir=")) {
+                Profile.enabled = true;
+                Profile.directory = Path.of(arg.substring("--profile-dir=".length()));
+            } else if (arg.startsWith("--max-depth=")) {
+                Interpreter.maxDepth = Integer.parseInt(arg.substring("--max-depth=".length()));
+            } else if (arg.startsWith("--host=")) {
+                String name = arg.substring("--host=".length());
+                try {
+                    Interop.register(Class.forName(name));
+                } catch (ClassNotFoundException | IllegalArgumentException e) {
+                    System.err.println("can't host " + name + ": " + e.getMessage());
+                    System.exit(-1);
+                }
+            } else if (null == filename && !arg.startsWith("-")) {
+                filename = arg;
+            } else {
+                System.err.println("usage: java lox [--vm [--disassemble] | --records] [--no-fusion] [--fusion-report]"
+                        + " [--no-jit] [--jit-threshold=N] [--jit-log] [--profile] [--profile-dir=DIR] [--max-depth=N]"
+                        + " [--host=CLASS]... [<filename>]\n       java lox compile <filename> [-o <jar>]");
+                System.exit(-1);
+            }
+        }
+        String script = filename;
+        onLoxStack(() -> {
+            if (null != script) {
+                runFile(script);
+            } else runPrompt();
+        });
+    }
+
+    // java stack for a thread running lox code, see `onLoxStack`
+    static long loxStackSize() {
+        return (1 << 20) + STACK_PER_CALL * Interpreter.maxDepth;
+    }
+
+    // the main thread's stack overflows after a few thousand nested lox calls, well short of
+    // `Interpreter.maxDepth`, so programs run on a thread with room for that many
+    static void onLoxStack(Task task) throws IOException {
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                task.run();
+            } catch (IOException | RuntimeException | Error e) {
+                failure[0] = e;
+            }
+        }, "lox", loxStackSize());
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure[0] instanceof IOException e) throw e;
+        if (failure[0] instanceof RuntimeException e) throw e;
+        if (failure[0] instanceof Error e) throw e;
     }
 
     private static void runFile(String filename) throws IOException {
         file = Path.of(filename);
         String bytes = Files.readString(file,  Charset.defaultCharset());
         run(bytes);
+        if (null != interpreter.profile && !hadError)
+            interpreter.profile.save();
+        if (Fuser.reporting) Fuser.report(System.err);
         if (hadError) System.exit(65);
         if (hadRuntimeError) System.exit(70);
     }
 
+    // `compile <filename> [-o <jar>]`, see `Aot`
+    private static void compile(String[] args) throws IOException {
+        Path output = null;
+        if (args.length == 4 && args[2].equals("-o")) {
+            output = Path.of(args[3]);
+        } else if (args.length != 2) {
+            System.err.println("usage: java lox compile <filename> [-o <jar>]");
+            System.exit(-1);
+        }
+        file = Path.of(args[1]);
+        if (null == output)
+            output = Path.of(file.getFileName().toString().replaceFirst("(\\.lox)?$", ".jar"));
+        List<Token> tokens = new Scanner(Files.readString(file, Charset.defaultCharset())).scanTokens();
+        if (hadError) System.exit(65);
+        Iterable<Stmt> statements = new Parser(tokens).parse();
+        if (hadError) System.exit(65);
+        new Resolver(interpreter).resolve(statements);
+        if (hadError) System.exit(65);
+        statements = new Fuser(interpreter).fuse(statements);
+        Aot.compile(file, statements, interpreter, output);
+    }
+
     private static void runPrompt()  throws IOException {
         BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
         for (;;) {
@@ -53,6 +163,9 @@ class Lox {
         Scanner scanner = new Scanner(source);
         List<Token> tokens = scanner.scanTokens();
         if (hadError) return;
+        // only scripts are profiled, on the backend that uses it
+        if (null != file && Profile.enabled && null == vm && null == recordInterpreter)
+            interpreter.profile = Profile.load(source, tokens);
 
         Parser parser = new Parser(tokens);
         Iterable<Stmt> statements = parser.parse();
@@ -63,10 +176,33 @@ class Lox {
         resolver.resolve(statements);
         if (hadError) return;
 
+        if (null != vm) {
+            VmFunction script = new Compiler().compile(statements);
+            if (hadError) return;
+            if (disassemble) dumpBytecode(script);
+            vm.interpret(script);
+            return;
+        }
+
+        if (null != recordInterpreter) {
+            recordInterpreter.interpret(new RecordInterpreter.Lowering(interpreter).lower(statements));
+            return;
+        }
+
+        if (fusion)
+            statements = new Fuser(interpreter).fuse(statements);
         interpreter.interpret(statements);
         if (hadRuntimeError) return;
     }
 
+    private static void dumpBytecode(VmFunction function) {
+        System.err.print(function.chunk.disassemble(function.toString()));
+        for (int i = 0; i < function.chunk.constantCount; ++i) {
+            if (function.chunk.constants[i] instanceof VmFunction nested)
+                dumpBytecode(nested);
+        }
+    }
+
     static void runtimeError(RuntimeError error) {
         report(error.token.line, "at '"+error.token.lexeme+"'", error.getMessage());
         hadRuntimeError = true;
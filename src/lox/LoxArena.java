@@ -0,0 +1,61 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * owner of off-heap memory for `LoxBuffer`s, made by `Arena()`, or implicitly by `Buffer(n)` and
+ * `mapFile(path)` for the one buffer they return. releasing an arena releases every buffer allocated
+ * in it and every slice of those. with the jdk.incubator.foreign module (see `ForeignMemory`) that
+ * frees the memory right away, otherwise buffers are direct or mapped `ByteBuffer`s the GC frees
+ * later, but they can't be used after the release either way. arenas that are never released are
+ * freed by the GC with either
+ */
+final class LoxArena {
+    static final boolean FOREIGN = ModuleLayer.boot().findModule("jdk.incubator.foreign").isPresent();
+
+    // null without the module
+    private final Object scope = FOREIGN ? ForeignMemory.newScope() : null;
+    private boolean released = false;
+
+    boolean isReleased() {
+        return released;
+    }
+
+    LoxBuffer allocate(int size) {
+        return new LoxBuffer(this, FOREIGN ? ForeignMemory.allocate(scope, size) : ByteBuffer.allocateDirect(size));
+    }
+
+    // the whole of `file`, read-only
+    LoxBuffer map(Path file) throws IOException {
+        long size = Files.size(file);
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("larger than 2 GiB");
+        return map(file, 0, (int) size);
+    }
+
+    // `size` bytes of `file` from `offset`, read-only
+    LoxBuffer map(Path file, long offset, int size) throws IOException {
+        if (FOREIGN)
+            return new LoxBuffer(this, ForeignMemory.map(scope, file, offset, size));
+        try (var channel = FileChannel.open(file)) {
+            return new LoxBuffer(this, channel.map(FileChannel.MapMode.READ_ONLY, offset, size));
+        }
+    }
+
+    void release() {
+        if (released)
+            return;
+        released = true;
+        if (FOREIGN)
+            ForeignMemory.close(scope);
+    }
+
+    @Override
+    public String toString() {
+        return "<arena>";
+    }
+}
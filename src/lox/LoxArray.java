@@ -0,0 +1,173 @@
+package lox;
+
+import java.util.Arrays;
+
+import lox.Interpreter.RuntimeError;
+
+/*
+ * the lox array, made by `Array(n)` and indexed with `array[i]`. it keeps its elements in a
+ * `double[]` while they're all numbers, so numeric arrays don't box, and widens for good to an
+ * `Object[]` the first time anything else is stored. both grow by doubling when `push`ed to.
+ * out of range indices are errors, not growth
+ */
+final class LoxArray implements LoxIndexable {
+    private static final double[] NO_NUMBERS = {};
+
+    // exactly one of these is in use: `numbers` until something other than a number is stored
+    private double[] numbers;
+    private Object[] values;
+    private int size;
+
+    // `size` zeros
+    LoxArray(int size) {
+        this.numbers = 0 == size ? NO_NUMBERS : new double[size];
+        this.size = size;
+    }
+
+    private LoxArray(double[] numbers, Object[] values, int size) {
+        this.numbers = numbers;
+        this.values = values;
+        this.size = size;
+    }
+
+    // an array holding `numbers`, which it takes over
+    static LoxArray of(double[] numbers) {
+        return new LoxArray(numbers, null, numbers.length);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isNumeric() {
+        return null != numbers;
+    }
+
+    // the elements of a numeric array, `size()` of them in use. null once widened
+    double[] numbers() {
+        return numbers;
+    }
+
+    // the element at `index` of a numeric array, unboxed
+    double number(int index) {
+        return numbers[index];
+    }
+
+    Object get(int index) {
+        return null != numbers ? (Object) numbers[index] : values[index];
+    }
+
+    void set(int index, Object value) {
+        if (null != numbers) {
+            if (value instanceof Double number) {
+                numbers[index] = number;
+                return;
+            }
+            widen();
+        }
+        values[index] = value;
+    }
+
+    void set(int index, double value) {
+        if (null != numbers)
+            numbers[index] = value;
+        else
+            values[index] = value;
+    }
+
+    private void widen() {
+        values = new Object[Math.max(size, numbers.length)];
+        for (int i = 0; i < size; ++i) {
+            values[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    void push(Object value) {
+        int capacity = null != numbers ? numbers.length : values.length;
+        if (size == capacity) {
+            int grown = Math.max(8, capacity * 2);
+            if (null != numbers)
+                numbers = Arrays.copyOf(numbers, grown);
+            else
+                values = Arrays.copyOf(values, grown);
+        }
+        ++size;
+        set(size - 1, value);
+    }
+
+    Object pop() {
+        Object last = get(--size);
+        if (null == numbers)
+            values[size] = null;
+        return last;
+    }
+
+    void fill(Object value) {
+        if (null != numbers && value instanceof Double number) {
+            Arrays.fill(numbers, 0, size, number);
+            return;
+        }
+        if (null != numbers)
+            widen();
+        Arrays.fill(values, 0, size, value);
+    }
+
+    // a new array with the elements in `[from, to)`
+    LoxArray slice(int from, int to) {
+        if (null != numbers)
+            return new LoxArray(Arrays.copyOfRange(numbers, from, to), null, to - from);
+        return new LoxArray(null, Arrays.copyOfRange(values, from, to), to - from);
+    }
+
+    // sorts numbers or strings in place, false if the elements aren't all one or the other
+    boolean sort() {
+        if (null != numbers) {
+            Arrays.sort(numbers, 0, size);
+            return true;
+        }
+        for (int i = 0; i < size; ++i) {
+            if (!Rope.isString(values[i]))
+                return false;
+        }
+        Arrays.sort(values, 0, size, (a, b) -> a.toString().compareTo(b.toString()));
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        var builder = new StringBuilder("[");
+        for (int i = 0; i < size; ++i) {
+            if (0 != i)
+                builder.append(", ");
+            builder.append(get(i));
+        }
+        return builder.append(']').toString();
+    }
+
+    @Override
+    public Object get(Object index, Token bracket) {
+        return get(index(index, bracket));
+    }
+
+    @Override
+    public void set(Object index, Object value, Token bracket) {
+        set(index(index, bracket), value);
+    }
+
+    // checks for `array[index]`, shared by the backends
+
+    int index(Object index, Token bracket) {
+        if (!(index instanceof Double number))
+            throw new RuntimeError(bracket, "index must be a whole number");
+        return index((double) number, bracket);
+    }
+
+    int index(double index, Token bracket) {
+        if (index != Math.floor(index))
+            throw new RuntimeError(bracket, "index must be a whole number");
+        if (index < 0 || index >= size)
+            throw new RuntimeError(bracket, "index " + (long) index + " out of range for length " + size);
+        return (int) index;
+    }
+}
@@ -4,6 +4,6 @@ import java.util.Map;
 
 public class LoxBaseClass extends LoxClass {
     LoxBaseClass(Map<String, LoxFunction> methods) {
-        super("Base", methods, null);
+        super("Base", null, methods, null);
     }
 }
@@ -0,0 +1,121 @@
+package lox;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * bytes outside of the java heap, made by `Buffer(n)`, `allocate(arena, n)` or `mapFile(path)` (see
+ * `LoxArena`). they're read and written as the numbers in `Type` at byte offsets, so binary data
+ * doesn't have to be turned into lox strings first. `slice` makes views sharing the bytes. offsets
+ * and sizes are ints, so a buffer holds at most 2 GiB
+ */
+final class LoxBuffer {
+    // how `get` and `put` read and write a number, named like "u8", "i32le" or "f64be"
+    enum Type {
+        U8(1), I8(1),
+        U16LE(2), U16BE(2), I16LE(2), I16BE(2),
+        U32LE(4), U32BE(4), I32LE(4), I32BE(4),
+        I64LE(8), I64BE(8),
+        F32LE(4), F32BE(4), F64LE(8), F64BE(8);
+
+        private static final Map<String, Type> NAMES = new HashMap<>();
+
+        static {
+            for (Type type : values()) {
+                NAMES.put(type.name().toLowerCase(), type);
+            }
+        }
+
+        final int width;
+
+        Type(int width) {
+            this.width = width;
+        }
+
+        // null for an unknown name
+        static Type named(String name) {
+            return NAMES.get(name);
+        }
+    }
+
+    final LoxArena arena;
+    // the same bytes, read in either order
+    private final ByteBuffer little;
+    private final ByteBuffer big;
+
+    LoxBuffer(LoxArena arena, ByteBuffer bytes) {
+        this.arena = arena;
+        this.little = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.big = bytes.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    int size() {
+        return little.capacity();
+    }
+
+    boolean isReadOnly() {
+        return little.isReadOnly();
+    }
+
+    // a view of the bytes in `[from, to)`, released with this buffer
+    LoxBuffer slice(int from, int to) {
+        return new LoxBuffer(arena, little.slice(from, to - from));
+    }
+
+    // callers check that `offset` leaves room for `type.width` bytes
+    double get(Type type, int offset) {
+        switch (type) {
+            case U8: return little.get(offset) & 0xff;
+            case I8: return little.get(offset);
+            case U16LE: return little.getShort(offset) & 0xffff;
+            case U16BE: return big.getShort(offset) & 0xffff;
+            case I16LE: return little.getShort(offset);
+            case I16BE: return big.getShort(offset);
+            case U32LE: return little.getInt(offset) & 0xffffffffL;
+            case U32BE: return big.getInt(offset) & 0xffffffffL;
+            case I32LE: return little.getInt(offset);
+            case I32BE: return big.getInt(offset);
+            case I64LE: return little.getLong(offset);
+            case I64BE: return big.getLong(offset);
+            case F32LE: return little.getFloat(offset);
+            case F32BE: return big.getFloat(offset);
+            case F64LE: return little.getDouble(offset);
+            default: return big.getDouble(offset);
+        }
+    }
+
+    // integers are truncated to the width of `type`
+    void put(Type type, int offset, double value) {
+        switch (type) {
+            case U8, I8: little.put(offset, (byte) (long) value); break;
+            case U16LE, I16LE: little.putShort(offset, (short) (long) value); break;
+            case U16BE, I16BE: big.putShort(offset, (short) (long) value); break;
+            case U32LE, I32LE: little.putInt(offset, (int) (long) value); break;
+            case U32BE, I32BE: big.putInt(offset, (int) (long) value); break;
+            case I64LE: little.putLong(offset, (long) value); break;
+            case I64BE: big.putLong(offset, (long) value); break;
+            case F32LE: little.putFloat(offset, (float) value); break;
+            case F32BE: big.putFloat(offset, (float) value); break;
+            case F64LE: little.putDouble(offset, value); break;
+            default: big.putDouble(offset, value); break;
+        }
+    }
+
+    // all of the bytes, with a position of their own
+    ByteBuffer bytes() {
+        return little.duplicate().clear();
+    }
+
+    // the bytes decoded as UTF-8, the only time they're copied onto the heap
+    String text() {
+        return StandardCharsets.UTF_8.decode(bytes()).toString();
+    }
+
+    @Override
+    public String toString() {
+        return "<buffer " + size() + " bytes>";
+    }
+}
@@ -0,0 +1,175 @@
+package lox;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * a bounded cache, made by `Cache(capacity, ttl)` and used like a map: `cache[key]` is the value or
+ * nil, and `cache[key] = value` adds or replaces an entry. entries are kept in a `LinkedHashMap` in
+ * the order they were last used, so a lookup, an insert and evicting the least recently used entry
+ * once there are `capacity` of them are all O(1).
+ * with a `ttl` in seconds, an entry also expires that long after it was set, measured on the
+ * monotonic `System.nanoTime`. as that's fixed when it's set, a second map keeps the entries in the
+ * order they were set, which is the order they expire in: every insert first drops the expired ones
+ * from its front, so only live entries are ever evicted, and `size` and `keys` leave out expired
+ * entries nothing has dropped yet.
+ * keys are compared like dict keys (see `PersistentMap.key`)
+ */
+final class LoxCache implements LoxIndexable {
+    private static final class Entry {
+        final Object value;
+        // `System.nanoTime` after which the entry is gone
+        final long expires;
+
+        Entry(Object value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final int capacity;
+    // 0 for entries that never expire
+    private final long ttl;
+    private final LinkedHashMap<Object, Entry> entries;
+    // the same entries in the order they were set, null without a ttl
+    private final LinkedHashMap<Object, Entry> expiries;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long expirations = 0;
+
+    LoxCache(int capacity, long ttl) {
+        this.capacity = capacity;
+        this.ttl = ttl;
+        // access order, with room for `capacity` entries at the default load factor
+        this.entries = new LinkedHashMap<>((int) Math.min(1L << 30, capacity * 4L / 3 + 1), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+                if (size() <= LoxCache.this.capacity)
+                    return false;
+                if (null != expiries)
+                    expiries.remove(eldest.getKey());
+                ++evictions;
+                return true;
+            }
+        };
+        this.expiries = 0 == ttl ? null : new LinkedHashMap<>();
+    }
+
+    int size() {
+        if (0 != ttl)
+            expire(System.nanoTime());
+        return entries.size();
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return 0 != ttl && now - entry.expires >= 0;
+    }
+
+    // a stored key, see `PersistentMap.key`
+    private static Object key(Object key, Token bracket) {
+        return PersistentMap.key(key, bracket);
+    }
+
+    @Override
+    public Object get(Object index, Token bracket) {
+        Object key = key(index, bracket);
+        Entry entry = entries.get(key);
+        if (null != entry && isExpired(entry, System.nanoTime())) {
+            entries.remove(key);
+            expiries.remove(key);
+            ++expirations;
+            entry = null;
+        }
+        if (null == entry) {
+            ++misses;
+            return null;
+        }
+        ++hits;
+        return entry.value;
+    }
+
+    @Override
+    public void set(Object index, Object value, Token bracket) {
+        Object key = key(index, bracket);
+        if (0 == ttl) {
+            entries.put(key, new Entry(value, 0));
+            return;
+        }
+        long now = System.nanoTime();
+        expire(now);
+        var entry = new Entry(value, now + ttl);
+        // to the back, as it's now the last to expire
+        expiries.remove(key);
+        expiries.put(key, entry);
+        entries.put(key, entry);
+    }
+
+    // drops every expired entry, from the front of `expiries`
+    private void expire(long now) {
+        Iterator<Map.Entry<Object, Entry>> first = expiries.entrySet().iterator();
+        while (first.hasNext()) {
+            Map.Entry<Object, Entry> entry = first.next();
+            if (!isExpired(entry.getValue(), now))
+                return;
+            first.remove();
+            entries.remove(entry.getKey());
+            ++expirations;
+        }
+    }
+
+    // not counted as a hit or a miss, and not a use either: `entries.get` would make the entry the
+    // most recently used, so it's looked up where that doesn't move it
+    boolean has(Object key, Token bracket) {
+        Object stored = key(key, bracket);
+        if (0 == ttl)
+            return entries.containsKey(stored);
+        Entry entry = expiries.get(stored);
+        return null != entry && !isExpired(entry, System.nanoTime());
+    }
+
+    Object remove(Object key, Token bracket) {
+        Object stored = key(key, bracket);
+        Entry entry = entries.remove(stored);
+        if (null != expiries)
+            expiries.remove(stored);
+        if (null == entry)
+            return null;
+        // gone already, like `get` would have found
+        if (isExpired(entry, System.nanoTime())) {
+            ++expirations;
+            return null;
+        }
+        return entry.value;
+    }
+
+    // from least to most recently used
+    LoxArray keys() {
+        var keys = new LoxArray(0);
+        long now = System.nanoTime();
+        for (Map.Entry<Object, Entry> entry : entries.entrySet()) {
+            if (!isExpired(entry.getValue(), now))
+                keys.push(entry.getKey());
+        }
+        return keys;
+    }
+
+    // the counters, with the current size
+    LoxMap stats() {
+        // first, as it can count expirations
+        int size = size();
+        var stats = new LoxMap();
+        stats.set("hits", (double) hits, null);
+        stats.set("misses", (double) misses, null);
+        stats.set("evictions", (double) evictions, null);
+        stats.set("expirations", (double) expirations, null);
+        stats.set("size", (double) size, null);
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "<cache " + entries.size() + "/" + capacity + ">";
+    }
+}
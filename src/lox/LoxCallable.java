@@ -1,8 +1,30 @@
 package lox;
 
+import java.util.Arrays;
 import java.util.List;
 
 public interface LoxCallable {
+    // the arity of callables that take any number of arguments, and check them themselves
+    int ANY = -1;
+
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    // fast paths for the usual arities, so call sites don't have to build a list. callers check
+    // `arity()` first, like for `call`. override them where the arguments can be used directly
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, List.of());
+    }
+
+    default Object call1(Interpreter interpreter, Object a0) {
+        return call(interpreter, Arrays.asList(a0));
+    }
+
+    default Object call2(Interpreter interpreter, Object a0, Object a1) {
+        return call(interpreter, Arrays.asList(a0, a1));
+    }
+
+    default Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) {
+        return call(interpreter, Arrays.asList(a0, a1, a2));
+    }
 }
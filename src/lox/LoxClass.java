@@ -1,16 +1,52 @@
 package lox;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class LoxClass extends LoxInstance implements LoxCallable {
     final String name;
+    final LoxClass superclass;
+    // flattened: inherited methods are copied in when the class is created, so looking one up
+    // never walks the hierarchy, and each class can be told apart by its own table
     final Map<String, LoxFunction> methods;
+    private final Map<String, LoxFunction> staticMethods;
+    // most fields an instance has had so far, which new instances make room for
+    int fieldCount = 0;
 
-    LoxClass(String name, Map<String, LoxFunction> methods, Map<String, LoxFunction> staticMethods) {
-        super(staticMethods);
+    LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods,
+            Map<String, LoxFunction> staticMethods) {
         this.name = name;
-        this.methods = methods;
+        this.superclass = superclass;
+        if (null == superclass) {
+            this.methods = methods;
+            this.staticMethods = staticMethods;
+        } else {
+            this.methods = inherit(superclass.methods, methods);
+            this.staticMethods = inherit(superclass.staticMethods, staticMethods);
+        }
+    }
+
+    private static Map<String, LoxFunction> inherit(Map<String, LoxFunction> inherited,
+            Map<String, LoxFunction> own) {
+        if (null == inherited)
+            return own;
+        Map<String, LoxFunction> methods = new HashMap<>(inherited);
+        if (null != own)
+            methods.putAll(own);
+        return methods;
+    }
+
+    // a class object's own fields, then its static methods
+    @Override
+    public Object get(Token name) {
+        Object field = field(name.lexeme);
+        if (this != field)
+            return field;
+        LoxFunction method = null == staticMethods ? null : staticMethods.get(name.lexeme);
+        if (null == method)
+            throw new Interpreter.RuntimeError(name, "undefined static method '" + name.lexeme + "'");
+        return method;
     }
 
     @Override
@@ -31,7 +67,47 @@ public class LoxClass extends LoxInstance implements LoxCallable {
         LoxInstance instance = new LoxInstance(this);
         LoxFunction initializer = this.methods.get("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke(interpreter, instance, arguments);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        LoxInstance instance = new LoxInstance(this);
+        LoxFunction initializer = this.methods.get("init");
+        if (initializer != null) {
+            initializer.invoke0(interpreter, instance);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a0) {
+        LoxInstance instance = new LoxInstance(this);
+        LoxFunction initializer = this.methods.get("init");
+        if (initializer != null) {
+            initializer.invoke1(interpreter, instance, a0);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a0, Object a1) {
+        LoxInstance instance = new LoxInstance(this);
+        LoxFunction initializer = this.methods.get("init");
+        if (initializer != null) {
+            initializer.invoke2(interpreter, instance, a0, a1);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) {
+        LoxInstance instance = new LoxInstance(this);
+        LoxFunction initializer = this.methods.get("init");
+        if (initializer != null) {
+            initializer.invoke3(interpreter, instance, a0, a1, a2);
         }
         return instance;
     }
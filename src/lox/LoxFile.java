@@ -0,0 +1,241 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lox.Natives.NativeError;
+
+/*
+ * streaming access to files, made by `lines(path)`, `chunks(path, size)` and `writer(path)`. reading
+ * maps the file a window at a time instead of reading it in, and only the line asked for is decoded,
+ * so however large the file the memory used is bounded by the window. files are opened only while
+ * they're being mapped: a mapping stays valid after its channel is closed, so an iterator that's
+ * dropped half way leaves nothing open
+ */
+final class LoxFile {
+    // how much of a file `Lines` maps at once, unless a line is longer
+    private static final int WINDOW = 1 << 26;
+
+    private LoxFile() {
+    }
+
+    /*
+     * the lines of a file, decoded as UTF-8 without their "\n" or "\r\n". a final line without a
+     * newline is a line too
+     */
+    static final class Lines extends LoxIterator {
+        private final Path file;
+        private final long size;
+        private MappedByteBuffer window;
+        // the position of `window` in the file
+        private long start = 0;
+        // the position of the next line in the file
+        private long position = 0;
+        // the next line, once `hasNext` found it
+        private String line;
+
+        Lines(Path file) throws IOException {
+            super("lines");
+            this.file = file;
+            this.size = Files.size(file);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (null != line)
+                return true;
+            if (position >= size)
+                return false;
+            try {
+                line = read();
+            } catch (IOException e) {
+                throw new NativeError("lines: can't read " + file);
+            }
+            return true;
+        }
+
+        @Override
+        Object advance() {
+            String next = line;
+            line = null;
+            return next;
+        }
+
+        private String read() throws IOException {
+            if (null == window || position >= start + window.limit())
+                remap(WINDOW);
+            for (;;) {
+                int from = (int) (position - start);
+                int limit = window.limit();
+                for (int i = from; i < limit; ++i) {
+                    if ('\n' == window.get(i)) {
+                        position = start + i + 1;
+                        return decode(from, 0 < i - from && '\r' == window.get(i - 1) ? i - 1 : i);
+                    }
+                }
+                if (start + limit == size) {
+                    position = size;
+                    return decode(from, limit);
+                }
+                // the line goes on past the window, so the next one starts with it, and is larger
+                // when the line alone fills most of this one
+                long length = limit - from;
+                if (length > Integer.MAX_VALUE / 2)
+                    throw new NativeError("lines: line longer than 1 GiB in " + file);
+                remap(Math.max(WINDOW, (int) length * 2));
+            }
+        }
+
+        private void remap(int length) throws IOException {
+            start = position;
+            try (var channel = FileChannel.open(file)) {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length, size - start));
+            }
+        }
+
+        private String decode(int from, int to) {
+            byte[] bytes = new byte[to - from];
+            window.get(from, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /*
+     * a file as consecutive read-only buffers of up to `size` bytes, each mapped when it's asked for.
+     * reading the next chunk releases the one before, so memory stays bounded by one chunk while
+     * looping: `text` or `slice` into a buffer of your own what should outlive it. a loop that stops
+     * early leaves the last chunk to the GC, like an arena that's never released (see `ForeignMemory`)
+     */
+    static final class Chunks extends LoxIterator {
+        private final Path file;
+        private final long size;
+        private final int chunk;
+        private long position = 0;
+        private LoxBuffer current;
+
+        Chunks(Path file, int chunk) throws IOException {
+            super("chunks");
+            this.file = file;
+            this.size = Files.size(file);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (position < size)
+                return true;
+            releaseCurrent();
+            return false;
+        }
+
+        @Override
+        Object advance() {
+            releaseCurrent();
+            var arena = new LoxArena();
+            int length = (int) Math.min(chunk, size - position);
+            try {
+                current = arena.map(file, position, length);
+            } catch (IOException | UnsupportedOperationException e) {
+                arena.release();
+                throw new NativeError("chunks: can't read " + file);
+            }
+            position += length;
+            return current;
+        }
+
+        private void releaseCurrent() {
+            if (null != current)
+                current.arena.release();
+            current = null;
+        }
+    }
+
+    /*
+     * a file being written, made by `writer(path)`, which creates or truncates it. writes collect in
+     * a buffer that's written out when full and on `close`. writers still open when the program
+     * ends are closed then
+     */
+    static final class Writer {
+        private static final int BUFFER = 1 << 16;
+        private static final Set<Writer> OPEN = ConcurrentHashMap.newKeySet();
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                for (Writer writer : OPEN) {
+                    try {
+                        writer.close();
+                    } catch (IOException e) {
+                        // nothing left to report it to
+                    }
+                }
+            }));
+        }
+
+        private final Path file;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+
+        Writer(Path file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            OPEN.add(this);
+        }
+
+        boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        Path file() {
+            return file;
+        }
+
+        // synchronized with `close`, which the shutdown hook may call while a write is under way
+        synchronized void write(ByteBuffer bytes) throws IOException {
+            if (!channel.isOpen())
+                throw new ClosedChannelException();
+            if (bytes.remaining() > buffer.remaining())
+                flush();
+            if (bytes.remaining() >= BUFFER) {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            } else {
+                buffer.put(bytes);
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        synchronized void close() throws IOException {
+            if (!channel.isOpen())
+                return;
+            OPEN.remove(this);
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "<writer " + file + ">";
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package lox;
 
+import java.util.Arrays;
 import java.util.List;
 
 public class LoxFunction implements LoxCallable {
@@ -8,6 +9,12 @@ public class LoxFunction implements LoxCallable {
     final boolean isInitializer;
     final boolean isStatic;
     final boolean isGetter;
+    // tiering counters while interpreted, see `Jit`
+    int invocations = 0;
+    int backEdges = 0;
+    boolean queued = false;
+    // swapped in by the compiler thread once this function has been compiled
+    volatile Jit.Entry compiled = null;
 
     LoxFunction(Stmt.Fun declaration, Environment closure, boolean isInitializer, boolean isStatic, boolean isGetter) {
         this.declaration = declaration;
@@ -15,6 +22,7 @@ public class LoxFunction implements LoxCallable {
         this.isInitializer = isInitializer;
         this.isStatic = isStatic;
         this.isGetter = isGetter;
+        this.compiled = Jit.precompiled(declaration);
     }
 
     @Override
@@ -24,34 +32,207 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        // create new scope. in the interpreter, `visitBlockStmt` does this and wraps
-        // `executeBlock`, but because we will call `executeBlock` directly, we must do
-        // this manually
-        // this lines up with the resolver's scoping
-        Environment environment = new Environment(closure);
+        return enter(interpreter, null, arguments);
+    }
+
+    // the fast paths bind arguments straight into the new scope, unless compiled code wants a list
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return call0(interpreter, closure);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a0) {
+        return call1(interpreter, closure, a0);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a0, Object a1) {
+        return call2(interpreter, closure, a0, a1);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) {
+        return call3(interpreter, closure, a0, a1, a2);
+    }
+
+    // `bind(receiver).call(...)` for methods, without making the bound copy
+
+    Object invoke(Interpreter interpreter, Object receiver, List<Object> arguments) {
+        if (null != compiled)
+            return call(interpreter, arguments);
+        Environment environment = new Environment(receiver(receiver));
         for (int i = 0; i < declaration.params.size(); ++i) {
             environment.define(declaration.params.get(i), arguments.get(i));
         }
+        return enter(interpreter, environment, null);
+    }
+
+    Object invoke0(Interpreter interpreter, Object receiver) {
+        return call0(interpreter, receiver(receiver));
+    }
+
+    Object invoke1(Interpreter interpreter, Object receiver, Object a0) {
+        return call1(interpreter, receiver(receiver), a0);
+    }
+
+    Object invoke2(Interpreter interpreter, Object receiver, Object a0, Object a1) {
+        return call2(interpreter, receiver(receiver), a0, a1);
+    }
+
+    Object invoke3(Interpreter interpreter, Object receiver, Object a0, Object a1, Object a2) {
+        return call3(interpreter, receiver(receiver), a0, a1, a2);
+    }
+
+    // `scope` is what the new scope encloses, `closure` or the scope holding a receiver.
+    // compiled code uses neither
+
+    private Object call0(Interpreter interpreter, Environment scope) {
+        if (null != compiled)
+            return call(interpreter, List.of());
+        return enter(interpreter, new Environment(scope), null);
+    }
+
+    private Object call1(Interpreter interpreter, Environment scope, Object a0) {
+        if (null != compiled)
+            return call(interpreter, Arrays.asList(a0));
+        Environment environment = new Environment(scope);
+        environment.define(declaration.params.get(0), a0);
+        return enter(interpreter, environment, null);
+    }
+
+    private Object call2(Interpreter interpreter, Environment scope, Object a0, Object a1) {
+        if (null != compiled)
+            return call(interpreter, Arrays.asList(a0, a1));
+        Environment environment = new Environment(scope);
+        environment.define(declaration.params.get(0), a0);
+        environment.define(declaration.params.get(1), a1);
+        return enter(interpreter, environment, null);
+    }
+
+    private Object call3(Interpreter interpreter, Environment scope, Object a0, Object a1, Object a2) {
+        if (null != compiled)
+            return call(interpreter, Arrays.asList(a0, a1, a2));
+        Environment environment = new Environment(scope);
+        environment.define(declaration.params.get(0), a0);
+        environment.define(declaration.params.get(1), a1);
+        environment.define(declaration.params.get(2), a2);
+        return enter(interpreter, environment, null);
+    }
+
+    private Object enter(Interpreter interpreter, Environment environment, List<Object> arguments) {
+        if (++interpreter.callDepth > Interpreter.maxDepth) {
+            --interpreter.callDepth;
+            throw new Interpreter.RuntimeError(declaration.name, "stack overflow");
+        }
+        var caller = interpreter.currentFunction;
         try {
+            return run(interpreter, environment, arguments);
+        } catch (StackOverflowError e) {
+            // the java stack ran out before `maxDepth` did, e.g. deep inside natives
+            throw new Interpreter.RuntimeError(declaration.name, "stack overflow");
+        } finally {
+            interpreter.currentFunction = caller;
+            --interpreter.callDepth;
+        }
+    }
+
+    // runs the body, then the body of every function it tail calls, in this same java frame.
+    // `environment` is the already bound scope of the first call, otherwise `arguments` are bound
+    private Object run(Interpreter interpreter, Environment environment, List<Object> arguments) {
+        LoxFunction function = this;
+        for (;;) {
+            if (null == environment) {
+                Jit.Entry entry = function.compiled;
+                if (null != entry) {
+                    Object result = entry.invoke(interpreter, arguments);
+                    if (JitRuntime.TAIL_CALL != result)
+                        return result;
+                    function = interpreter.tailCallee;
+                    arguments = interpreter.tailArguments;
+                    interpreter.tailCallee = null;
+                    interpreter.tailArguments = null;
+                    continue;
+                }
+                // create new scope. in the interpreter, `visitBlockStmt` does this and wraps
+                // `executeBlock`, but because we will call `executeBlock` directly, we must do
+                // this manually
+                // this lines up with the resolver's scoping
+                environment = new Environment(function.closure);
+                for (int i = 0; i < function.declaration.params.size(); ++i) {
+                    environment.define(function.declaration.params.get(i), arguments.get(i));
+                }
+            }
+            if (function.declaration.isGenerator)
+                return function.generator(interpreter, environment);
+            if (++function.invocations == Jit.invocationThreshold
+                    || 1 == function.invocations && null != interpreter.profile
+                            && interpreter.profile.isHot(function.declaration))
+                Jit.hot(function, interpreter);
+            Stmt.Fun declaration = function.declaration;
+            interpreter.currentFunction = function;
+            Interpreter.Completion completion;
             if (declaration.body instanceof Stmt.Block block) {
-                interpreter.executeBlock(block, environment);
+                completion = interpreter.executeBlock(block, environment);
             } else {
-                interpreter.execute(declaration.body);
+                completion = interpreter.execute(declaration.body);
+            }
+            switch (completion) {
+                case TAIL_CALL:
+                    function = interpreter.tailCallee;
+                    arguments = interpreter.tailArguments;
+                    interpreter.tailCallee = null;
+                    interpreter.tailArguments = null;
+                    environment = null;
+                    continue;
+                case RETURN:
+                    Object value = interpreter.returnValue;
+                    interpreter.returnValue = null;
+                    if (function.isInitializer)
+                        return environment.enclosing.getAt(0, "this");
+                    return value;
+                // a `break` or `continue` outside of a loop applies to whatever loop the caller is in
+                case BREAK:
+                    throw new Interpreter.BreakException(interpreter.jump);
+                case CONTINUE:
+                    throw new Interpreter.ContinueException(interpreter.jump);
+                default:
+                    if (function.isInitializer)
+                        return environment.enclosing.getAt(0, "this");
+                    return null;
             }
-        } catch (Interpreter.ReturnException e) {
-            if (isInitializer)
-                return closure.getAt(0, "this");
-            return e.obj;
         }
-        if (isInitializer)
-            return closure.getAt(0, "this");
-        return null;
+    }
+
+    // what calling a function with a `yield` in it returns: its body runs later, in `environment`,
+    // on the generator's own thread and interpreter. `Jit` leaves these functions interpreted
+    private LoxGenerator generator(Interpreter interpreter, Environment environment) {
+        return new LoxGenerator(declaration.name.lexeme, () -> {
+            var generating = new Interpreter(interpreter);
+            generating.currentFunction = this;
+            Interpreter.Completion completion = declaration.body instanceof Stmt.Block block
+                    ? generating.executeBlock(block, environment)
+                    : generating.execute(declaration.body);
+            if (Interpreter.Completion.BREAK == completion || Interpreter.Completion.CONTINUE == completion)
+                throw new Interpreter.RuntimeError(generating.jump, "statement may only be used inside a loop");
+        });
+    }
+
+    void countBackEdge(Interpreter interpreter) {
+        if (++backEdges == Jit.backEdgeThreshold)
+            Jit.hot(this, interpreter);
     }
 
     LoxFunction bind(Object parent) {
+        return new LoxFunction(declaration, receiver(parent), this.isInitializer, this.isStatic, this.isGetter);
+    }
+
+    // the scope methods bound to `receiver` close over, which the resolver put `this` in
+    private Environment receiver(Object receiver) {
         Environment environment = new Environment(closure);
-        environment.define("this", parent);
-        return new LoxFunction(declaration, environment, this.isInitializer, this.isStatic, this.isGetter);
+        environment.define("this", receiver);
+        return environment;
     }
 
     @Override
@@ -0,0 +1,174 @@
+package lox;
+
+import java.lang.ref.Cleaner;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * what calling a function with a `yield` in it returns, made by every backend. the body doesn't run
+ * until the first value is asked for, then it runs up to a `yield`, suspends there until the next
+ * value is asked for, and so on until it returns. java 17 has neither continuations nor virtual
+ * threads, so the suspended frames are those of a thread of its own, running the body with a
+ * backend of its own (a new `Interpreter`, `RecordInterpreter` or `VM` sharing the globals).
+ * only one of the two threads runs at a time: the other waits for its turn, first spinning briefly
+ * when there are processors to spare, as the turn usually comes back within microseconds, then
+ * parked.
+ * a generator dropped before it finished is cleaned up once it's garbage: its thread is woken to
+ * unwind the body and end
+ */
+final class LoxGenerator implements Iterator<Object> {
+    // runs the body on the generator's thread, calling `yieldValue` for each value
+    interface Body {
+        void run();
+    }
+
+    private static final Cleaner CLEANER = Cleaner.create();
+    // spinning only helps when the other thread can run meanwhile
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 12 : 0;
+
+    // the state both threads share. the thread never references the `LoxGenerator`, so that can
+    // become garbage while the thread waits
+    private static final class Channel implements Runnable {
+        final Body body;
+        // set by whoever gives the turn away, after writing the fields below, which the volatile
+        // write publishes to the thread taking the turn
+        volatile boolean generatorsTurn = false;
+        Object value;
+        boolean done = false;
+        Throwable failure;
+        boolean abandoned = false;
+        Thread consumer;
+        Worker worker;
+
+        Channel(Body body) {
+            this.body = body;
+        }
+
+        @Override
+        public void run() {
+            try {
+                body.run();
+            } catch (Abandoned e) {
+                return;
+            } catch (Throwable e) {
+                failure = e;
+            }
+            done = true;
+            value = null;
+            generatorsTurn = false;
+            LockSupport.unpark(consumer);
+        }
+
+        // on the consumer's thread
+        void resume() {
+            consumer = Thread.currentThread();
+            generatorsTurn = true;
+            if (null == worker) {
+                worker = new Worker(this);
+                worker.start();
+            } else {
+                LockSupport.unpark(worker);
+            }
+            for (int i = 0; generatorsTurn; ++i) {
+                if (i < SPINS)
+                    Thread.onSpinWait();
+                else
+                    LockSupport.park(this);
+            }
+        }
+
+        // on the generator's thread
+        void suspend(Object value) {
+            this.value = value;
+            generatorsTurn = false;
+            LockSupport.unpark(consumer);
+            for (int i = 0; !generatorsTurn; ++i) {
+                if (i < SPINS)
+                    Thread.onSpinWait();
+                else
+                    LockSupport.park(this);
+            }
+            if (abandoned)
+                throw new Abandoned();
+        }
+
+        // on the cleaner's thread, once the generator is garbage. its consumer is gone, so
+        // taking the turn from it is safe
+        void abandon() {
+            if (null == worker || done)
+                return;
+            abandoned = true;
+            generatorsTurn = true;
+            LockSupport.unpark(worker);
+        }
+    }
+
+    // unwinds the body of an abandoned generator
+    private static final class Abandoned extends RuntimeException {
+        Abandoned() {
+            super(null, null, false, false);
+        }
+    }
+
+    // sized like the thread `Lox` runs programs on, as the body can nest as many calls
+    private static final class Worker extends Thread {
+        final Channel channel;
+
+        Worker(Channel channel) {
+            super(null, channel, "lox-generator", Lox.loxStackSize());
+            this.channel = channel;
+            setDaemon(true);
+        }
+    }
+
+    private final String name;
+    private final Channel channel;
+    // whether `channel.value` is the next value, not yet returned by `next`
+    private boolean fetched = false;
+
+    LoxGenerator(String name, Body body) {
+        this.name = name;
+        this.channel = new Channel(body);
+        CLEANER.register(this, channel::abandon);
+    }
+
+    // suspends the generator running on this thread until its next value is asked for. every
+    // `yield` is in the body of a generator, see `Parser`
+    static void yieldValue(Object value) {
+        ((Worker) Thread.currentThread()).channel.suspend(value);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!fetched && !channel.done) {
+            channel.resume();
+            fetched = true;
+            if (null != channel.failure) {
+                Throwable failure = channel.failure;
+                channel.failure = null;
+                if (failure instanceof RuntimeException e)
+                    throw e;
+                if (failure instanceof Error e)
+                    throw e;
+                throw new IllegalStateException(failure);
+            }
+        }
+        return !channel.done;
+    }
+
+    @Override
+    public Object next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        fetched = false;
+        Object value = channel.value;
+        channel.value = null;
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "<generator " + name + ">";
+    }
+}
@@ -0,0 +1,17 @@
+package lox;
+
+import lox.Interpreter.RuntimeError;
+
+// values that can be indexed with `object[index]`: arrays and maps
+interface LoxIndexable {
+    Object get(Object index, Token bracket);
+
+    void set(Object index, Object value, Token bracket);
+
+    // the check every backend does on the indexed value
+    static LoxIndexable check(Object value, Token bracket) {
+        if (value instanceof LoxIndexable indexable)
+            return indexable;
+        throw new RuntimeError(bracket, "only arrays and maps can be indexed");
+    }
+}
@@ -1,24 +1,26 @@
 package lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance {
-    private final LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
-    private final Map<String, LoxFunction> staticMethods;
+    private static final Object[] NO_FIELDS = {};
+
+    final LoxClass klass;
+    // fields live in `values`, at the slots `shape` gives them. `values` can be longer than the
+    // shape while it grows
+    private Shape shape = Shape.EMPTY;
+    private Object[] values;
 
-    // private final Map<String, LoxFunction> methods = new HashMap<>();
     LoxInstance(LoxClass klass) {
         this.klass = klass;
-        this.staticMethods = null;
-        // this.methods
+        // sized for the fields earlier instances ended up with, so `init` doesn't grow it
+        this.values = 0 == klass.fieldCount ? NO_FIELDS : new Object[klass.fieldCount];
     }
 
-    // base class
-    LoxInstance(Map<String, LoxFunction> staticMethods) {
+    // class objects, see `LoxClass`
+    LoxInstance() {
         this.klass = null;
-        this.staticMethods = staticMethods;
+        this.values = NO_FIELDS;
     }
 
     @Override
@@ -26,24 +28,58 @@ public class LoxInstance {
         return this.klass.name;
     }
 
+    // direct access to the slots, for `InlineCache`
+
+    Shape shape() {
+        return shape;
+    }
+
+    Object slot(int slot) {
+        return values[slot];
+    }
+
+    void slot(int slot, Object value) {
+        values[slot] = value;
+    }
+
+    // adds a field in slot `shape.size()`, moving to `next`
+    void add(Shape next, Object value) {
+        int slot = shape.size();
+        if (slot == values.length)
+            values = Arrays.copyOf(values, Math.max(4, slot * 2));
+        values[slot] = value;
+        shape = next;
+        if (null != klass && klass.fieldCount < next.size())
+            klass.fieldCount = next.size();
+    }
+
+    // the field `name`, or `this` if there is none (fields can hold null)
+    Object field(String name) {
+        int slot = shape.slot(name);
+        return -1 == slot ? this : values[slot];
+    }
+
     public Object get(Token name) {
-        if (fields.containsKey(name.lexeme))
-            return fields.get(name.lexeme);
-        else if (this.klass.methods.containsKey(name.lexeme)) {
-            LoxFunction method = this.klass.methods.get(name.lexeme);
+        Object field = field(name.lexeme);
+        if (this != field)
+            return field;
+        LoxFunction method = this.klass.methods.get(name.lexeme);
+        if (null != method) {
             if (!(this.klass instanceof LoxBaseClass))
                 method = method.bind(this);
             return method;
-        } else if (null == this.klass) {
-            if (!staticMethods.containsKey(name.lexeme))
-                throw new lox.Interpreter.RuntimeError(name, "undefined static method '" + name.lexeme + "'");
-            // this is a static class instance
-            return staticMethods.get(name.lexeme);
         }
         throw new lox.Interpreter.RuntimeError(name, "undefined field or method '" + name.lexeme + "'");
     }
 
     public Object set(Token name, Object value) {
-        return fields.put(name.lexeme, value);
+        int slot = shape.slot(name.lexeme);
+        if (-1 == slot) {
+            add(shape.with(name.lexeme), value);
+            return null;
+        }
+        Object previous = values[slot];
+        values[slot] = value;
+        return previous;
     }
 }
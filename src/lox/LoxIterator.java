@@ -0,0 +1,97 @@
+package lox;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+ * the lazy sequences `for (var x in sequence)` walks, made by `iterate(sequence)` or `range(from, to)`.
+ * each element is made when it's asked for, so a pipeline of generators and ranges holds one
+ * element per stage at a time, however long the sequence. iterators are single-pass.
+ * arrays are walked by index as they are at each step, so elements pushed during the loop are
+ * reached. maps and dicts give their keys, strings their characters
+ */
+abstract class LoxIterator implements Iterator<Object> {
+    // the iterator over `sequence`, or null for something that isn't one. generators and iterators
+    // are their own
+    static Iterator<Object> of(Object sequence) {
+        if (sequence instanceof LoxGenerator generator)
+            return generator;
+        if (sequence instanceof LoxIterator iterator)
+            return iterator;
+        if (sequence instanceof LoxArray array)
+            return indexed("array", array::size, array::get);
+        if (sequence instanceof PersistentVector vector)
+            return indexed("vector", vector::size, vector::get);
+        if (sequence instanceof LoxMap map)
+            return of(map.entries(true));
+        if (sequence instanceof PersistentMap dict)
+            return of(dict.entries(true));
+        if (Rope.isString(sequence)) {
+            String string = sequence.toString();
+            return indexed("string", string::length, i -> String.valueOf(string.charAt(i)));
+        }
+        return null;
+    }
+
+    private interface Size {
+        int get();
+    }
+
+    private interface Element {
+        Object get(int index);
+    }
+
+    private static LoxIterator indexed(String kind, Size size, Element element) {
+        return new LoxIterator(kind) {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size.get();
+            }
+
+            @Override
+            Object advance() {
+                return element.get(next++);
+            }
+        };
+    }
+
+    // the numbers from `from` up to but not including `to`, by 1
+    static LoxIterator range(double from, double to) {
+        return new LoxIterator("range") {
+            private double next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            Object advance() {
+                return next++;
+            }
+        };
+    }
+
+    private final String kind;
+
+    LoxIterator(String kind) {
+        this.kind = kind;
+    }
+
+    // called once `hasNext` said there's another element
+    abstract Object advance();
+
+    @Override
+    public Object next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return advance();
+    }
+
+    @Override
+    public String toString() {
+        return "<iterator " + kind + ">";
+    }
+}
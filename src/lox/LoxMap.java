@@ -0,0 +1,243 @@
+package lox;
+
+import lox.Interpreter.RuntimeError;
+import lox.Natives.NativeError;
+
+/*
+ * the lox map, made by `Map()` and indexed with `map[key]` like arrays. entries are kept in
+ * insertion order in parallel arrays, and found through an open-addressing table of entry numbers
+ * probed linearly. keys are compared like `==` compares them:
+ * - numbers are stored as their bits in `numbers`, so they are neither boxed nor hashed as objects
+ * - strings are flattened (see `Rope`) and compared by reference before contents, which is all it
+ *   takes for names and literals from the script (see `Symbols`). their hash is kept per entry
+ * - anything else by `equals`, which is identity for instances, arrays and functions
+ * removing an entry leaves it in place marked `REMOVED`, which lookups probe past. both go away
+ * when the entries are next compacted
+ */
+final class LoxMap implements LoxIndexable {
+    // `keys` of entries with number keys, and of removed entries
+    private static final Object NUMBER = new Object();
+    private static final Object REMOVED = new Object();
+    private static final int MIN_CAPACITY = 8;
+    // `table` is up to twice as long, and 1 << 30 is the largest power of two an int holds
+    static final int MAX_CAPACITY = 1 << 29;
+
+    // entries, `used` of them including removed ones
+    private Object[] keys;
+    private long[] numbers;
+    private int[] hashes;
+    private Object[] values;
+    private int used = 0;
+    private int size = 0;
+    // entry number + 1 for each slot, 0 for an empty one. at most half full
+    private int[] table;
+
+    LoxMap() {
+        this(MIN_CAPACITY);
+    }
+
+    // room for `capacity` entries before anything is reallocated
+    LoxMap(int capacity) {
+        allocate(Math.max(MIN_CAPACITY, capacity));
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        numbers = new long[capacity];
+        hashes = new int[capacity];
+        values = new Object[capacity];
+        table = new int[Integer.highestOneBit(capacity * 2 - 1) * 2];
+    }
+
+    int size() {
+        return size;
+    }
+
+    // makes room for `capacity` entries in total, for bulk loading. at most `MAX_CAPACITY`
+    void reserve(int capacity) {
+        if (capacity > keys.length)
+            rebuild(capacity);
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int hash(long bits) {
+        return mix((int) (bits ^ (bits >>> 32)));
+    }
+
+    // the key as stored: strings flattened, numbers don't get here
+    private static Object key(Object key, Token bracket) {
+        if (null == key)
+            throw new RuntimeError(bracket, "map keys can't be nil");
+        return key instanceof Rope rope ? rope.toString() : key;
+    }
+
+    // the entry for the number `bits`, or -1
+    private int find(long bits) {
+        int mask = table.length - 1;
+        for (int slot = hash(bits) & mask;; slot = (slot + 1) & mask) {
+            int entry = table[slot] - 1;
+            if (-1 == entry)
+                return -1;
+            if (NUMBER == keys[entry] && numbers[entry] == bits)
+                return entry;
+        }
+    }
+
+    // the entry for the non-number `key`, or -1
+    private int find(Object key, int hash) {
+        int mask = table.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int entry = table[slot] - 1;
+            if (-1 == entry)
+                return -1;
+            Object candidate = keys[entry];
+            // the markers only equal themselves, so they never match here
+            if (candidate == key || hashes[entry] == hash && candidate.equals(key))
+                return entry;
+        }
+    }
+
+    private int find(Object key) {
+        if (key instanceof Double number)
+            return find(Double.doubleToLongBits(number));
+        return find(key, mix(key.hashCode()));
+    }
+
+    // a new entry in the next free place, which the caller fills in
+    private int append(int hash, Token bracket) {
+        if (used == keys.length) {
+            if (MAX_CAPACITY == size)
+                throw full(bracket);
+            rebuild(Math.min(MAX_CAPACITY, Math.max(MIN_CAPACITY, size * 2)));
+        }
+        int entry = used++;
+        hashes[entry] = hash;
+        insert(entry, hash);
+        ++size;
+        return entry;
+    }
+
+    // from natives filling a map there's no bracket to report it at
+    private static RuntimeException full(Token bracket) {
+        String message = "map can't hold more than " + MAX_CAPACITY + " entries";
+        return null == bracket ? new NativeError(message) : new RuntimeError(bracket, message);
+    }
+
+    private void insert(int entry, int hash) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (0 != table[slot]) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entry + 1;
+    }
+
+    // compacts the entries into arrays with room for `capacity`, dropping removed ones
+    private void rebuild(int capacity) {
+        Object[] oldKeys = keys;
+        long[] oldNumbers = numbers;
+        int[] oldHashes = hashes;
+        Object[] oldValues = values;
+        int oldUsed = used;
+        allocate(Math.max(capacity, size));
+        used = 0;
+        for (int i = 0; i < oldUsed; ++i) {
+            if (REMOVED == oldKeys[i])
+                continue;
+            keys[used] = oldKeys[i];
+            numbers[used] = oldNumbers[i];
+            hashes[used] = oldHashes[i];
+            values[used] = oldValues[i];
+            insert(used++, oldHashes[i]);
+        }
+    }
+
+    @Override
+    public Object get(Object key, Token bracket) {
+        int entry = find(key(key, bracket));
+        return -1 == entry ? null : values[entry];
+    }
+
+    // `map[number]` without boxing the number, for the VM
+    Object get(double key) {
+        int entry = find(Double.doubleToLongBits(key));
+        return -1 == entry ? null : values[entry];
+    }
+
+    boolean has(Object key, Token bracket) {
+        return -1 != find(key(key, bracket));
+    }
+
+    @Override
+    public void set(Object key, Object value, Token bracket) {
+        if (key instanceof Double number) {
+            set(number.doubleValue(), value, bracket);
+            return;
+        }
+        key = key(key, bracket);
+        int hash = mix(key.hashCode());
+        int entry = find(key, hash);
+        if (-1 == entry) {
+            entry = append(hash, bracket);
+            keys[entry] = key;
+        }
+        values[entry] = value;
+    }
+
+    void set(double key, Object value) {
+        set(key, value, null);
+    }
+
+    private void set(double key, Object value, Token bracket) {
+        long bits = Double.doubleToLongBits(key);
+        int entry = find(bits);
+        if (-1 == entry) {
+            entry = append(hash(bits), bracket);
+            keys[entry] = NUMBER;
+            numbers[entry] = bits;
+        }
+        values[entry] = value;
+    }
+
+    // removes `key`'s entry, returning its value
+    Object remove(Object key, Token bracket) {
+        int entry = find(key(key, bracket));
+        if (-1 == entry)
+            return null;
+        Object value = values[entry];
+        keys[entry] = REMOVED;
+        values[entry] = null;
+        --size;
+        return value;
+    }
+
+    // the keys or values in insertion order
+    LoxArray entries(boolean keys) {
+        LoxArray array = new LoxArray(0);
+        for (int i = 0; i < used; ++i) {
+            if (REMOVED != this.keys[i])
+                array.push(keys ? key(i) : values[i]);
+        }
+        return array;
+    }
+
+    private Object key(int entry) {
+        return NUMBER == keys[entry] ? (Object) Double.longBitsToDouble(numbers[entry]) : keys[entry];
+    }
+
+    @Override
+    public String toString() {
+        var builder = new StringBuilder("{");
+        for (int i = 0; i < used; ++i) {
+            if (REMOVED == keys[i])
+                continue;
+            if (1 != builder.length())
+                builder.append(", ");
+            builder.append(key(i)).append(": ").append(values[i]);
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,878 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+
+import static lox.TokenType.*;
+
+/*
+ * the functions every program starts with, shared by all backends through the interpreter's
+ * globals. a native that rejects its arguments throws `NativeError`, which the call site turns into
+ * a `RuntimeError` at its paren
+ */
+final class Natives {
+    // what `for (var x in sequence)` calls, see `Parser.forIn`. lox can't spell these names
+    static final String ITERATE = "(iterate)";
+    static final String MORE = "(more)";
+    static final String NEXT = "(next)";
+    private static final byte[] NEWLINE = { '\n' };
+
+    private Natives() {
+    }
+
+    static class NativeError extends RuntimeException {
+        NativeError(String message) {
+            super(message);
+        }
+    }
+
+    // natives implement the fast path for their arity, `call` just forwards to it
+    private abstract static class Native implements LoxCallable {
+        private final int arity;
+
+        Native(int arity) {
+            this.arity = arity;
+        }
+
+        @Override
+        public int arity() {
+            return arity;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            switch (arity) {
+                case 0: return call0(interpreter);
+                case 1: return call1(interpreter, arguments.get(0));
+                case 2: return call2(interpreter, arguments.get(0), arguments.get(1));
+                default: return call3(interpreter, arguments.get(0), arguments.get(1), arguments.get(2));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "<native-fn>";
+        }
+    }
+
+    static void define(Environment globals) {
+        globals.define("time", new Native(0) {
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return System.currentTimeMillis() / 1000.;
+            }
+        });
+        globals.define("length", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                if (value instanceof LoxArray array)
+                    return (double) array.size();
+                if (value instanceof LoxMap map)
+                    return (double) map.size();
+                if (value instanceof LoxBuffer buffer)
+                    return (double) buffer.size();
+                if (value instanceof PersistentVector vector)
+                    return (double) vector.size();
+                if (value instanceof PersistentMap dict)
+                    return (double) dict.size();
+                if (value instanceof LoxCache cache)
+                    return (double) cache.size();
+                if (value instanceof PersistentVector.Transient vector)
+                    return (double) editable(vector, "length").size();
+                if (value instanceof PersistentMap.Transient dict)
+                    return (double) editable(dict, "length").size();
+                return (double) string(value, "length").length();
+            }
+        });
+        // shares the characters of long strings instead of copying them, see `Rope`
+        globals.define("substring", new Native(3) {
+            @Override
+            public Object call3(Interpreter interpreter, Object string, Object from, Object to) {
+                CharSequence chars = string(string, "substring");
+                int start = index(from, chars.length(), "substring");
+                int end = index(to, chars.length(), "substring");
+                if (start > end)
+                    throw new NativeError("substring: start " + start + " is after end " + end);
+                return Rope.substring(chars, start, end);
+            }
+        });
+        // the one copy of a computed string, e.g. a key built with `+` and used over and over, see
+        // `Symbols`
+        globals.define("intern", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object string) {
+                return Symbols.intern(string(string, "intern").toString());
+            }
+        });
+        defineArrays(globals);
+        defineMaps(globals);
+        defineNumeric(globals);
+        defineBuffers(globals);
+        definePersistent(globals);
+        defineSequences(globals);
+        defineFiles(globals);
+        defineJson(globals);
+        defineCaches(globals);
+        defineInterop(globals);
+    }
+
+    // arrays, see `LoxArray`. the bulk operations run in java instead of as lox loops
+
+    private static void defineArrays(Environment globals) {
+        globals.define("Array", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object size) {
+                int length = size(size, "Array");
+                try {
+                    return new LoxArray(length);
+                } catch (OutOfMemoryError e) {
+                    throw new NativeError("Array: can't allocate " + length + " elements");
+                }
+            }
+        });
+        globals.define("push", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object array, Object value) {
+                array(array, "push").push(value);
+                return null;
+            }
+        });
+        globals.define("pop", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                LoxArray array = array(value, "pop");
+                if (0 == array.size())
+                    throw new NativeError("pop: array is empty");
+                return array.pop();
+            }
+        });
+        globals.define("fill", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object array, Object value) {
+                array(array, "fill").fill(value);
+                return array;
+            }
+        });
+        globals.define("copy", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                LoxArray array = array(value, "copy");
+                return array.slice(0, array.size());
+            }
+        });
+        globals.define("slice", new Native(3) {
+            @Override
+            public Object call3(Interpreter interpreter, Object value, Object from, Object to) {
+                if (value instanceof LoxBuffer buffer) {
+                    int start = index(from, live(buffer, "slice").size(), "slice");
+                    int end = index(to, buffer.size(), "slice");
+                    if (start > end)
+                        throw new NativeError("slice: start " + start + " is after end " + end);
+                    return buffer.slice(start, end);
+                }
+                LoxArray array = array(value, "slice");
+                int start = index(from, array.size(), "slice");
+                int end = index(to, array.size(), "slice");
+                if (start > end)
+                    throw new NativeError("slice: start " + start + " is after end " + end);
+                return array.slice(start, end);
+            }
+        });
+        globals.define("sort", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object array) {
+                if (!array(array, "sort").sort())
+                    throw new NativeError("sort: expected only numbers or only strings");
+                return array;
+            }
+        });
+    }
+
+    // maps, see `LoxMap`
+
+    private static void defineMaps(Environment globals) {
+        globals.define("Map", new Native(0) {
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return new LoxMap();
+            }
+        });
+        // a capacity hint, so loading a known number of entries doesn't rehash on the way
+        globals.define("reserve", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object map, Object capacity) {
+                int entries = size(capacity, "reserve");
+                if (entries > LoxMap.MAX_CAPACITY)
+                    throw new NativeError("reserve: at most " + LoxMap.MAX_CAPACITY + " entries");
+                try {
+                    map(map, "reserve").reserve(entries);
+                } catch (OutOfMemoryError e) {
+                    throw new NativeError("reserve: can't allocate " + entries + " entries");
+                }
+                return map;
+            }
+        });
+        globals.define("has", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object map, Object key) {
+                if (map instanceof PersistentMap dict)
+                    return dict.has(dictKey(key, "has"));
+                if (map instanceof LoxCache cache)
+                    return cache.has(key(key, "has"), null);
+                if (map instanceof PersistentMap.Transient dict)
+                    return editable(dict, "has").has(dictKey(key, "has"));
+                return map(map, "has").has(key(key, "has"), null);
+            }
+        });
+        globals.define("remove", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object map, Object key) {
+                if (map instanceof LoxCache cache)
+                    return cache.remove(key(key, "remove"), null);
+                return map(map, "remove").remove(key(key, "remove"), null);
+            }
+        });
+        // in insertion order
+        globals.define("keys", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object map) {
+                if (map instanceof PersistentMap dict)
+                    return dict.entries(true);
+                if (map instanceof LoxCache cache)
+                    return cache.keys();
+                return map(map, "keys").entries(true);
+            }
+        });
+        globals.define("values", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object map) {
+                if (map instanceof PersistentMap dict)
+                    return dict.entries(false);
+                if (map instanceof PersistentVector vector)
+                    return vector.toArray();
+                return map(map, "values").entries(false);
+            }
+        });
+    }
+
+    // bulk math on arrays of numbers, see `Kernels`
+
+    private static void defineNumeric(Environment globals) {
+        globals.define("sum", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object a) {
+                LoxArray array = numeric(a, "sum");
+                return Kernels.INSTANCE.sum(array.numbers(), array.size());
+            }
+        });
+        globals.define("dot", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object a, Object b) {
+                LoxArray left = numeric(a, "dot"), right = sameSize(left, numeric(b, "dot"), "dot");
+                return Kernels.INSTANCE.dot(left.numbers(), right.numbers(), left.size());
+            }
+        });
+        // y = alpha * x + y, in place
+        globals.define("axpy", new Native(3) {
+            @Override
+            public Object call3(Interpreter interpreter, Object alpha, Object x, Object y) {
+                double factor = number(alpha, "axpy");
+                LoxArray xs = numeric(x, "axpy"), ys = sameSize(xs, numeric(y, "axpy"), "axpy");
+                Kernels.INSTANCE.axpy(factor, xs.numbers(), ys.numbers(), xs.size());
+                return y;
+            }
+        });
+        // a new array of `a[i] op k`, for op one of "+", "-", "*" and "/"
+        globals.define("map", new Native(3) {
+            @Override
+            public Object call3(Interpreter interpreter, Object a, Object op, Object k) {
+                LoxArray array = numeric(a, "map");
+                TokenType operator = operator(op, "map", "+", PLUS, "-", MINUS, "*", STAR, "/", SLASH);
+                double[] out = new double[array.size()];
+                Kernels.INSTANCE.map(array.numbers(), operator, number(k, "map"), out, out.length);
+                return LoxArray.of(out);
+            }
+        });
+        globals.define("min", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object a) {
+                LoxArray array = nonEmpty(numeric(a, "min"), "min");
+                return Kernels.INSTANCE.min(array.numbers(), array.size());
+            }
+        });
+        globals.define("max", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object a) {
+                LoxArray array = nonEmpty(numeric(a, "max"), "max");
+                return Kernels.INSTANCE.max(array.numbers(), array.size());
+            }
+        });
+        // a mask of 1s where `a[i] op k` holds and 0s elsewhere
+        globals.define("compare", new Native(3) {
+            @Override
+            public Object call3(Interpreter interpreter, Object a, Object op, Object k) {
+                LoxArray array = numeric(a, "compare");
+                TokenType comparison = operator(op, "compare", "<", LESS, "<=", LESS_EQUAL, ">", GREATER,
+                        ">=", GREATER_EQUAL, "==", EQUAL_EQUAL, "!=", BANG_EQUAL);
+                double[] out = new double[array.size()];
+                Kernels.INSTANCE.compare(array.numbers(), comparison, number(k, "compare"), out, out.length);
+                return LoxArray.of(out);
+            }
+        });
+    }
+
+    // off-heap bytes, see `LoxBuffer` and `LoxArena`
+
+    private static void defineBuffers(Environment globals) {
+        // in an arena of its own
+        globals.define("Buffer", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object size) {
+                return allocate(new LoxArena(), size(size, "Buffer"), "Buffer");
+            }
+        });
+        globals.define("Arena", new Native(0) {
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return new LoxArena();
+            }
+        });
+        globals.define("allocate", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object arena, Object size) {
+                if (!(arena instanceof LoxArena owner) || owner.isReleased())
+                    throw new NativeError("allocate: expected an arena that isn't released");
+                return allocate(owner, size(size, "allocate"), "allocate");
+            }
+        });
+        // read-only, in an arena of its own
+        globals.define("mapFile", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object path) {
+                LoxArena arena = new LoxArena();
+                try {
+                    return arena.map(Path.of(string(path, "mapFile").toString()));
+                } catch (IOException | InvalidPathException | UnsupportedOperationException e) {
+                    arena.release();
+                    throw new NativeError("mapFile: can't map " + path);
+                }
+            }
+        });
+        globals.define("get", new Native(3) {
+            @Override
+            public Object call3(Interpreter interpreter, Object buffer, Object type, Object offset) {
+                LoxBuffer bytes = live(buffer, "get");
+                LoxBuffer.Type read = type(type, "get");
+                return bytes.get(read, offset(bytes, read, offset, "get"));
+            }
+        });
+        // there's no fast path for four arguments, so this one takes the list
+        globals.define("put", new Native(4) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxBuffer bytes = live(arguments.get(0), "put");
+                LoxBuffer.Type written = type(arguments.get(1), "put");
+                int at = offset(bytes, written, arguments.get(2), "put");
+                double value = number(arguments.get(3), "put");
+                try {
+                    bytes.put(written, at, value);
+                } catch (ReadOnlyBufferException e) {
+                    throw new NativeError("put: buffer is read-only");
+                }
+                return null;
+            }
+        });
+        globals.define("text", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object buffer) {
+                return live(buffer, "text").text();
+            }
+        });
+        // an arena, or the arena a buffer was allocated in, with every other buffer in it
+        globals.define("release", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                if (value instanceof LoxArena arena)
+                    arena.release();
+                else if (value instanceof LoxBuffer buffer)
+                    buffer.arena.release();
+                else
+                    throw new NativeError("release: expected an arena or a buffer");
+                return null;
+            }
+        });
+    }
+
+    // immutable vectors and dicts, see `PersistentVector` and `PersistentMap`. `conj`, `assoc` and
+    // `dissoc` return a new one, or change a transient in place and return it
+
+    private static void definePersistent(Environment globals) {
+        globals.define("Vector", new Native(0) {
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return PersistentVector.EMPTY;
+            }
+        });
+        globals.define("Dict", new Native(0) {
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return PersistentMap.EMPTY;
+            }
+        });
+        // an array as a vector, or a map as a dict. the elements themselves aren't frozen
+        globals.define("freeze", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                if (value instanceof LoxArray array) {
+                    var vector = new PersistentVector.Transient(PersistentVector.EMPTY);
+                    for (int i = 0; i < array.size(); ++i) {
+                        vector.conj(array.get(i));
+                    }
+                    return vector.persistent();
+                }
+                if (value instanceof LoxMap map) {
+                    LoxArray keys = map.entries(true), values = map.entries(false);
+                    var dict = new PersistentMap.Transient(PersistentMap.EMPTY);
+                    for (int i = 0; i < keys.size(); ++i) {
+                        dict.assoc(keys.get(i), values.get(i));
+                    }
+                    return dict.persistent();
+                }
+                throw new NativeError("freeze: expected an array or a map");
+            }
+        });
+        // appends to a vector
+        globals.define("conj", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object vector, Object value) {
+                if (vector instanceof PersistentVector persistent)
+                    return persistent.conj(value);
+                if (vector instanceof PersistentVector.Transient builder) {
+                    editable(builder, "conj").conj(value);
+                    return builder;
+                }
+                throw new NativeError("conj: expected a vector");
+            }
+        });
+        // sets an element of a vector, which can be the one after the last, or the value of a key
+        globals.define("assoc", new Native(3) {
+            @Override
+            public Object call3(Interpreter interpreter, Object collection, Object key, Object value) {
+                if (collection instanceof PersistentVector vector)
+                    return vector.assoc(index(key, vector.size(), "assoc"), value);
+                if (collection instanceof PersistentVector.Transient vector) {
+                    editable(vector, "assoc").assoc(index(key, vector.size(), "assoc"), value);
+                    return vector;
+                }
+                if (collection instanceof PersistentMap dict)
+                    return dict.assoc(dictKey(key, "assoc"), value);
+                if (collection instanceof PersistentMap.Transient dict) {
+                    editable(dict, "assoc").assoc(dictKey(key, "assoc"), value);
+                    return dict;
+                }
+                throw new NativeError("assoc: expected a vector or a dict");
+            }
+        });
+        globals.define("dissoc", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object collection, Object key) {
+                if (collection instanceof PersistentMap dict)
+                    return dict.dissoc(dictKey(key, "dissoc"));
+                if (collection instanceof PersistentMap.Transient dict) {
+                    editable(dict, "dissoc").dissoc(dictKey(key, "dissoc"));
+                    return dict;
+                }
+                throw new NativeError("dissoc: expected a dict");
+            }
+        });
+        globals.define("transient", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object collection) {
+                if (collection instanceof PersistentVector vector)
+                    return new PersistentVector.Transient(vector);
+                if (collection instanceof PersistentMap dict)
+                    return new PersistentMap.Transient(dict);
+                throw new NativeError("transient: expected a vector or a dict");
+            }
+        });
+        // the transient can't be used after
+        globals.define("persistent", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object collection) {
+                if (collection instanceof PersistentVector.Transient vector)
+                    return editable(vector, "persistent").persistent();
+                if (collection instanceof PersistentMap.Transient dict)
+                    return editable(dict, "persistent").persistent();
+                throw new NativeError("persistent: expected a transient");
+            }
+        });
+    }
+
+    // lazy sequences, see `LoxIterator` and `LoxGenerator`
+
+    private static void defineSequences(Environment globals) {
+        Native iterate = new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object sequence) {
+                Iterator<Object> iterator = LoxIterator.of(sequence);
+                if (null == iterator)
+                    throw new NativeError("iterate: expected a sequence");
+                return iterator;
+            }
+        };
+        Native more = new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object iterator) {
+                return iterator(iterator, "more").hasNext();
+            }
+        };
+        Native next = new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                Iterator<Object> iterator = iterator(value, "next");
+                if (!iterator.hasNext())
+                    throw new NativeError("next: iterator is exhausted");
+                return iterator.next();
+            }
+        };
+        globals.define("iterate", iterate);
+        globals.define("more", more);
+        globals.define("next", next);
+        globals.define(ITERATE, iterate);
+        globals.define(MORE, more);
+        globals.define(NEXT, next);
+        globals.define("range", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object from, Object to) {
+                return LoxIterator.range(number(from, "range"), number(to, "range"));
+            }
+        });
+    }
+
+    // streaming file access, see `LoxFile`
+
+    private static void defineFiles(Environment globals) {
+        globals.define("lines", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object path) {
+                try {
+                    return new LoxFile.Lines(path(path, "lines"));
+                } catch (IOException e) {
+                    throw new NativeError("lines: can't read " + path);
+                }
+            }
+        });
+        globals.define("chunks", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object path, Object size) {
+                int chunk = size(size, "chunks");
+                if (0 == chunk)
+                    throw new NativeError("chunks: expected a size");
+                try {
+                    return new LoxFile.Chunks(path(path, "chunks"), chunk);
+                } catch (IOException e) {
+                    throw new NativeError("chunks: can't read " + path);
+                }
+            }
+        });
+        globals.define("writer", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object path) {
+                try {
+                    return new LoxFile.Writer(path(path, "writer"));
+                } catch (IOException | UnsupportedOperationException e) {
+                    throw new NativeError("writer: can't write " + path);
+                }
+            }
+        });
+        // buffers are written as their bytes, anything else as `print` shows it, in UTF-8
+        globals.define("write", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object writer, Object value) {
+                write(writer, value, false, "write");
+                return null;
+            }
+        });
+        globals.define("writeLine", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object writer, Object value) {
+                write(writer, value, true, "writeLine");
+                return null;
+            }
+        });
+        // closing a closed writer does nothing
+        globals.define("close", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                if (!(value instanceof LoxFile.Writer writer))
+                    throw new NativeError("close: expected a writer");
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    throw new NativeError("close: can't write " + writer.file());
+                }
+                return null;
+            }
+        });
+    }
+
+    // bounded caches, see `LoxCache`
+
+    private static void defineCaches(Environment globals) {
+        // `ttl` is in seconds, nil for entries that only leave when evicted
+        globals.define("Cache", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object capacity, Object ttl) {
+                int entries = size(capacity, "Cache");
+                if (0 == entries)
+                    throw new NativeError("Cache: expected a size");
+                if (null == ttl)
+                    return new LoxCache(entries, 0);
+                double seconds = number(ttl, "Cache");
+                if (!(seconds > 0) || seconds > Long.MAX_VALUE / 1e9)
+                    throw new NativeError("Cache: expected a positive ttl");
+                return new LoxCache(entries, Math.max(1, (long) (seconds * 1e9)));
+            }
+        });
+        globals.define("cacheStats", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object cache) {
+                if (!(cache instanceof LoxCache counted))
+                    throw new NativeError("cacheStats: expected a cache");
+                return counted.stats();
+            }
+        });
+    }
+
+    // java classes, see `Interop`
+
+    private static void defineInterop(Environment globals) {
+        // only classes registered with `--host=` or `Interop.register` are reachable
+        globals.define("host", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object name) {
+                String className = string(name, "host").toString();
+                Interop.HostClass host = Interop.host(className);
+                if (null == host)
+                    throw new NativeError("host: " + className + " isn't registered");
+                return host;
+            }
+        });
+    }
+
+    // JSON, see `Json`
+
+    private static void defineJson(Environment globals) {
+        globals.define("jsonParse", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object text) {
+                return Json.parse(json(text, "jsonParse"), "jsonParse");
+            }
+        });
+        globals.define("jsonStringify", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                return Json.stringify(value);
+            }
+        });
+        globals.define("jsonEvents", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object text) {
+                return new Json.Events(json(text, "jsonEvents"));
+            }
+        });
+        // the key or value of the last "key" or "value" event, nil after the others
+        globals.define("jsonValue", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object events) {
+                if (!(events instanceof Json.Events parser))
+                    throw new NativeError("jsonValue: expected json events");
+                return parser.current();
+            }
+        });
+        globals.define("jsonElements", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object text) {
+                return new Json.Elements(json(text, "jsonElements"));
+            }
+        });
+    }
+
+    // JSON comes as a string, or as a buffer of UTF-8, e.g. from `mapFile`, which is decoded as it's
+    // parsed instead of all at once
+    private static Json.Source json(Object value, String function) {
+        if (value instanceof LoxBuffer buffer)
+            return new Json.Source(live(buffer, function), function);
+        return new Json.Source(string(value, function).toString());
+    }
+
+    private static void write(Object value, Object data, boolean line, String function) {
+        LoxFile.Writer writer = writer(value, function);
+        ByteBuffer bytes = data instanceof LoxBuffer buffer
+                ? live(buffer, function).bytes()
+                : ByteBuffer.wrap(String.valueOf(data).getBytes(StandardCharsets.UTF_8));
+        try {
+            writer.write(bytes);
+            if (line)
+                writer.write(ByteBuffer.wrap(NEWLINE));
+        } catch (IOException e) {
+            throw new NativeError(function + ": can't write " + writer.file());
+        }
+    }
+
+    private static LoxFile.Writer writer(Object value, String function) {
+        if (!(value instanceof LoxFile.Writer writer))
+            throw new NativeError(function + ": expected a writer");
+        if (!writer.isOpen())
+            throw new NativeError(function + ": writer is closed");
+        return writer;
+    }
+
+    private static Path path(Object value, String function) {
+        try {
+            return Path.of(string(value, function).toString());
+        } catch (InvalidPathException e) {
+            throw new NativeError(function + ": invalid path " + value);
+        }
+    }
+
+    private static Iterator<Object> iterator(Object value, String function) {
+        if (value instanceof LoxIterator iterator)
+            return iterator;
+        if (value instanceof LoxGenerator generator)
+            return generator;
+        throw new NativeError(function + ": expected an iterator");
+    }
+
+    private static PersistentVector.Transient editable(PersistentVector.Transient vector, String function) {
+        if (!vector.isEditable())
+            throw new NativeError(function + ": transient was already made persistent");
+        return vector;
+    }
+
+    private static PersistentMap.Transient editable(PersistentMap.Transient dict, String function) {
+        if (!dict.isEditable())
+            throw new NativeError(function + ": transient was already made persistent");
+        return dict;
+    }
+
+    // a dict key as stored, see `PersistentMap.key`
+    private static Object dictKey(Object value, String function) {
+        return PersistentMap.key(key(value, function), null);
+    }
+
+    // past -XX:MaxDirectMemorySize, once the GC has freed what it could
+    private static LoxBuffer allocate(LoxArena arena, int size, String function) {
+        try {
+            return arena.allocate(size);
+        } catch (OutOfMemoryError e) {
+            throw new NativeError(function + ": can't allocate " + size + " bytes");
+        }
+    }
+
+    // released buffers are rejected here, as only foreign memory would notice by itself
+    private static LoxBuffer live(Object value, String function) {
+        if (!(value instanceof LoxBuffer buffer))
+            throw new NativeError(function + ": expected a buffer");
+        if (buffer.arena.isReleased())
+            throw new NativeError(function + ": buffer was released");
+        return buffer;
+    }
+
+    private static LoxBuffer.Type type(Object value, String function) {
+        LoxBuffer.Type type = Rope.isString(value) ? LoxBuffer.Type.named(value.toString()) : null;
+        if (null == type)
+            throw new NativeError(function + ": unknown type " + value);
+        return type;
+    }
+
+    // an offset with room for a `type` after it
+    private static int offset(LoxBuffer buffer, LoxBuffer.Type type, Object value, String function) {
+        if (!(value instanceof Double number) || number != Math.floor(number))
+            throw new NativeError(function + ": expected a whole number");
+        if (number < 0 || number > buffer.size() - type.width)
+            throw new NativeError(function + ": offset " + number.longValue() + " out of range for "
+                    + buffer.size() + " bytes");
+        return number.intValue();
+    }
+
+    private static int size(Object value, String function) {
+        if (!(value instanceof Double number) || number != Math.floor(number) || number < 0
+                || number > Integer.MAX_VALUE)
+            throw new NativeError(function + ": expected a size");
+        return number.intValue();
+    }
+
+    private static LoxArray numeric(Object value, String function) {
+        if (!(value instanceof LoxArray array) || !array.isNumeric())
+            throw new NativeError(function + ": expected an array of numbers");
+        return array;
+    }
+
+    private static LoxArray sameSize(LoxArray first, LoxArray second, String function) {
+        if (first.size() != second.size())
+            throw new NativeError(function + ": arrays of length " + first.size() + " and " + second.size());
+        return second;
+    }
+
+    private static LoxArray nonEmpty(LoxArray array, String function) {
+        if (0 == array.size())
+            throw new NativeError(function + ": array is empty");
+        return array;
+    }
+
+    private static double number(Object value, String function) {
+        if (!(value instanceof Double number))
+            throw new NativeError(function + ": expected a number");
+        return number;
+    }
+
+    // the operator spelled `op`, out of `spellings` and operators given in pairs
+    private static TokenType operator(Object op, String function, Object... spellings) {
+        for (int i = 0; i < spellings.length; i += 2) {
+            if (spellings[i].equals(String.valueOf(op)))
+                return (TokenType) spellings[i + 1];
+        }
+        throw new NativeError(function + ": unknown operator " + op);
+    }
+
+    private static LoxMap map(Object value, String function) {
+        if (!(value instanceof LoxMap map))
+            throw new NativeError(function + ": expected a map");
+        return map;
+    }
+
+    // checked here, as there's no `map[key]` token to report a nil key at
+    private static Object key(Object value, String function) {
+        if (null == value)
+            throw new NativeError(function + ": map keys can't be nil");
+        return value;
+    }
+
+    private static LoxArray array(Object value, String function) {
+        if (!(value instanceof LoxArray array))
+            throw new NativeError(function + ": expected an array");
+        return array;
+    }
+
+    private static CharSequence string(Object value, String function) {
+        if (!Rope.isString(value))
+            throw new NativeError(function + ": expected a string");
+        return (CharSequence) value;
+    }
+
+    // an index into something `length` long, which can be `length`
+    private static int index(Object value, int length, String function) {
+        if (!(value instanceof Double number) || number != Math.floor(number))
+            throw new NativeError(function + ": expected a whole number");
+        if (number < 0 || number > length)
+            throw new NativeError(function + ": index " + number.intValue() + " out of range");
+        return number.intValue();
+    }
+}
@@ -0,0 +1,67 @@
+package lox;
+
+/*
+ * instruction set of the bytecode `VM`. every instruction is one opcode byte followed by its
+ * operands inline: u8 for local/upvalue slots and argument counts, u16 (big-endian) for constant
+ * pool indices and jump offsets.
+ * not an enum so the dispatch loop can `switch` on the raw byte without an ordinal lookup
+ */
+final class OpCode {
+    static final byte CONSTANT = 0; // u16 constant
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+    static final byte GET_LOCAL = 5; // u8 slot
+    static final byte SET_LOCAL = 6; // u8 slot
+    static final byte GET_GLOBAL = 7; // u16 name token
+    static final byte DEFINE_GLOBAL = 8; // u16 name token
+    static final byte SET_GLOBAL = 9; // u16 name token
+    static final byte GET_UPVALUE = 10; // u8 index
+    static final byte SET_UPVALUE = 11; // u8 index
+    static final byte GET_PROPERTY = 12; // u16 name
+    static final byte SET_PROPERTY = 13; // u16 name
+    static final byte EQUAL = 14;
+    static final byte NOT_EQUAL = 15;
+    static final byte GREATER = 16;
+    static final byte GREATER_EQUAL = 17;
+    static final byte LESS = 18;
+    static final byte LESS_EQUAL = 19;
+    static final byte ADD = 20;
+    static final byte SUBTRACT = 21;
+    static final byte MULTIPLY = 22;
+    static final byte DIVIDE = 23;
+    static final byte NOT = 24;
+    static final byte NEGATE = 25;
+    static final byte PRINT = 26;
+    static final byte JUMP = 27; // u16 forward offset
+    static final byte JUMP_IF_FALSE = 28; // u16 forward offset, leaves the condition on the stack
+    static final byte LOOP = 29; // u16 backward offset
+    static final byte AND_RIGHT = 30; // replaces the left operand with the right one if it's truthy
+    static final byte CALL = 31; // u8 argument count
+    static final byte CLOSURE = 32; // u16 function, then (u8 isLocal, u8 index) per upvalue
+    static final byte CLOSE_UPVALUE = 33;
+    static final byte RETURN = 34;
+    static final byte CLASS = 35; // u16 name
+    static final byte METHOD = 36; // u16 name
+    static final byte ERROR = 37; // u16 message, raised as a runtime error at the instruction's token
+    static final byte INHERIT = 38; // copies the superclass's methods into the class above it, popping the class
+    static final byte GET_SUPER = 39; // u16 name, pops the superclass and replaces the receiver with the method
+    static final byte GET_INDEX = 40; // replaces the array and index with the element
+    static final byte SET_INDEX = 41; // replaces the array, index and value with the value
+    static final byte YIELD = 42; // pops the value and suspends the generator until the next is asked for
+
+    static final String[] NAMES = {
+            "CONSTANT", "NIL", "TRUE", "FALSE", "POP",
+            "GET_LOCAL", "SET_LOCAL", "GET_GLOBAL", "DEFINE_GLOBAL", "SET_GLOBAL",
+            "GET_UPVALUE", "SET_UPVALUE", "GET_PROPERTY", "SET_PROPERTY",
+            "EQUAL", "NOT_EQUAL", "GREATER", "GREATER_EQUAL", "LESS", "LESS_EQUAL",
+            "ADD", "SUBTRACT", "MULTIPLY", "DIVIDE", "NOT", "NEGATE", "PRINT",
+            "JUMP", "JUMP_IF_FALSE", "LOOP", "AND_RIGHT", "CALL", "CLOSURE", "CLOSE_UPVALUE",
+            "RETURN", "CLASS", "METHOD", "ERROR", "INHERIT", "GET_SUPER",
+            "GET_INDEX", "SET_INDEX", "YIELD",
+    };
+
+    private OpCode() {
+    }
+}
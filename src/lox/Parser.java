@@ -14,6 +14,8 @@ public class Parser {
     // not an Iterable because we need an index accessor method
     private final List<Token> tokens;
     private int current = 0; // current hasn't been accessed yet
+    // whether the function being parsed has a `yield`, which makes it a generator
+    private boolean yields = false;
 
     Parser(final List<Token> tokens) {
         this.tokens = tokens;
@@ -94,6 +96,7 @@ public class Parser {
                 case WHILE:
                 case PRINT:
                 case RETURN:
+                case YIELD:
                     return;
                 default:
             }
@@ -161,6 +164,9 @@ public class Parser {
 
     private Stmt.Class classDeclaration() {
         Token name = consume(IDENTIFIER, "expected identifier in class declaration");
+        Expr.Variable superclass = null;
+        if (match(LESS))
+            superclass = new Expr.Variable(consume(IDENTIFIER, "expected superclass name after '<'"));
         consume(LEFT_BRACE, "expected '{' in class declaration");
         List<Stmt.Fun> methods = new ArrayList<>();
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
@@ -171,7 +177,7 @@ public class Parser {
             }
         }
         consume(RIGHT_BRACE, "expected '}' at end of class declaration");
-        return new Stmt.Class(name, methods);
+        return new Stmt.Class(name, superclass, methods);
     }
 
     private Stmt.Var varDeclaration() {
@@ -222,8 +228,12 @@ public class Parser {
         } else {
             isGetter = true;
         }
+        boolean enclosingYields = yields;
+        yields = false;
         Stmt body = statement();
-        return new Stmt.Fun(name, params, body, kind == FunctionKind.STATIC, isGetter);
+        boolean isGenerator = yields;
+        yields = enclosingYields;
+        return new Stmt.Fun(name, params, body, kind == FunctionKind.STATIC, isGetter, isGenerator);
     }
 
     private Stmt statement() {
@@ -267,6 +277,8 @@ public class Parser {
         }
         if (match(FOR)) {
             consume(LEFT_PAREN, "expected '(' instead, after for statement");
+            if (check(VAR) && current + 2 < tokens.size() && IN == tokens.get(current + 2).type)
+                return forIn();
 
             Stmt initializer = null;
             if (!match(SEMICOLON)) {
@@ -306,6 +318,16 @@ public class Parser {
                 stmt = new Stmt.Block(Arrays.asList(initializer, stmt));
             return stmt;
         }
+        if (match(YIELD)) {
+            Token keyword = previous();
+            Expr value = null;
+            if (!check(SEMICOLON)) {
+                value = expression();
+            }
+            consume(SEMICOLON, "expected ';' instead, after yield statement");
+            yields = true;
+            return new Stmt.Yield(keyword, value);
+        }
         if (match(RETURN)) {
             Token keyword = previous();
             Expr value = null;
@@ -320,6 +342,30 @@ public class Parser {
         return expressionStatement();
     }
 
+    // `for (var name in sequence) body`, after the '('. "desugarized" like `for`, into
+    // `{ var (iterator) = (iterate)(sequence); while ((more)((iterator))) { var name = (next)((iterator)); body } }`.
+    // lox can't spell those names, so the loop works whatever the program calls its own variables
+    private Stmt forIn() {
+        advance();
+        Token name = consume(IDENTIFIER, "expected loop variable after 'var'");
+        Token in = advance();
+        Expr sequence = expression();
+        consume(RIGHT_PAREN, "expected ')' instead, after sequence of for statement");
+        Stmt body = statement();
+
+        Token iterator = new Token(IDENTIFIER, "(iterator)", null, in.line);
+        Stmt start = new Stmt.Var(iterator, hiddenCall(Natives.ITERATE, in, sequence));
+        Expr more = hiddenCall(Natives.MORE, in, new Expr.Variable(iterator));
+        Stmt next = new Stmt.Var(name, hiddenCall(Natives.NEXT, in, new Expr.Variable(iterator)));
+        Stmt loop = new Stmt.While(more, new Stmt.Block(Arrays.asList(next, body)));
+        return new Stmt.Block(Arrays.asList(start, loop));
+    }
+
+    // a call of the native `name` that errors report at `at`
+    private static Expr hiddenCall(String name, Token at, Expr argument) {
+        return new Expr.Call(new Expr.Variable(new Token(IDENTIFIER, name, null, at.line)), List.of(argument), at);
+    }
+
     private Iterable<Stmt> block() {
         Token brace = previous();
         List<Stmt> stmts = new ArrayList<>();
@@ -372,6 +418,8 @@ public class Parser {
             } else if (expr instanceof Expr.Get) {
                 Expr.Get get = (Expr.Get) expr;
                 return new Expr.Set(get.object, get.name, value);
+            } else if (expr instanceof Expr.Index index) {
+                return new Expr.IndexSet(index.object, index.bracket, index.index, value);
             }
 
             throw error(equal, "invalid assignment target");
@@ -456,6 +504,9 @@ public class Parser {
             } else if (match(DOT)) {
                 Token name = consume(IDENTIFIER, "expected property name after '.'");
                 expr = new Expr.Get(expr, name);
+            } else if (match(LEFT_BRACKET)) {
+                Expr index = expression();
+                expr = new Expr.Index(expr, consume(RIGHT_BRACKET, "expected ']' after index"), index);
             } else
                 break;
         }
@@ -467,6 +518,11 @@ public class Parser {
             return new Expr.Variable(previous());
         if (match(THIS))
             return new Expr.This(previous());
+        if (match(SUPER)) {
+            Token keyword = previous();
+            consume(DOT, "expected '.' after 'super'");
+            return new Expr.Super(keyword, consume(IDENTIFIER, "expected superclass method name after 'super.'"));
+        }
         if (match(
                 BANG, MINUS, SLASH, STAR, PLUS, MINUS,
                 GREATER, GREATER_EQUAL, LESS, LESS_EQUAL, BANG_EQUAL, EQUAL_EQUAL))
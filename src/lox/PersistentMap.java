@@ -0,0 +1,439 @@
+package lox;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+import lox.Interpreter.RuntimeError;
+
+/*
+ * the immutable lox map, made by `Dict()` or `freeze(map)`, as a hash array mapped trie. each level
+ * of the trie takes the next 5 bits of a key's hash and keeps only the children it has, found
+ * through a bitmap of the 32 possible ones. `assoc` and `dissoc` return a new map sharing everything
+ * but the log32(size) nodes on the path to the key. keys with the same hash share a `Collision`
+ * node at the bottom. like `LoxMap`, strings are flattened, numbers are compared by their bits and
+ * anything else by `equals`, and nil can't be a key. the order of the entries is the order of their
+ * hashes, not insertion order.
+ * like vectors (see `PersistentVector`) maps are safe to share between threads, `Transient` builds
+ * one in place, and `==` compares their entries
+ */
+final class PersistentMap implements LoxIndexable {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    // the nodes of the trie. `owner` is the transient allowed to change a node in place, or null.
+    // `added` and `removed` tell the caller the size changed
+    private abstract static class Node {
+        final Object owner;
+
+        Node(Object owner) {
+            this.owner = owner;
+        }
+
+        abstract Object find(int shift, int hash, Object key, Object missing);
+
+        abstract Node assoc(Object owner, int shift, int hash, Object key, Object value, boolean[] added);
+
+        // null when nothing is left
+        abstract Node dissoc(Object owner, int shift, int hash, Object key, boolean[] removed);
+
+        abstract void forEach(BiConsumer<Object, Object> action);
+
+        final boolean isOwnedBy(Object owner) {
+            return null != owner && this.owner == owner;
+        }
+    }
+
+    /*
+     * pairs in `array`, one for each bit set in `bitmap`. a pair is a key and its value, or null and
+     * the child node for the keys with those hash bits. transients leave room for more pairs at the end
+     */
+    private static final class Bitmap extends Node {
+        private int bitmap;
+        private Object[] array;
+
+        Bitmap(Object owner, int bitmap, Object[] array) {
+            super(owner);
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & MASK);
+        }
+
+        // the pair for `bit`, whether it's there or not
+        private int pair(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key, Object missing) {
+            int bit = bit(hash, shift);
+            if (0 == (bitmap & bit))
+                return missing;
+            int i = 2 * pair(bit);
+            Object candidate = array[i];
+            if (null == candidate)
+                return ((Node) array[i + 1]).find(shift + BITS, hash, key, missing);
+            return same(key, candidate) ? array[i + 1] : missing;
+        }
+
+        @Override
+        Node assoc(Object owner, int shift, int hash, Object key, Object value, boolean[] added) {
+            int bit = bit(hash, shift);
+            int i = 2 * pair(bit);
+            if (0 != (bitmap & bit)) {
+                Object candidate = array[i];
+                Object current = array[i + 1];
+                if (null == candidate) {
+                    Node child = ((Node) current).assoc(owner, shift + BITS, hash, key, value, added);
+                    return child == current ? this : with(owner, i + 1, child);
+                }
+                if (same(key, candidate))
+                    return value == current ? this : with(owner, i + 1, value);
+                // another key with the same bits at this level moves down a level with this one
+                added[0] = true;
+                Node child = split(owner, shift + BITS, candidate, current, hash, key, value);
+                Bitmap node = editable(owner);
+                node.array[i] = null;
+                node.array[i + 1] = child;
+                return node;
+            }
+            added[0] = true;
+            int pairs = Integer.bitCount(bitmap);
+            if (isOwnedBy(owner) && 2 * pairs < array.length) {
+                System.arraycopy(array, i, array, i + 2, 2 * pairs - i);
+                array[i] = key;
+                array[i + 1] = value;
+                bitmap |= bit;
+                return this;
+            }
+            // a transient's nodes get room for two more pairs, as it's likely to add them
+            Object[] newArray = new Object[2 * (pairs + (null == owner ? 1 : 3))];
+            System.arraycopy(array, 0, newArray, 0, i);
+            newArray[i] = key;
+            newArray[i + 1] = value;
+            System.arraycopy(array, i, newArray, i + 2, 2 * pairs - i);
+            return new Bitmap(owner, bitmap | bit, newArray);
+        }
+
+        @Override
+        Node dissoc(Object owner, int shift, int hash, Object key, boolean[] removed) {
+            int bit = bit(hash, shift);
+            if (0 == (bitmap & bit))
+                return this;
+            int i = 2 * pair(bit);
+            Object candidate = array[i];
+            Object current = array[i + 1];
+            if (null == candidate) {
+                Node child = ((Node) current).dissoc(owner, shift + BITS, hash, key, removed);
+                if (child == current)
+                    return this;
+                if (null != child)
+                    return with(owner, i + 1, child);
+            } else if (!same(key, candidate)) {
+                return this;
+            } else {
+                removed[0] = true;
+            }
+            if (bitmap == bit)
+                return null;
+            int pairs = Integer.bitCount(bitmap);
+            if (isOwnedBy(owner)) {
+                System.arraycopy(array, i + 2, array, i, 2 * pairs - i - 2);
+                array[2 * pairs - 2] = null;
+                array[2 * pairs - 1] = null;
+                bitmap ^= bit;
+                return this;
+            }
+            Object[] newArray = new Object[2 * (pairs - 1)];
+            System.arraycopy(array, 0, newArray, 0, i);
+            System.arraycopy(array, i + 2, newArray, i, newArray.length - i);
+            return new Bitmap(owner, bitmap ^ bit, newArray);
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0, end = 2 * Integer.bitCount(bitmap); i < end; i += 2) {
+                if (null == array[i])
+                    ((Node) array[i + 1]).forEach(action);
+                else
+                    action.accept(array[i], array[i + 1]);
+            }
+        }
+
+        private Bitmap editable(Object owner) {
+            return isOwnedBy(owner) ? this : new Bitmap(owner, bitmap, array.clone());
+        }
+
+        private Bitmap with(Object owner, int i, Object value) {
+            Bitmap node = editable(owner);
+            node.array[i] = value;
+            return node;
+        }
+    }
+
+    // the entries whose keys all hash to `hash`, in pairs
+    private static final class Collision extends Node {
+        private final int hash;
+        private final Object[] array;
+
+        Collision(Object owner, int hash, Object[] array) {
+            super(owner);
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (same(key, array[i]))
+                    return i;
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key, Object missing) {
+            int i = indexOf(key);
+            return -1 == i ? missing : array[i + 1];
+        }
+
+        @Override
+        Node assoc(Object owner, int shift, int hash, Object key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                // the keys only shared hash bits up to here, so this node goes a level down
+                var parent = new Bitmap(owner, Bitmap.bit(this.hash, shift), new Object[] { null, this });
+                return parent.assoc(owner, shift, hash, key, value, added);
+            }
+            int i = indexOf(key);
+            if (-1 != i) {
+                if (value == array[i + 1])
+                    return this;
+                Object[] newArray = array.clone();
+                newArray[i + 1] = value;
+                return new Collision(owner, hash, newArray);
+            }
+            added[0] = true;
+            Object[] newArray = Arrays.copyOf(array, array.length + 2);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            return new Collision(owner, hash, newArray);
+        }
+
+        @Override
+        Node dissoc(Object owner, int shift, int hash, Object key, boolean[] removed) {
+            int i = indexOf(key);
+            if (-1 == i)
+                return this;
+            removed[0] = true;
+            if (2 == array.length)
+                return null;
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, i);
+            System.arraycopy(array, i + 2, newArray, i, newArray.length - i);
+            return new Collision(owner, hash, newArray);
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                action.accept(array[i], array[i + 1]);
+            }
+        }
+    }
+
+    // a node holding `key1` and `key2`, from `shift` down
+    private static Node split(Object owner, int shift, Object key1, Object value1, int hash2, Object key2,
+            Object value2) {
+        int hash1 = hash(key1);
+        if (hash1 == hash2)
+            return new Collision(owner, hash1, new Object[] { key1, value1, key2, value2 });
+        var added = new boolean[1];
+        return new Bitmap(owner, 0, new Object[0])
+                .assoc(owner, shift, hash1, key1, value1, added)
+                .assoc(owner, shift, hash2, key2, value2, added);
+    }
+
+    private static final Object MISSING = new Object();
+    private static final Node EMPTY_NODE = new Bitmap(null, 0, new Object[0]);
+    static final PersistentMap EMPTY = new PersistentMap(0, EMPTY_NODE);
+
+    private final int size;
+    private final Node root;
+    private int hash;
+
+    private PersistentMap(int size, Node root) {
+        this.size = size;
+        this.root = root;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static int hash(Object key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    // `Double.equals` compares bits, like `LoxMap` does
+    private static boolean same(Object key, Object candidate) {
+        return key == candidate || key.equals(candidate);
+    }
+
+    // the key as stored, like `LoxMap`'s
+    static Object key(Object key, Token bracket) {
+        if (null == key)
+            throw new RuntimeError(bracket, "map keys can't be nil");
+        return key instanceof Rope rope ? rope.toString() : key;
+    }
+
+    // `key` is a stored key, see `key`
+
+    Object get(Object key) {
+        Object value = root.find(0, hash(key), key, MISSING);
+        return MISSING == value ? null : value;
+    }
+
+    boolean has(Object key) {
+        return MISSING != root.find(0, hash(key), key, MISSING);
+    }
+
+    PersistentMap assoc(Object key, Object value) {
+        var added = new boolean[1];
+        Node newRoot = root.assoc(null, 0, hash(key), key, value, added);
+        return newRoot == root ? this : new PersistentMap(added[0] ? size + 1 : size, newRoot);
+    }
+
+    PersistentMap dissoc(Object key) {
+        var removed = new boolean[1];
+        Node newRoot = root.dissoc(null, 0, hash(key), key, removed);
+        if (newRoot == root)
+            return this;
+        return null == newRoot ? EMPTY : new PersistentMap(size - 1, newRoot);
+    }
+
+    LoxArray entries(boolean keys) {
+        var array = new LoxArray(0);
+        root.forEach((key, value) -> array.push(keys ? key : value));
+        return array;
+    }
+
+    @Override
+    public Object get(Object key, Token bracket) {
+        return get(key(key, bracket));
+    }
+
+    @Override
+    public void set(Object key, Object value, Token bracket) {
+        throw new RuntimeError(bracket, "dicts are immutable, use assoc or a transient");
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (!(other instanceof PersistentMap map) || map.size != size)
+            return false;
+        var equal = new boolean[] { true };
+        root.forEach((key, value) -> {
+            if (equal[0])
+                equal[0] = map.has(key) && Interpreter.isEqual(value, map.get(key));
+        });
+        return equal[0];
+    }
+
+    // the sum of the entries' hashes, as they're in no particular order
+    @Override
+    public int hashCode() {
+        int hash = this.hash;
+        if (0 == hash) {
+            var sum = new int[] { 1 };
+            root.forEach((key, value) -> sum[0] += key.hashCode() ^ (null == value ? 0 : value.hashCode()));
+            this.hash = hash = sum[0];
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        var builder = new StringBuilder("{");
+        root.forEach((key, value) -> {
+            if (1 != builder.length())
+                builder.append(", ");
+            builder.append(key).append(": ").append(value);
+        });
+        return builder.append('}').toString();
+    }
+
+    // a map being built in place, made by `transient(dict)`. see `PersistentVector.Transient`
+    static final class Transient implements LoxIndexable {
+        private Object owner = new Object();
+        private int size;
+        private Node root;
+
+        Transient(PersistentMap map) {
+            size = map.size;
+            root = map.root;
+        }
+
+        boolean isEditable() {
+            return null != owner;
+        }
+
+        int size() {
+            return size;
+        }
+
+        Object get(Object key) {
+            Object value = root.find(0, hash(key), key, MISSING);
+            return MISSING == value ? null : value;
+        }
+
+        boolean has(Object key) {
+            return MISSING != root.find(0, hash(key), key, MISSING);
+        }
+
+        void assoc(Object key, Object value) {
+            var added = new boolean[1];
+            root = root.assoc(owner, 0, hash(key), key, value, added);
+            if (added[0])
+                ++size;
+        }
+
+        void dissoc(Object key) {
+            var removed = new boolean[1];
+            Node newRoot = root.dissoc(owner, 0, hash(key), key, removed);
+            root = null == newRoot ? EMPTY_NODE : newRoot;
+            if (removed[0])
+                --size;
+        }
+
+        PersistentMap persistent() {
+            owner = null;
+            return 0 == size ? EMPTY : new PersistentMap(size, root);
+        }
+
+        private void checkEditable(Token bracket) {
+            if (null == owner)
+                throw new RuntimeError(bracket, "transient was already made persistent");
+        }
+
+        @Override
+        public Object get(Object key, Token bracket) {
+            checkEditable(bracket);
+            return get(key(key, bracket));
+        }
+
+        @Override
+        public void set(Object key, Object value, Token bracket) {
+            checkEditable(bracket);
+            assoc(key(key, bracket), value);
+        }
+
+        @Override
+        public String toString() {
+            return "<transient dict>";
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package lox;
+
+import java.util.Arrays;
+
+import lox.Interpreter.RuntimeError;
+
+/*
+ * the immutable lox vector, made by `Vector()` or `freeze(array)`. `conj` and `assoc` return a new
+ * vector and leave the old one as it was, and both share everything but the path they changed: the
+ * elements live in a trie of 32-wide nodes, `shift` bits per level, so an update copies
+ * log32(size) nodes. the last up to 32 elements are kept out of the trie in `tail`, which makes
+ * appending copy just that.
+ * every field is final and nodes are never changed once a vector can see them, so vectors can be
+ * shared between threads as they are. `Transient` builds a vector in place, for bulk construction,
+ * and is the only thing that changes nodes: those it made itself, while it's still editable.
+ * vectors are values: `==` compares their elements
+ */
+final class PersistentVector implements LoxIndexable {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    // a trie node. `owner` is the transient allowed to change it, or null
+    private static final class Node {
+        final Object owner;
+        final Object[] array;
+
+        Node(Object owner, Object[] array) {
+            this.owner = owner;
+            this.array = array;
+        }
+
+        Node(Object owner) {
+            this(owner, new Object[WIDTH]);
+        }
+    }
+
+    private static final Node EMPTY_NODE = new Node(null);
+    static final PersistentVector EMPTY = new PersistentVector(0, BITS, EMPTY_NODE, new Object[0]);
+
+    private final int size;
+    private final int shift;
+    private final Node root;
+    private final Object[] tail;
+    // 0 until computed, like `String`'s
+    private int hash;
+
+    private PersistentVector(int size, int shift, Node root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // the index of the first element in the tail
+    private static int tailOffset(int size) {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    // the leaf or tail array holding element `i`
+    private static Object[] leaf(int i, int size, int shift, Node root, Object[] tail) {
+        if (i >= tailOffset(size))
+            return tail;
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Node) node.array[(i >>> level) & MASK];
+        }
+        return node.array;
+    }
+
+    // `i` is in range
+    Object get(int i) {
+        return leaf(i, size, shift, root, tail)[i & MASK];
+    }
+
+    // a new vector with `value` appended
+    PersistentVector conj(Object value) {
+        if (size - tailOffset(size) < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = value;
+            return new PersistentVector(size + 1, shift, root, newTail);
+        }
+        Node tailNode = new Node(null, tail);
+        Node newRoot;
+        int newShift = shift;
+        // the trie is full, so it gets another level on top
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Node(null);
+            newRoot.array[0] = root;
+            newRoot.array[1] = path(null, shift, tailNode);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(null, size, shift, root, tailNode);
+        }
+        return new PersistentVector(size + 1, newShift, newRoot, new Object[] { value });
+    }
+
+    // a new vector with element `i` replaced, or `value` appended when `i` is the size
+    PersistentVector assoc(int i, Object value) {
+        if (i == size)
+            return conj(value);
+        if (i >= tailOffset(size)) {
+            Object[] newTail = tail.clone();
+            newTail[i & MASK] = value;
+            return new PersistentVector(size, shift, root, newTail);
+        }
+        return new PersistentVector(size, shift, assoc(null, shift, root, i, value), tail);
+    }
+
+    // the shared trie operations. with a null `owner` they copy every node they change, otherwise
+    // they change the nodes `owner` already made in place
+
+    private static Node editable(Object owner, Node node) {
+        if (null != owner && node.owner == owner)
+            return node;
+        return new Node(owner, node.array.clone());
+    }
+
+    // `node` at the bottom of a chain of new nodes `level` high
+    private static Node path(Object owner, int level, Node node) {
+        if (0 == level)
+            return node;
+        Node parent = new Node(owner);
+        parent.array[0] = path(owner, level - BITS, node);
+        return parent;
+    }
+
+    // `parent` with the full `tailNode` added as the leaf after the last, in a vector of `size`
+    private static Node pushTail(Object owner, int size, int level, Node parent, Node tailNode) {
+        Node node = editable(owner, parent);
+        int i = ((size - 1) >>> level) & MASK;
+        if (BITS == level) {
+            node.array[i] = tailNode;
+        } else {
+            Node child = (Node) parent.array[i];
+            node.array[i] = null == child
+                    ? path(owner, level - BITS, tailNode)
+                    : pushTail(owner, size, level - BITS, child, tailNode);
+        }
+        return node;
+    }
+
+    private static Node assoc(Object owner, int level, Node node, int i, Object value) {
+        Node copy = editable(owner, node);
+        if (0 == level) {
+            copy.array[i & MASK] = value;
+        } else {
+            int child = (i >>> level) & MASK;
+            copy.array[child] = assoc(owner, level - BITS, (Node) node.array[child], i, value);
+        }
+        return copy;
+    }
+
+    // an index into a vector `size` long, checked like arrays check theirs
+    static int index(Object index, int size, Token bracket) {
+        if (!(index instanceof Double number) || number != Math.floor(number))
+            throw new RuntimeError(bracket, "index must be a whole number");
+        if (number < 0 || number >= size)
+            throw new RuntimeError(bracket, "index " + number.longValue() + " out of range for length " + size);
+        return number.intValue();
+    }
+
+    @Override
+    public Object get(Object index, Token bracket) {
+        return get(index(index, size, bracket));
+    }
+
+    @Override
+    public void set(Object index, Object value, Token bracket) {
+        throw new RuntimeError(bracket, "vectors are immutable, use assoc or a transient");
+    }
+
+    LoxArray toArray() {
+        var array = new LoxArray(0);
+        for (int i = 0; i < size; ++i) {
+            array.push(get(i));
+        }
+        return array;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (!(other instanceof PersistentVector vector) || vector.size != size)
+            return false;
+        for (int i = 0; i < size; ++i) {
+            if (!Interpreter.isEqual(get(i), vector.get(i)))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = this.hash;
+        if (0 == hash) {
+            hash = 1;
+            for (int i = 0; i < size; ++i) {
+                Object element = get(i);
+                hash = 31 * hash + (null == element ? 0 : element.hashCode());
+            }
+            this.hash = hash;
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        var builder = new StringBuilder("[");
+        for (int i = 0; i < size; ++i) {
+            if (0 != i)
+                builder.append(", ");
+            builder.append(get(i));
+        }
+        return builder.append(']').toString();
+    }
+
+    /*
+     * a vector being built in place, made by `transient(vector)`: `conj`, `assoc` and
+     * `transient[i] = value` change it instead of returning a copy, and `persistent` turns it back
+     * into a vector in constant time. it copies a node the first time it changes it and owns the copy
+     * from then on, so the vector it came from stays as it was. not for sharing between threads
+     */
+    static final class Transient implements LoxIndexable {
+        // identifies the nodes this transient made. null once `persistent` was called
+        private Object owner = new Object();
+        private int size;
+        private int shift;
+        private Node root;
+        // always `WIDTH` long, unlike a vector's
+        private Object[] tail;
+
+        Transient(PersistentVector vector) {
+            size = vector.size;
+            shift = vector.shift;
+            root = new Node(owner, vector.root.array.clone());
+            tail = Arrays.copyOf(vector.tail, WIDTH);
+        }
+
+        boolean isEditable() {
+            return null != owner;
+        }
+
+        int size() {
+            return size;
+        }
+
+        Object get(int i) {
+            return leaf(i, size, shift, root, tail)[i & MASK];
+        }
+
+        void conj(Object value) {
+            int i = size;
+            if (i - tailOffset(i) < WIDTH) {
+                tail[i & MASK] = value;
+                ++size;
+                return;
+            }
+            Node tailNode = new Node(owner, tail);
+            tail = new Object[WIDTH];
+            tail[0] = value;
+            if ((i >>> BITS) > (1 << shift)) {
+                Node newRoot = new Node(owner);
+                newRoot.array[0] = root;
+                newRoot.array[1] = path(owner, shift, tailNode);
+                root = newRoot;
+                shift += BITS;
+            } else {
+                root = pushTail(owner, i, shift, root, tailNode);
+            }
+            ++size;
+        }
+
+        // `i` is at most the size
+        void assoc(int i, Object value) {
+            if (i == size)
+                conj(value);
+            else if (i >= tailOffset(size))
+                tail[i & MASK] = value;
+            else
+                root = PersistentVector.assoc(owner, shift, root, i, value);
+        }
+
+        // the vector built so far. this transient can't be used after
+        PersistentVector persistent() {
+            owner = null;
+            return new PersistentVector(size, shift, root, Arrays.copyOf(tail, size - tailOffset(size)));
+        }
+
+        private void checkEditable(Token bracket) {
+            if (null == owner)
+                throw new RuntimeError(bracket, "transient was already made persistent");
+        }
+
+        @Override
+        public Object get(Object index, Token bracket) {
+            checkEditable(bracket);
+            return get(index(index, size, bracket));
+        }
+
+        @Override
+        public void set(Object index, Object value, Token bracket) {
+            checkEditable(bracket);
+            assoc(index(index, size, bracket), value);
+        }
+
+        @Override
+        public String toString() {
+            return "<transient vector>";
+        }
+    }
+}
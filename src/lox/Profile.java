@@ -0,0 +1,153 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * feedback from running a script, saved under the hash of its source so the next run of the same
+ * script acts on it from the start instead of warming up again:
+ * - functions that got hot are handed to `Jit` on their first call
+ * - call sites that only ever called one lox function make that function hot along with the caller
+ * - `+` sites that saw strings are compiled to try strings first
+ * sites are identified by the index of their token in the script, which is stable for the same
+ * source. only the interpreter records, compiled code just reads.
+ * off unless asked for with `--profile` or `--profile-dir=`, so running a script leaves nothing
+ * behind by default
+ */
+final class Profile {
+    static Path directory = Path.of(System.getProperty("user.home"), ".cache", "lox", "profiles");
+    static boolean enabled = false;
+
+    // call target of a site that called more than one thing
+    private static final Token MIXED = new Token(TokenType.EOF, "", null, 0);
+
+    private final Path file;
+    private final List<Token> tokens;
+    private final Map<Token, Integer> indices = new IdentityHashMap<>();
+    // names of hot function declarations
+    private final Set<Token> hot = ConcurrentHashMap.newKeySet();
+    // `+` operators that saw strings
+    private final Set<Token> strings = ConcurrentHashMap.newKeySet();
+    // call parens to the name of the only function called there, or `MIXED`
+    private final Map<Token, Token> targets = new ConcurrentHashMap<>();
+
+    private Profile(Path file, List<Token> tokens) {
+        this.file = file;
+        this.tokens = tokens;
+        for (int i = 0; i < tokens.size(); ++i) {
+            indices.put(tokens.get(i), i);
+        }
+    }
+
+    // `tokens` are the scanned `source`, whose profile from an earlier run is loaded if there is one
+    static Profile load(String source, List<Token> tokens) {
+        Profile profile = new Profile(directory.resolve(hash(source) + ".profile"), tokens);
+        try {
+            if (Files.exists(profile.file))
+                profile.read(Files.readAllLines(profile.file));
+        } catch (IOException | RuntimeException e) {
+            // a missing or broken profile only costs the warm-up
+        }
+        return profile;
+    }
+
+    private static String hash(String source) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(source.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // one entry per line: `hot <name>`, `string <operator>` or `call <paren> <name>|mixed`
+    private void read(List<String> lines) {
+        for (String line : lines) {
+            String[] parts = line.split(" ");
+            Token site = tokens.get(Integer.parseInt(parts[1]));
+            switch (parts[0]) {
+                case "hot": hot.add(site); break;
+                case "string": strings.add(site); break;
+                case "call":
+                    targets.put(site, parts[2].equals("mixed") ? MIXED : tokens.get(Integer.parseInt(parts[2])));
+                    break;
+            }
+        }
+    }
+
+    void save() {
+        List<String> lines = new ArrayList<>();
+        for (Token name : hot) {
+            lines.add("hot " + indices.get(name));
+        }
+        for (Token operator : strings) {
+            lines.add("string " + indices.get(operator));
+        }
+        for (var target : targets.entrySet()) {
+            lines.add("call " + indices.get(target.getKey()) + " "
+                    + (MIXED == target.getValue() ? "mixed" : indices.get(target.getValue())));
+        }
+        try {
+            // e.g. a read-only home, where every attempt would fail the same way
+            if (Files.exists(directory) && !Files.isWritable(directory))
+                return;
+            Files.createDirectories(directory);
+            Files.write(file, lines);
+        } catch (IOException | SecurityException e) {
+            // next run just warms up again
+        }
+    }
+
+    // sites outside of the script (e.g. code from the REPL) aren't recorded
+
+    void hot(Stmt.Fun declaration) {
+        if (indices.containsKey(declaration.name))
+            hot.add(declaration.name);
+    }
+
+    boolean isHot(Stmt.Fun declaration) {
+        return hot.contains(declaration.name);
+    }
+
+    void sawStrings(Token operator) {
+        if (!strings.contains(operator) && indices.containsKey(operator))
+            strings.add(operator);
+    }
+
+    boolean seenStrings(Token operator) {
+        return strings.contains(operator);
+    }
+
+    // runs on every interpreted call, so the common case of nothing new is a single read
+    void called(Token paren, LoxCallable function) {
+        Token known = targets.get(paren);
+        if (MIXED == known || function instanceof LoxFunction callee && callee.declaration.name == known)
+            return;
+        if (null == known && function instanceof LoxFunction callee && indices.containsKey(callee.declaration.name))
+            targets.put(paren, callee.declaration.name);
+        else
+            targets.put(paren, MIXED);
+    }
+
+    // the only function called at `paren` so far, if any
+    Token target(Token paren) {
+        Token target = targets.get(paren);
+        return MIXED == target ? null : target;
+    }
+
+    // gets `name`'s function compiled on its next call
+    void promote(Token name) {
+        hot.add(name);
+    }
+}
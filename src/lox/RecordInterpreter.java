@@ -0,0 +1,642 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lox.Interpreter.BreakException;
+import lox.Interpreter.Completion;
+import lox.Interpreter.ContinueException;
+import lox.Interpreter.RuntimeError;
+
+/*
+ * the tree-walking interpreter again, over the sealed record form of the AST (`ExprNode`/`StmtNode`).
+ * instead of double dispatch through `accept`, `evaluate` and `execute` test the node's type directly:
+ * records are final, so each test is a single class pointer comparison and the call sites never go
+ * megamorphic. this is what `switch (expr) { case ExprNode.Binary binary -> ... }` compiles to, which
+ * Java 17 only has as a preview. output and errors match `Interpreter`. it shares globals (and with
+ * them natives) with the `Interpreter` it was created from, and has its own functions and classes,
+ * like `VM`.
+ */
+class RecordInterpreter {
+    private final Interpreter interpreter;
+    private final Environment globals;
+    private Environment environment;
+    // see `Interpreter.Completion`
+    private Object returnValue = null;
+    private Token jump = null;
+    // lox calls on the stack, limited like `Interpreter.callDepth`
+    private int callDepth = 0;
+
+    RecordInterpreter(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+        this.environment = globals;
+    }
+
+    class Function implements LoxCallable {
+        final StmtNode.Fun declaration;
+        final Environment closure;
+        final boolean isInitializer;
+
+        Function(StmtNode.Fun declaration, Environment closure, boolean isInitializer) {
+            this.declaration = declaration;
+            this.closure = closure;
+            this.isInitializer = isInitializer;
+        }
+
+        @Override
+        public int arity() {
+            return declaration.params().size();
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            if (++callDepth > Interpreter.maxDepth) {
+                --callDepth;
+                throw new RuntimeError(declaration.name(), "stack overflow");
+            }
+            try {
+                return run(arguments);
+            } catch (StackOverflowError e) {
+                throw new RuntimeError(declaration.name(), "stack overflow");
+            } finally {
+                --callDepth;
+            }
+        }
+
+        private Object run(List<Object> arguments) {
+            Environment environment = new Environment(closure);
+            for (int i = 0; i < declaration.params().size(); ++i) {
+                environment.define(declaration.params().get(i), arguments.get(i));
+            }
+            if (declaration.isGenerator())
+                return new LoxGenerator(declaration.name().lexeme,
+                        () -> new RecordInterpreter(interpreter).generate(declaration, environment));
+            Completion completion = declaration.body() instanceof StmtNode.Block block
+                    ? executeBlock(block.statements(), environment)
+                    : execute(declaration.body());
+            switch (completion) {
+                case RETURN:
+                    Object value = returnValue;
+                    returnValue = null;
+                    if (isInitializer)
+                        return closure.getAt(0, "this");
+                    return value;
+                case BREAK:
+                    throw new BreakException(jump);
+                case CONTINUE:
+                    throw new ContinueException(jump);
+                default:
+                    if (isInitializer)
+                        return closure.getAt(0, "this");
+                    return null;
+            }
+        }
+
+        Function bind(Object instance) {
+            Environment environment = new Environment(closure);
+            environment.define("this", instance);
+            return new Function(declaration, environment, isInitializer);
+        }
+
+        @Override
+        public String toString() {
+            return "<fn " + declaration.name().lexeme + ">";
+        }
+    }
+
+    // classes hold fields and static methods of their own, like `LoxClass`
+    static class Instance {
+        final Klass klass;
+        final Map<String, Object> fields = new HashMap<>();
+
+        Instance(Klass klass) {
+            this.klass = klass;
+        }
+
+        @Override
+        public String toString() {
+            return klass.name;
+        }
+    }
+
+    static class Klass extends Instance implements LoxCallable {
+        final String name;
+        final Map<String, Function> methods = new HashMap<>();
+        final Map<String, Function> staticMethods = new HashMap<>();
+
+        Klass(String name) {
+            super(null);
+            this.name = name;
+        }
+
+        @Override
+        public int arity() {
+            Function initializer = methods.get("init");
+            return null == initializer ? 0 : initializer.arity();
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            var instance = new Instance(this);
+            Function initializer = methods.get("init");
+            if (null != initializer)
+                initializer.bind(instance).call(interpreter, arguments);
+            return instance;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    void interpret(List<StmtNode> statements) {
+        try {
+            for (StmtNode stmt : statements) {
+                if (stmt instanceof StmtNode.Expression expression
+                        && !(expression.expression() instanceof ExprNode.Assignment))
+                    System.out.println(evaluate(expression.expression()));
+                else if (Completion.NORMAL != execute(stmt))
+                    throw new RuntimeError(jump, "statement may only be used inside a loop");
+            }
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        } catch (ContinueException e) {
+            Lox.runtimeError(new RuntimeError(e.token, "statement may only be used inside a loop"));
+        } catch (BreakException e) {
+            Lox.runtimeError(new RuntimeError(e.token, "statement may only be used inside a loop"));
+        }
+    }
+
+    // runs the body of a generator, on its own thread. the functions it calls still run with the
+    // state of the runner they were made by, which is safe as only one of the threads runs at a time
+    // and every call has returned by the time the body yields
+    private void generate(StmtNode.Fun declaration, Environment environment) {
+        Completion completion = declaration.body() instanceof StmtNode.Block block
+                ? executeBlock(block.statements(), environment)
+                : execute(declaration.body());
+        if (Completion.BREAK == completion || Completion.CONTINUE == completion)
+            throw new RuntimeError(jump, "statement may only be used inside a loop");
+    }
+
+    private Environment resolved(int depth) {
+        return -1 == depth ? globals : environment.ancestor(depth);
+    }
+
+    // most frequent kinds first. every case is kept to a call so this stays small enough for
+    // HotSpot to inline into itself
+    Object evaluate(ExprNode expr) {
+        if (expr instanceof ExprNode.Variable variable) return variable(variable);
+        if (expr instanceof ExprNode.Literal literal) return literal.value();
+        if (expr instanceof ExprNode.Binary binary) return binary(binary);
+        if (expr instanceof ExprNode.Assignment assignment) return assign(assignment);
+        if (expr instanceof ExprNode.Call call) return call(call);
+        if (expr instanceof ExprNode.Get get) return get(get);
+        if (expr instanceof ExprNode.Grouping grouping) return evaluate(grouping.expression());
+        if (expr instanceof ExprNode.LogicalBinary logical) return logical(logical);
+        if (expr instanceof ExprNode.Unary unary) return unary(unary);
+        if (expr instanceof ExprNode.Ternary ternary) return ternary(ternary);
+        if (expr instanceof ExprNode.Set set) return set(set);
+        if (expr instanceof ExprNode.This self) return self(self);
+        if (expr instanceof ExprNode.Super superExpr) return superMethod(superExpr);
+        if (expr instanceof ExprNode.Index index) return index(index);
+        if (expr instanceof ExprNode.IndexSet indexSet) return indexSet(indexSet);
+        return null; // an absent initializer or return value
+    }
+
+    Completion execute(StmtNode stmt) {
+        if (stmt instanceof StmtNode.Expression expression) {
+            evaluate(expression.expression());
+        } else if (stmt instanceof StmtNode.Block block) {
+            return executeBlock(block.statements(), new Environment(environment));
+        } else if (stmt instanceof StmtNode.If ifStmt) {
+            return ifStmt(ifStmt);
+        } else if (stmt instanceof StmtNode.While whileStmt) {
+            return whileStmt(whileStmt);
+        } else if (stmt instanceof StmtNode.Var var) {
+            environment.define(var.name(), evaluate(var.initializer()));
+        } else if (stmt instanceof StmtNode.Return returnStmt) {
+            returnValue = evaluate(returnStmt.expr());
+            return Completion.RETURN;
+        } else if (stmt instanceof StmtNode.Yield yieldStmt) {
+            LoxGenerator.yieldValue(evaluate(yieldStmt.value()));
+        } else if (stmt instanceof StmtNode.Print print) {
+            System.out.println(evaluate(print.expression()));
+        } else if (stmt instanceof StmtNode.Fun fun) {
+            environment.define(fun.name(), new Function(fun, environment, false));
+        } else if (stmt instanceof StmtNode.Class classStmt) {
+            defineClass(classStmt);
+        } else if (stmt instanceof StmtNode.Continue continueStmt) {
+            jump = continueStmt.token();
+            return Completion.CONTINUE;
+        } else if (stmt instanceof StmtNode.Break breakStmt) {
+            jump = breakStmt.token();
+            return Completion.BREAK;
+        }
+        return Completion.NORMAL;
+    }
+
+    private Object logical(ExprNode.LogicalBinary expr) {
+        Object left = evaluate(expr.left());
+        if (TokenType.OR == expr.operator().type)
+            return Interpreter.isTruthy(left) ? left : evaluate(expr.right());
+        if (Interpreter.isTruthy(left)) {
+            Object right = evaluate(expr.right());
+            if (Interpreter.isTruthy(right))
+                return right;
+        }
+        return left;
+    }
+
+    private Object binary(ExprNode.Binary expr) {
+        Object left = evaluate(expr.left());
+        Object right = evaluate(expr.right());
+        Token operator = expr.operator();
+        switch (operator.type) {
+            case BANG_EQUAL: return !Interpreter.isEqual(left, right);
+            case EQUAL_EQUAL: return Interpreter.isEqual(left, right);
+            case GREATER: return JitRuntime.greater(left, right, operator);
+            case GREATER_EQUAL: return JitRuntime.greaterEqual(left, right, operator);
+            case LESS: return JitRuntime.less(left, right, operator);
+            case LESS_EQUAL: return JitRuntime.lessEqual(left, right, operator);
+            case SLASH: return JitRuntime.divide(left, right, operator);
+            case STAR: return JitRuntime.multiply(left, right, operator);
+            case MINUS: return JitRuntime.subtract(left, right, operator);
+            case PLUS: return JitRuntime.add(left, right, operator);
+            default: throw new RuntimeError(operator, "undefined operator behavior for binary expression");
+        }
+    }
+
+    private Object assign(ExprNode.Assignment expr) {
+        Object value = evaluate(expr.value());
+        resolved(expr.depth()).assign(expr.name(), value);
+        return value;
+    }
+
+    private Object unary(ExprNode.Unary expr) {
+        Object right = evaluate(expr.right());
+        if (TokenType.BANG == expr.operator().type)
+            return !Interpreter.isTruthy(right);
+        return JitRuntime.negate(right, expr.operator());
+    }
+
+    private Object variable(ExprNode.Variable expr) {
+        return resolved(expr.depth()).get(expr.name());
+    }
+
+    private Object ternary(ExprNode.Ternary expr) {
+        return Interpreter.isTruthy(evaluate(expr.condition()))
+                ? evaluate(expr.thenExpr())
+                : evaluate(expr.elseExpr());
+    }
+
+    private Object call(ExprNode.Call expr) {
+        LoxCallable function = Interpreter.checkCallable(evaluate(expr.callee()), expr.arguments().size(),
+                expr.paren());
+        List<Object> arguments = new ArrayList<>(expr.arguments().size());
+        for (ExprNode argument : expr.arguments()) {
+            arguments.add(evaluate(argument));
+        }
+        try {
+            return function.call(interpreter, arguments);
+        } catch (Natives.NativeError error) {
+            throw new RuntimeError(expr.paren(), error.getMessage());
+        }
+    }
+
+    private Object get(ExprNode.Get expr) {
+        return getProperty(evaluate(expr.object()), expr.name());
+    }
+
+    private Object set(ExprNode.Set expr) {
+        Instance instance = checkInstance(evaluate(expr.object()), expr.name());
+        Object value = evaluate(expr.value());
+        instance.fields.put(expr.name().lexeme, value);
+        return value;
+    }
+
+    private Object index(ExprNode.Index expr) {
+        return LoxIndexable.check(evaluate(expr.object()), expr.bracket()).get(evaluate(expr.index()), expr.bracket());
+    }
+
+    private Object indexSet(ExprNode.IndexSet expr) {
+        LoxIndexable indexable = LoxIndexable.check(evaluate(expr.object()), expr.bracket());
+        Object index = evaluate(expr.index());
+        Object value = evaluate(expr.value());
+        indexable.set(index, value, expr.bracket());
+        return value;
+    }
+
+    private Object self(ExprNode.This expr) {
+        return resolved(expr.depth()).get(expr.keyword());
+    }
+
+    // `Interpreter.visitSuperExpr`
+    private Object superMethod(ExprNode.Super expr) {
+        var superclass = (Klass) environment.getAt(expr.depth(), "super");
+        Object object = environment.getAt(expr.depth() - 1, "this");
+        Function method = superclass.methods.get(expr.method().lexeme);
+        if (null == method)
+            throw new RuntimeError(expr.method(), "undefined superclass method '" + expr.method().lexeme + "'");
+        method = method.bind(object);
+        if (method.declaration.isGetter())
+            return method.call(interpreter, null);
+        return method;
+    }
+
+    private Completion ifStmt(StmtNode.If stmt) {
+        if (Interpreter.isTruthy(evaluate(stmt.condition())))
+            return execute(stmt.thenBranch());
+        else if (null != stmt.elseBranch())
+            return execute(stmt.elseBranch());
+        return Completion.NORMAL;
+    }
+
+    private Completion whileStmt(StmtNode.While stmt) {
+        while (Interpreter.isTruthy(evaluate(stmt.condition()))) {
+            Completion completion;
+            try {
+                completion = execute(stmt.body());
+            } catch (ContinueException e) {
+                continue;
+            } catch (BreakException e) {
+                break;
+            }
+            if (Completion.BREAK == completion)
+                break;
+            if (Completion.RETURN == completion)
+                return completion;
+        }
+        return Completion.NORMAL;
+    }
+
+    private Completion executeBlock(List<StmtNode> statements, Environment environment) {
+        var previous = this.environment;
+        try {
+            this.environment = environment;
+            for (StmtNode statement : statements) {
+                Completion completion = execute(statement);
+                if (Completion.NORMAL != completion)
+                    return completion;
+            }
+            return Completion.NORMAL;
+        } finally {
+            this.environment = previous;
+        }
+    }
+
+    private void defineClass(StmtNode.Class stmt) {
+        environment.define(stmt.name(), null);
+        var klass = new Klass(stmt.name().lexeme);
+        Environment scope = environment;
+        if (null != stmt.superclass()) {
+            if (!(evaluate(stmt.superclass()) instanceof Klass superclass))
+                throw new RuntimeError(stmt.superclass().name(), "superclass must be a class");
+            // flattened like `LoxClass`, the class's own methods go on top
+            klass.methods.putAll(superclass.methods);
+            klass.staticMethods.putAll(superclass.staticMethods);
+            scope = new Environment(environment);
+            scope.define("super", superclass);
+        }
+        for (StmtNode.Fun method : stmt.methods()) {
+            boolean isInitializer = method.name().lexeme.equals("init");
+            if (isInitializer && method.isStatic())
+                throw new RuntimeError(method.name(), "constructor may not be static");
+            var function = new Function(method, scope, isInitializer);
+            (method.isStatic() ? klass.staticMethods : klass.methods).put(method.name().lexeme, function);
+        }
+        environment.assign(stmt.name(), klass);
+    }
+
+    // `LoxInstance.get` and `Interpreter.getProperty` in one
+    private Object getProperty(Object object, Token name) {
+        if (!(object instanceof Instance instance))
+            return Interop.get(object, name.lexeme, name);
+        if (instance.fields.containsKey(name.lexeme))
+            return instance.fields.get(name.lexeme);
+        Function method;
+        if (instance instanceof Klass klass) {
+            method = klass.staticMethods.get(name.lexeme);
+            if (null == method)
+                throw new RuntimeError(name, "undefined static method '" + name.lexeme + "'");
+        } else {
+            method = instance.klass.methods.get(name.lexeme);
+            if (null == method)
+                throw new RuntimeError(name, "undefined field or method '" + name.lexeme + "'");
+            method = method.bind(instance);
+        }
+        if (method.declaration.isGetter())
+            return method.call(interpreter, null);
+        return method;
+    }
+
+    private static Instance checkInstance(Object object, Token name) {
+        if (!(object instanceof Instance instance))
+            throw new RuntimeError(name, "only instances may have properties");
+        return instance;
+    }
+
+    // converts the resolved visitor AST into records, baking in resolution depths
+    static class Lowering implements Expr.Visitor<ExprNode>, Stmt.Visitor<StmtNode> {
+        private final Map<Expr, Integer> locals;
+
+        Lowering(Interpreter interpreter) {
+            this.locals = interpreter.locals();
+        }
+
+        List<StmtNode> lower(Iterable<Stmt> statements) {
+            List<StmtNode> lowered = new ArrayList<>();
+            for (Stmt statement : statements) {
+                lowered.add(lower(statement));
+            }
+            return lowered;
+        }
+
+        private StmtNode lower(Stmt stmt) {
+            return null == stmt ? null : stmt.accept(this);
+        }
+
+        private ExprNode lower(Expr expr) {
+            return null == expr ? null : expr.accept(this);
+        }
+
+        private int depth(Expr expr) {
+            Integer depth = locals.get(expr);
+            return null == depth ? -1 : depth;
+        }
+
+        @Override
+        public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+            return new ExprNode.Grouping(lower(expr.expression));
+        }
+
+        @Override
+        public ExprNode visitLogicalBinaryExpr(Expr.LogicalBinary expr) {
+            return new ExprNode.LogicalBinary(lower(expr.left), expr.operator, lower(expr.right));
+        }
+
+        @Override
+        public ExprNode visitBinaryExpr(Expr.Binary expr) {
+            return new ExprNode.Binary(lower(expr.left), expr.operator, lower(expr.right));
+        }
+
+        @Override
+        public ExprNode visitAssignmentExpr(Expr.Assignment expr) {
+            return new ExprNode.Assignment(expr.name, lower(expr.value), depth(expr));
+        }
+
+        @Override
+        public ExprNode visitUnaryExpr(Expr.Unary expr) {
+            return new ExprNode.Unary(expr.operator, lower(expr.right));
+        }
+
+        @Override
+        public ExprNode visitVariableExpr(Expr.Variable expr) {
+            return new ExprNode.Variable(expr.name, depth(expr));
+        }
+
+        @Override
+        public ExprNode visitLiteralExpr(Expr.Literal expr) {
+            return new ExprNode.Literal(expr.value);
+        }
+
+        @Override
+        public ExprNode visitTernaryExpr(Expr.Ternary expr) {
+            return new ExprNode.Ternary(lower(expr.condition), lower(expr.thenExpr), lower(expr.elseExpr));
+        }
+
+        @Override
+        public ExprNode visitCallExpr(Expr.Call expr) {
+            List<ExprNode> arguments = new ArrayList<>(expr.arguments.size());
+            for (Expr argument : expr.arguments) {
+                arguments.add(lower(argument));
+            }
+            return new ExprNode.Call(lower(expr.callee), arguments, expr.paren);
+        }
+
+        @Override
+        public ExprNode visitGetExpr(Expr.Get expr) {
+            return new ExprNode.Get(lower(expr.object), expr.name);
+        }
+
+        @Override
+        public ExprNode visitSetExpr(Expr.Set expr) {
+            return new ExprNode.Set(lower(expr.object), expr.name, lower(expr.value));
+        }
+
+        @Override
+        public ExprNode visitIndexExpr(Expr.Index expr) {
+            return new ExprNode.Index(lower(expr.object), expr.bracket, lower(expr.index));
+        }
+
+        @Override
+        public ExprNode visitIndexSetExpr(Expr.IndexSet expr) {
+            return new ExprNode.IndexSet(lower(expr.object), expr.bracket, lower(expr.index), lower(expr.value));
+        }
+
+        @Override
+        public ExprNode visitThisExpr(Expr.This expr) {
+            return new ExprNode.This(expr.keyword, depth(expr));
+        }
+
+        @Override
+        public ExprNode visitSuperExpr(Expr.Super expr) {
+            return new ExprNode.Super(expr.keyword, expr.method, depth(expr));
+        }
+
+        // the pass runs on unfused trees, but fused nodes lower fine as what they replace
+
+        @Override
+        public ExprNode visitIncrementExpr(Expr.Increment expr) {
+            var binary = new ExprNode.Binary(new ExprNode.Variable(expr.name, expr.depth), expr.operator,
+                    new ExprNode.Literal(expr.delta));
+            return new ExprNode.Assignment(expr.name, binary, expr.depth);
+        }
+
+        @Override
+        public ExprNode visitCompareConstantExpr(Expr.CompareConstant expr) {
+            return new ExprNode.Binary(new ExprNode.Variable(expr.name, expr.depth), expr.operator,
+                    new ExprNode.Literal(expr.constant));
+        }
+
+        @Override
+        public ExprNode visitInvokeExpr(Expr.Invoke expr) {
+            return lower(Fuser.unfuse(expr));
+        }
+
+        @Override
+        public StmtNode visitBlockStmt(Stmt.Block stmt) {
+            return new StmtNode.Block(lower(stmt.statements));
+        }
+
+        @Override
+        public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+            return new StmtNode.Expression(lower(stmt.expression));
+        }
+
+        @Override
+        public StmtNode visitPrintStmt(Stmt.Print stmt) {
+            return new StmtNode.Print(lower(stmt.expression));
+        }
+
+        @Override
+        public StmtNode visitIfStmt(Stmt.If stmt) {
+            return new StmtNode.If(lower(stmt.condition), lower(stmt.thenBranch), lower(stmt.elseBranch));
+        }
+
+        @Override
+        public StmtNode visitWhileStmt(Stmt.While stmt) {
+            return new StmtNode.While(lower(stmt.condition), lower(stmt.body));
+        }
+
+        @Override
+        public StmtNode visitContinueStmt(Stmt.Continue stmt) {
+            return new StmtNode.Continue(stmt.token);
+        }
+
+        @Override
+        public StmtNode visitBreakStmt(Stmt.Break stmt) {
+            return new StmtNode.Break(stmt.token);
+        }
+
+        @Override
+        public StmtNode visitVarStmt(Stmt.Var stmt) {
+            return new StmtNode.Var(stmt.name, lower(stmt.initializer));
+        }
+
+        @Override
+        public StmtNode.Fun visitFunStmt(Stmt.Fun stmt) {
+            return new StmtNode.Fun(stmt.name, stmt.params, lower(stmt.body), stmt.isStatic, stmt.isGetter,
+                    stmt.isGenerator);
+        }
+
+        @Override
+        public StmtNode visitYieldStmt(Stmt.Yield stmt) {
+            return new StmtNode.Yield(stmt.keyword, lower(stmt.value));
+        }
+
+        @Override
+        public StmtNode visitReturnStmt(Stmt.Return stmt) {
+            return new StmtNode.Return(stmt.keyword, lower(stmt.expr));
+        }
+
+        @Override
+        public StmtNode visitClassStmt(Stmt.Class stmt) {
+            List<StmtNode.Fun> methods = new ArrayList<>(stmt.methods.size());
+            for (Stmt.Fun method : stmt.methods) {
+                methods.add(visitFunStmt(method));
+            }
+            var superclass = null == stmt.superclass ? null : (ExprNode.Variable) lower(stmt.superclass);
+            return new StmtNode.Class(stmt.name, superclass, methods);
+        }
+
+        @Override
+        public StmtNode visitIfVariableStmt(Stmt.IfVariable stmt) {
+            return new StmtNode.If(new ExprNode.Variable(stmt.name, stmt.depth), lower(stmt.thenBranch),
+                    lower(stmt.elseBranch));
+        }
+    }
+}
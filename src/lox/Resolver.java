@@ -14,6 +14,11 @@ public class Resolver implements Expr.Visitor<Void>,
     private Stack<Map<String, Boolean>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
+    // functions being resolved, and the index of each one's parameter scope in `scopes`
+    private final Stack<Stmt.Fun> functions = new Stack<>();
+    private final Stack<Integer> functionScopes = new Stack<>();
+    // loops around the current statement, inside the current function
+    private int loops = 0;
 
     private enum FunctionType {
         NONE,
@@ -26,6 +31,7 @@ public class Resolver implements Expr.Visitor<Void>,
     private enum ClassType {
         NONE,
         CLASS,
+        SUBCLASS,
     }
 
     Resolver(Interpreter interpreter) {
@@ -146,7 +152,13 @@ public class Resolver implements Expr.Visitor<Void>,
         for (int i = scopes.size() - 1; i >= 0; --i) {
             if (!scopes.get(i).containsKey(name.lexeme))
                 continue;
+            // innermost declaration wins, otherwise shadowed names resolve to the outer one
             interpreter.resolve(expr, scopes.size() - 1 - i);
+            // found outside of the functions being resolved: they close over it
+            for (int f = functions.size() - 1; f >= 0 && functionScopes.get(f) > i; --f) {
+                interpreter.markCapturing(functions.get(f));
+            }
+            return;
         }
     }
 
@@ -185,6 +197,8 @@ public class Resolver implements Expr.Visitor<Void>,
     }
 
     private void resolveFunction(Stmt.Fun fun, FunctionType functionType) {
+        functions.push(fun);
+        functionScopes.push(scopes.size());
         beginScope();
         for (var param : fun.params) {
             declare(param);
@@ -192,6 +206,8 @@ public class Resolver implements Expr.Visitor<Void>,
         }
         var previousFunction = this.currentFunction;
         this.currentFunction = functionType;
+        int enclosingLoops = loops;
+        loops = 0;
         if (fun.body instanceof Stmt.Block) {
             // ugly fix
             // because visitBlockStmt will create a scope and that doesn't align with the
@@ -202,7 +218,10 @@ public class Resolver implements Expr.Visitor<Void>,
         } else
             resolve(fun.body);
         this.currentFunction = previousFunction;
+        loops = enclosingLoops;
         endScope();
+        functionScopes.pop();
+        functions.pop();
     }
 
     @Override
@@ -228,11 +247,28 @@ public class Resolver implements Expr.Visitor<Void>,
         if (null != stmt.expr) {
             if (this.currentFunction == FunctionType.INITIALIZER)
                 Lox.error(stmt.keyword, "'return' statement not allowed at initializer unless empty");
+            // a generator's caller already got the generator back, not whatever the body returns
+            else if (this.currentFunction != FunctionType.NONE && functions.peek().isGenerator)
+                Lox.error(stmt.keyword, "'return' statement not allowed in a generator unless empty");
             resolve(stmt.expr);
+            // inside a loop, a `break` escaping the callee would still belong to that loop
+            if (stmt.expr instanceof Expr.Call && 0 == loops)
+                interpreter.markTailCall(stmt);
         }
         return null;
     }
 
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        if (this.currentFunction == FunctionType.NONE)
+            Lox.error(stmt.keyword, "'yield' statement not allowed at top-level");
+        if (this.currentFunction == FunctionType.INITIALIZER)
+            Lox.error(stmt.keyword, "'yield' statement not allowed at initializer");
+        if (null != stmt.value)
+            resolve(stmt.value);
+        return null;
+    }
+
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
         declare(stmt.name);
@@ -245,11 +281,11 @@ public class Resolver implements Expr.Visitor<Void>,
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
-        beginScope();
+        // no scope here: the interpreter doesn't create an environment for loops either
         resolve(stmt.condition);
+        ++loops;
         resolve(stmt.body);
-        endScope();
-
+        --loops;
         return null;
     }
 
@@ -261,6 +297,16 @@ public class Resolver implements Expr.Visitor<Void>,
         declare(stmt.name);
         define(stmt.name);
 
+        if (null != stmt.superclass) {
+            if (stmt.superclass.name.lexeme.equals(stmt.name.lexeme))
+                Lox.error(stmt.superclass.name, "a class can't inherit from itself");
+            this.currentClass = ClassType.SUBCLASS;
+            resolve(stmt.superclass);
+            // methods close over `super` one scope further out than `this`
+            beginScope();
+            this.scopes.peek().put("super", true);
+        }
+
         beginScope();
         this.scopes.peek().put("this", true);
         for (Stmt.Fun method : stmt.methods) {
@@ -270,6 +316,9 @@ public class Resolver implements Expr.Visitor<Void>,
         }
         endScope();
 
+        if (null != stmt.superclass)
+            endScope();
+
         this.currentClass = enclosingClass;
 
         return null;
@@ -288,6 +337,21 @@ public class Resolver implements Expr.Visitor<Void>,
         return null;
     }
 
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        resolve(expr.value);
+        return null;
+    }
+
     @Override
     public Void visitThisExpr(This expr) {
         if (currentClass == ClassType.NONE) {
@@ -301,4 +365,52 @@ public class Resolver implements Expr.Visitor<Void>,
         resolveLocal(expr, expr.keyword);
         return null;
     }
-}
\ No newline at end of file
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        if (currentClass == ClassType.NONE) {
+            Lox.error(expr.keyword, "'super' can't be used outside of a class");
+            return null;
+        }
+        if (currentClass != ClassType.SUBCLASS) {
+            Lox.error(expr.keyword, "'super' can't be used in a class without a superclass");
+            return null;
+        }
+        if (currentFunction == FunctionType.STATICMETHOD) {
+            Lox.error(expr.keyword, "'super' can't be used in a static method");
+            return null;
+        }
+        resolveLocal(expr, expr.keyword);
+        return null;
+    }
+
+    // fused nodes are created after resolution and carry their own depth (see `Fuser`)
+
+    @Override
+    public Void visitIncrementExpr(Expr.Increment expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitCompareConstantExpr(Expr.CompareConstant expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitInvokeExpr(Expr.Invoke expr) {
+        resolve(expr.object);
+        for (Expr argument : expr.arguments) {
+            resolve(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfVariableStmt(Stmt.IfVariable stmt) {
+        resolve(stmt.thenBranch);
+        if (null != stmt.elseBranch) {
+            resolve(stmt.elseBranch);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,133 @@
+package lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/*
+ * a lox string that hasn't been copied into one `String` yet: the concatenation of two strings, or a
+ * view of part of one. `+` makes one once its result reaches `MIN_LENGTH` characters, so building a
+ * string piece by piece (`s = s + part;`) costs a node per step instead of a copy of everything so
+ * far. the characters are only laid out when something needs them (printing, comparing, hashing,
+ * indexing), once, after which the pieces are dropped.
+ * lox strings are `String`s or `Rope`s, code dealing in them takes a `CharSequence`
+ */
+final class Rope implements CharSequence {
+    // below this, copying is cheaper than keeping the pieces around
+    static final int MIN_LENGTH = 256;
+
+    private final int length;
+    // concatenation, until flattened
+    private CharSequence left;
+    private CharSequence right;
+    // view of `base` from `offset`, until flattened
+    private String base;
+    private int offset;
+    // the characters, once laid out
+    private String flat;
+
+    private Rope(CharSequence left, CharSequence right) {
+        this.length = left.length() + right.length();
+        this.left = left;
+        this.right = right;
+    }
+
+    private Rope(String base, int offset, int length) {
+        this.length = length;
+        this.base = base;
+        this.offset = offset;
+    }
+
+    // `left + right` on lox strings
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        if (0 == left.length())
+            return right;
+        if (0 == right.length())
+            return left;
+        if (left.length() + right.length() < MIN_LENGTH)
+            return left.toString().concat(right.toString());
+        return new Rope(left, right);
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof Rope;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (null != base)
+            return base.charAt(offset + index);
+        return toString().charAt(index);
+    }
+
+    // a view sharing this string's characters, long ones aren't copied
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + ") of " + length);
+        if (end - start < MIN_LENGTH)
+            return null != base ? base.substring(offset + start, offset + end) : toString().substring(start, end);
+        if (null != base)
+            return new Rope(base, offset + start, end - start);
+        return new Rope(toString(), start, end - start);
+    }
+
+    // `subSequence` for any lox string
+    static CharSequence substring(CharSequence string, int start, int end) {
+        if (string instanceof String flat && end - start >= MIN_LENGTH) {
+            if (start < 0 || end > flat.length() || start > end)
+                throw new IndexOutOfBoundsException("[" + start + ", " + end + ") of " + flat.length());
+            return new Rope(flat, start, end - start);
+        }
+        return string.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (null == flat)
+            flatten();
+        return flat;
+    }
+
+    // walks the pieces with an explicit stack: a string built by appending is a rope as deep as the
+    // number of appends
+    private void flatten() {
+        if (null != base) {
+            flat = base.substring(offset, offset + length);
+            base = null;
+            return;
+        }
+        var builder = new StringBuilder(length);
+        Deque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            CharSequence piece = pending.pop();
+            if (piece instanceof Rope rope && null == rope.flat && null != rope.left) {
+                pending.push(rope.right);
+                pending.push(rope.left);
+            } else if (piece instanceof Rope rope && null != rope.base) {
+                builder.append(rope.base, rope.offset, rope.offset + rope.length);
+            } else {
+                builder.append(piece.toString());
+            }
+        }
+        flat = builder.toString();
+        left = null;
+        right = null;
+    }
+
+    // equal to any lox string with the same characters, see `Interpreter.isEqual`
+    @Override
+    public boolean equals(Object other) {
+        return this == other || isString(other) && other.toString().equals(toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
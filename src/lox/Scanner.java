@@ -33,6 +33,8 @@ public class Scanner {
         keywords.put("while",   WHILE);
         keywords.put("continue",CONTINUE);
         keywords.put("break",   BREAK);
+        keywords.put("yield",   YIELD);
+        keywords.put("in",      IN);
     }
 
     Scanner(String source) {
@@ -61,6 +63,8 @@ public class Scanner {
             case ')': addToken(RIGHT_PAREN); break;
             case '{': addToken(LEFT_BRACE); break;
             case '}': addToken(RIGHT_BRACE); break;
+            case '[': addToken(LEFT_BRACKET); break;
+            case ']': addToken(RIGHT_BRACKET); break;
             case ',': addToken(COMMA); break;
             case '.': addToken(DOT); break;
             case '-': addToken(MINUS); break;
@@ -121,7 +125,7 @@ public class Scanner {
         }
         advance(); // skip over ending "
 
-        addToken(STRING, source.substring(start + 1, current - 1));
+        addToken(STRING, Symbols.intern(source.substring(start + 1, current - 1)));
     }
 
     private boolean isDigit(char c) {
@@ -175,7 +179,7 @@ public class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
+        String text = Symbols.intern(source.substring(start, current));
         tokens.add(new Token(type, text, literal, line));
     }
 }
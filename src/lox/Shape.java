@@ -0,0 +1,53 @@
+package lox;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/*
+ * the layout of a `LoxInstance`: which slot of its `Object[]` holds each field. instances start out
+ * with `EMPTY` and move to a child shape each time they get a new field, so instances that get the
+ * same fields in the same order (e.g. set by the same `init`) end up sharing one shape and its
+ * lookup table. shapes are only created and followed on the interpreter thread.
+ * field names always come from tokens, so they are interned (see `Symbols`) and compared by identity
+ */
+final class Shape {
+    static final Shape EMPTY = new Shape(new IdentityHashMap<>());
+
+    // field name to slot, `size()` of them
+    private final Map<String, Integer> slots;
+    // shapes reached from this one by adding a field
+    private final Map<String, Shape> transitions = new IdentityHashMap<>();
+
+    private Shape(Map<String, Integer> slots) {
+        this.slots = slots;
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    // the field names, by slot
+    String[] names() {
+        String[] names = new String[slots.size()];
+        slots.forEach((name, slot) -> names[slot] = name);
+        return names;
+    }
+
+    // -1 when there is no field `name`
+    int slot(String name) {
+        Integer slot = slots.get(name);
+        return null == slot ? -1 : slot;
+    }
+
+    // this shape plus field `name`, which goes in slot `size()`
+    Shape with(String name) {
+        Shape next = transitions.get(name);
+        if (null == next) {
+            Map<String, Integer> nextSlots = new IdentityHashMap<>(slots);
+            nextSlots.put(name, slots.size());
+            next = new Shape(nextSlots);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
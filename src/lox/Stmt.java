@@ -1,9 +1,10 @@
 /* CODE AUTO-GENERATED BY GenerateAst.java */
 package lox;
 
+import java.io.Serializable;
 import java.util.List;
 
-abstract class Stmt {
+abstract class Stmt implements Serializable {
     interface Visitor<R> {
         R visitBlockStmt(Block stmt);
         R visitExpressionStmt(Expression stmt);
@@ -14,8 +15,10 @@ abstract class Stmt {
         R visitBreakStmt(Break stmt);
         R visitVarStmt(Var stmt);
         R visitFunStmt(Fun stmt);
+        R visitYieldStmt(Yield stmt);
         R visitReturnStmt(Return stmt);
         R visitClassStmt(Class stmt);
+        R visitIfVariableStmt(IfVariable stmt);
     }
     abstract <R> R accept(Visitor<R> visitor);
 
@@ -121,12 +124,14 @@ abstract class Stmt {
         final Stmt body;
         final boolean isStatic;
         final boolean isGetter;
-        Fun(Token name, List<Token> params, Stmt body, boolean isStatic, boolean isGetter) {
+        final boolean isGenerator;
+        Fun(Token name, List<Token> params, Stmt body, boolean isStatic, boolean isGetter, boolean isGenerator) {
             this.name = name;
             this.params = params;
             this.body = body;
             this.isStatic = isStatic;
             this.isGetter = isGetter;
+            this.isGenerator = isGenerator;
         }
         @Override
         <R> R accept(Visitor<R> visitor) {
@@ -134,6 +139,19 @@ abstract class Stmt {
         }
     }
 
+    static class Yield extends Stmt {
+        final Token keyword;
+        final Expr value;
+        Yield(Token keyword, Expr value) {
+            this.keyword = keyword;
+            this.value = value;
+        }
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitYieldStmt(this);
+        }
+    }
+
     static class Return extends Stmt {
         final Token keyword;
         final Expr expr;
@@ -149,9 +167,11 @@ abstract class Stmt {
 
     static class Class extends Stmt {
         final Token name;
+        final Expr.Variable superclass;
         final List<Stmt.Fun> methods;
-        Class(Token name, List<Stmt.Fun> methods) {
+        Class(Token name, Expr.Variable superclass, List<Stmt.Fun> methods) {
             this.name = name;
+            this.superclass = superclass;
             this.methods = methods;
         }
         @Override
@@ -159,4 +179,21 @@ abstract class Stmt {
             return visitor.visitClassStmt(this);
         }
     }
+
+    static class IfVariable extends Stmt {
+        final Token name;
+        final int depth;
+        final Stmt thenBranch;
+        final Stmt elseBranch;
+        IfVariable(Token name, int depth, Stmt thenBranch, Stmt elseBranch) {
+            this.name = name;
+            this.depth = depth;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIfVariableStmt(this);
+        }
+    }
 }
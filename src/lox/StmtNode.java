@@ -0,0 +1,43 @@
+/* CODE AUTO-GENERATED BY GenerateAst.java */
+package lox;
+
+import java.util.List;
+
+sealed interface StmtNode {
+
+    record Block(List<StmtNode> statements) implements StmtNode {
+    }
+
+    record Expression(ExprNode expression) implements StmtNode {
+    }
+
+    record Print(ExprNode expression) implements StmtNode {
+    }
+
+    record If(ExprNode condition, StmtNode thenBranch, StmtNode elseBranch) implements StmtNode {
+    }
+
+    record While(ExprNode condition, StmtNode body) implements StmtNode {
+    }
+
+    record Continue(Token token) implements StmtNode {
+    }
+
+    record Break(Token token) implements StmtNode {
+    }
+
+    record Var(Token name, ExprNode initializer) implements StmtNode {
+    }
+
+    record Fun(Token name, List<Token> params, StmtNode body, boolean isStatic, boolean isGetter, boolean isGenerator) implements StmtNode {
+    }
+
+    record Yield(Token keyword, ExprNode value) implements StmtNode {
+    }
+
+    record Return(Token keyword, ExprNode expr) implements StmtNode {
+    }
+
+    record Class(Token name, ExprNode.Variable superclass, List<StmtNode.Fun> methods) implements StmtNode {
+    }
+}
@@ -0,0 +1,34 @@
+package lox;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * the runtime symbol table: one canonical `String` per name, its hash computed when it's entered
+ * (a `String` caches its hash in itself). identifiers, property names and string literals are
+ * interned as they are scanned, so every occurrence of a name is that instance. lookups in the maps
+ * keyed by names (environments, shapes, method tables) then find the hash already there and succeed
+ * on the reference check `HashMap` does before `equals`, and `Interpreter.isEqual` on two interned
+ * strings doesn't look at their contents.
+ * the table is ours rather than the JVM's string pool, which scripts would otherwise fill through
+ * `intern(s)`. the names the runtime itself spells as java literals are entered first, so "this"
+ * and "init" in a script are the same instance as in the code looking them up.
+ * strings computed at runtime aren't interned, unless a script asks for it with the `intern(s)` native
+ */
+final class Symbols {
+    private static final ConcurrentHashMap<String, String> TABLE = new ConcurrentHashMap<>();
+
+    static {
+        for (String name : new String[] { "this", "super", "init" }) {
+            intern(name);
+        }
+    }
+
+    private Symbols() {
+    }
+
+    static String intern(String name) {
+        // hashing `name` to look it up leaves the hash cached in it, for when it's the one entered
+        String symbol = TABLE.putIfAbsent(name, name);
+        return null == symbol ? name : symbol;
+    }
+}
@@ -1,6 +1,8 @@
 package lox;
 
-public class Token {
+import java.io.Serializable;
+
+public class Token implements Serializable {
     final TokenType type;
     final String lexeme; // string inside the source that produced this token
     final Object literal; // a literal interpretation of the token, if there is one
@@ -13,6 +15,12 @@ public class Token {
         this.line = line;
     }
 
+    // tokens shipped by `Aot` come back with their names interned again, see `Symbols`
+    private Object readResolve() {
+        return new Token(type, null == lexeme ? null : Symbols.intern(lexeme),
+                literal instanceof String string ? Symbols.intern(string) : literal, line);
+    }
+
     @Override
     public String toString() {
         return type + " '" + lexeme + "' <- " + literal;
@@ -0,0 +1,632 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lox.Interpreter.RuntimeError;
+
+/*
+ * stack-based virtual machine for the bytecode produced by `Compiler`. it shares globals (and with
+ * them the natives) with the `Interpreter` it's constructed from, and mirrors its semantics and
+ * error messages so both backends are interchangeable.
+ * the stack holds NaN-boxed `Value`s: numbers, booleans and nil in `values`, references in `refs`
+ * at the same index, so arithmetic on locals and temporaries never allocates.
+ */
+class VM {
+    private static final int FRAMES_MAX = 2048;
+    // each frame has at most 256 slots
+    private static final int FRAME_SLOTS = 256;
+
+    private final Interpreter interpreter;
+    private final Environment globals;
+
+    private final long[] values;
+    private final Object[] refs;
+    private int sp = 0;
+    private final CallFrame[] frames;
+    private int frameCount = 0;
+    // open upvalues sorted by stack slot, highest first
+    private Upvalue openUpvalues = null;
+
+    private static class CallFrame {
+        Closure closure;
+        int ip;
+        int base; // stack slot of the callee/receiver, locals follow it
+    }
+
+    static class Closure {
+        final VmFunction function;
+        final Upvalue[] upvalues;
+
+        Closure(VmFunction function) {
+            this.function = function;
+            this.upvalues = new Upvalue[function.upvalueCount];
+        }
+
+        @Override
+        public String toString() {
+            return function.toString();
+        }
+    }
+
+    static class Upvalue {
+        // the stack `slot` is in while open, which is another VM's for closures made in a generator
+        final long[] values;
+        final Object[] refs;
+        final int slot;
+        long closed;
+        Object closedRef;
+        boolean isOpen = true;
+        Upvalue next;
+
+        Upvalue(long[] values, Object[] refs, int slot, Upvalue next) {
+            this.values = values;
+            this.refs = refs;
+            this.slot = slot;
+            this.next = next;
+        }
+    }
+
+    static class Klass {
+        final String name;
+        final Map<String, Closure> methods = new HashMap<>();
+        final Map<String, Closure> staticMethods = new HashMap<>();
+        // classes can hold fields of their own, like `LoxClass`
+        final Map<String, Object> fields = new HashMap<>();
+
+        Klass(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    static class Instance {
+        final Klass klass;
+        final Map<String, Object> fields = new HashMap<>();
+
+        Instance(Klass klass) {
+            this.klass = klass;
+        }
+
+        @Override
+        public String toString() {
+            return klass.name;
+        }
+    }
+
+    static class BoundMethod {
+        final Object receiver;
+        final Closure method;
+
+        BoundMethod(Object receiver, Closure method) {
+            this.receiver = receiver;
+            this.method = method;
+        }
+
+        @Override
+        public String toString() {
+            return method.toString();
+        }
+    }
+
+    VM(Interpreter interpreter) {
+        this(interpreter, FRAMES_MAX);
+    }
+
+    private VM(Interpreter interpreter, int framesMax) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+        this.values = new long[framesMax * FRAME_SLOTS];
+        this.refs = new Object[framesMax * FRAME_SLOTS];
+        this.frames = new CallFrame[framesMax];
+        for (int i = 0; i < framesMax; ++i) {
+            frames[i] = new CallFrame();
+        }
+    }
+
+    void interpret(VmFunction script) {
+        try {
+            var closure = new Closure(script);
+            push(closure);
+            call(closure, 0, null);
+            run();
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+        }
+    }
+
+    // runs the body of a generator, on its own thread. `arguments` start with the callee's slot
+    private void generate(Closure closure, Object[] arguments) {
+        for (Object argument : arguments) {
+            push(argument);
+        }
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = 0;
+        run();
+    }
+
+    private void push(Object value) {
+        long tagged = Value.tag(value);
+        values[sp] = tagged;
+        refs[sp++] = tagged == Value.OBJECT ? value : null;
+    }
+
+    // numbers, booleans and nil only
+    private void push(long value) {
+        values[sp++] = value;
+    }
+
+    private void set(int slot, Object value) {
+        long tagged = Value.tag(value);
+        values[slot] = tagged;
+        refs[slot] = tagged == Value.OBJECT ? value : null;
+    }
+
+    private void copy(int from, int to) {
+        values[to] = values[from];
+        refs[to] = refs[from];
+    }
+
+    // the boxed value of a slot
+    private Object get(int slot) {
+        return Value.box(values[slot], refs[slot]);
+    }
+
+    private Object pop() {
+        --sp;
+        return get(sp);
+    }
+
+    private Object peek(int distance) {
+        return get(sp - 1 - distance);
+    }
+
+    private void call(Closure closure, int argCount, Token token) {
+        if (argCount != closure.function.arity)
+            throw new RuntimeError(token, "call expected " + closure.function.arity + " but got " + argCount);
+        if (closure.function.isGenerator) {
+            // the callee's slot and the arguments move to a VM of the generator's own. it stays
+            // allocated while the generator is suspended, so it's sized for 64 frames
+            int base = sp - argCount - 1;
+            Object[] arguments = new Object[argCount + 1];
+            for (int i = 0; i <= argCount; ++i) {
+                arguments[i] = get(base + i);
+            }
+            sp = base;
+            push(new LoxGenerator(closure.function.name,
+                    () -> new VM(interpreter, FRAMES_MAX / 32).generate(closure, arguments)));
+            return;
+        }
+        if (frameCount == frames.length)
+            throw new RuntimeError(token, "stack overflow");
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+    }
+
+    private void callValue(Object callee, int argCount, Token token) {
+        if (callee instanceof Closure closure) {
+            call(closure, argCount, token);
+        } else if (callee instanceof BoundMethod bound) {
+            set(sp - argCount - 1, bound.receiver);
+            call(bound.method, argCount, token);
+        } else if (callee instanceof Klass klass) {
+            set(sp - argCount - 1, new Instance(klass));
+            Closure initializer = klass.methods.get("init");
+            if (null != initializer)
+                call(initializer, argCount, token);
+            else if (argCount != 0)
+                throw new RuntimeError(token, "call expected 0 but got " + argCount);
+        } else if (callee instanceof LoxCallable function) {
+            if (argCount != function.arity() && LoxCallable.ANY != function.arity())
+                throw new RuntimeError(token, "call expected " + function.arity() + " but got " + argCount);
+            int base = sp - argCount;
+            Object result;
+            try {
+                result = switch (argCount) {
+                    case 0 -> function.call0(interpreter);
+                    case 1 -> function.call1(interpreter, get(base));
+                    case 2 -> function.call2(interpreter, get(base), get(base + 1));
+                    case 3 -> function.call3(interpreter, get(base), get(base + 1), get(base + 2));
+                    default -> {
+                        List<Object> args = new ArrayList<>(argCount);
+                        for (int i = base; i < sp; ++i) {
+                            args.add(get(i));
+                        }
+                        yield function.call(interpreter, args);
+                    }
+                };
+            } catch (Natives.NativeError error) {
+                throw new RuntimeError(token, error.getMessage());
+            }
+            sp -= argCount + 1;
+            push(result);
+        } else {
+            throw new RuntimeError(token, "expression is not callable");
+        }
+    }
+
+    private Upvalue captureUpvalue(int slot) {
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (null != upvalue && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (null != upvalue && upvalue.slot == slot)
+            return upvalue;
+        var created = new Upvalue(values, refs, slot, upvalue);
+        if (null == previous)
+            openUpvalues = created;
+        else
+            previous.next = created;
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (null != openUpvalues && openUpvalues.slot >= last) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.closed = values[upvalue.slot];
+            upvalue.closedRef = refs[upvalue.slot];
+            upvalue.isOpen = false;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    // pushes the value of `name` on `object`, or starts a frame that will leave it there for getters
+    private void getProperty(Object object, String name, Token token) {
+        Closure method;
+        if (object instanceof Instance instance) {
+            Object field = instance.fields.get(name);
+            if (null != field || instance.fields.containsKey(name)) {
+                set(sp - 1, field);
+                return;
+            }
+            method = instance.klass.methods.get(name);
+            if (null == method)
+                throw new RuntimeError(token, "undefined field or method '" + name + "'");
+        } else if (object instanceof Klass klass) {
+            Object field = klass.fields.get(name);
+            if (null != field || klass.fields.containsKey(name)) {
+                set(sp - 1, field);
+                return;
+            }
+            method = klass.staticMethods.get(name);
+            if (null == method)
+                throw new RuntimeError(token, "undefined static method '" + name + "'");
+            if (!method.function.isGetter) {
+                // static methods aren't bound to anything
+                set(sp - 1, method);
+                return;
+            }
+        } else {
+            set(sp - 1, Interop.get(object, name, token));
+            return;
+        }
+        if (method.function.isGetter) {
+            // the object is already in place as the receiver
+            call(method, 0, token);
+            return;
+        }
+        set(sp - 1, new BoundMethod(object, method));
+    }
+
+    private void setProperty(Object object, String name, Object value, Token token) {
+        if (object instanceof Instance instance)
+            instance.fields.put(name, value);
+        else if (object instanceof Klass klass)
+            klass.fields.put(name, value);
+        else
+            throw new RuntimeError(token, "only instances may have properties");
+    }
+
+    private static RuntimeError operandsError(Token token, long left) {
+        return new RuntimeError(token, !Value.isNumber(left)
+                ? "left operand must be a number."
+                : "right operand must be a number.");
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+        for (;;) {
+            byte op = code[ip++];
+            switch (op) {
+                case OpCode.CONSTANT:
+                    push(constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]);
+                    ip += 2;
+                    break;
+                case OpCode.NIL:
+                    push(Value.NIL);
+                    break;
+                case OpCode.TRUE:
+                    push(Value.TRUE);
+                    break;
+                case OpCode.FALSE:
+                    push(Value.FALSE);
+                    break;
+                case OpCode.POP:
+                    --sp;
+                    break;
+                case OpCode.GET_LOCAL:
+                    copy(frame.base + (code[ip++] & 0xff), sp++);
+                    break;
+                case OpCode.SET_LOCAL:
+                    copy(sp - 1, frame.base + (code[ip++] & 0xff));
+                    break;
+                case OpCode.GET_GLOBAL: {
+                    Token name = (Token) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    push(globals.get(name));
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    Token name = (Token) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    globals.define(name, pop());
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    Token name = (Token) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    // report the assignment's own token, not the one the constant was first added for
+                    Token at = frame.closure.function.chunk.tokens[ip - 1];
+                    ip += 2;
+                    globals.assign(null == at ? name : at, peek(0));
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    Upvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.isOpen) {
+                        values[sp] = upvalue.values[upvalue.slot];
+                        refs[sp++] = upvalue.refs[upvalue.slot];
+                    } else {
+                        values[sp] = upvalue.closed;
+                        refs[sp++] = upvalue.closedRef;
+                    }
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    Upvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.isOpen) {
+                        upvalue.values[upvalue.slot] = values[sp - 1];
+                        upvalue.refs[upvalue.slot] = refs[sp - 1];
+                    } else {
+                        upvalue.closed = values[sp - 1];
+                        upvalue.closedRef = refs[sp - 1];
+                    }
+                    break;
+                }
+                case OpCode.GET_PROPERTY: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    Token token = frame.closure.function.chunk.tokens[ip - 1];
+                    ip += 2;
+                    int depth = frameCount;
+                    frame.ip = ip;
+                    getProperty(peek(0), name, token);
+                    if (depth != frameCount) {
+                        // a getter was called
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                    }
+                    break;
+                }
+                case OpCode.SET_PROPERTY: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    Token token = frame.closure.function.chunk.tokens[ip - 1];
+                    ip += 2;
+                    setProperty(peek(1), name, peek(0), token);
+                    copy(sp - 1, sp - 2);
+                    --sp;
+                    break;
+                }
+                case OpCode.EQUAL:
+                case OpCode.NOT_EQUAL: {
+                    --sp;
+                    boolean equal = Value.isEqual(values[sp - 1], refs[sp - 1], values[sp], refs[sp]);
+                    values[sp - 1] = Value.bool(op == OpCode.EQUAL ? equal : !equal);
+                    break;
+                }
+                case OpCode.GREATER:
+                case OpCode.GREATER_EQUAL:
+                case OpCode.LESS:
+                case OpCode.LESS_EQUAL:
+                case OpCode.SUBTRACT:
+                case OpCode.MULTIPLY:
+                case OpCode.DIVIDE: {
+                    long right = values[--sp];
+                    long left = values[sp - 1];
+                    if (!Value.isNumber(left) || !Value.isNumber(right))
+                        throw operandsError(frame.closure.function.chunk.tokens[ip - 1], left);
+                    double a = Value.asNumber(left), b = Value.asNumber(right);
+                    values[sp - 1] = switch (op) {
+                        case OpCode.GREATER -> Value.bool(a > b);
+                        case OpCode.GREATER_EQUAL -> Value.bool(a >= b);
+                        case OpCode.LESS -> Value.bool(a < b);
+                        case OpCode.LESS_EQUAL -> Value.bool(a <= b);
+                        case OpCode.SUBTRACT -> Value.number(a - b);
+                        case OpCode.MULTIPLY -> Value.number(a * b);
+                        default -> Value.number(a / b);
+                    };
+                    break;
+                }
+                case OpCode.ADD: {
+                    long right = values[--sp];
+                    long left = values[sp - 1];
+                    if (Value.isNumber(left) && Value.isNumber(right))
+                        values[sp - 1] = Value.number(Value.asNumber(left) + Value.asNumber(right));
+                    else if (left == Value.OBJECT && right == Value.OBJECT
+                            && refs[sp - 1] instanceof CharSequence l && refs[sp] instanceof CharSequence r)
+                        refs[sp - 1] = Rope.concat(l, r);
+                    else
+                        throw operandsError(frame.closure.function.chunk.tokens[ip - 1], left);
+                    break;
+                }
+                case OpCode.NOT:
+                    values[sp - 1] = Value.bool(!Value.isTruthy(values[sp - 1]));
+                    break;
+                case OpCode.NEGATE:
+                    if (!Value.isNumber(values[sp - 1]))
+                        throw new RuntimeError(frame.closure.function.chunk.tokens[ip - 1], "operand must be a number.");
+                    values[sp - 1] = Value.number(-Value.asNumber(values[sp - 1]));
+                    break;
+                case OpCode.GET_INDEX: {
+                    Token token = frame.closure.function.chunk.tokens[ip - 1];
+                    LoxIndexable indexable = LoxIndexable.check(get(sp - 2), token);
+                    --sp;
+                    // numbers, as indices, keys and elements of numeric arrays, aren't boxed
+                    if (indexable instanceof LoxMap map && Value.isNumber(values[sp]))
+                        set(sp - 1, map.get(Value.asNumber(values[sp])));
+                    else if (!(indexable instanceof LoxArray array) || !Value.isNumber(values[sp]))
+                        set(sp - 1, indexable.get(get(sp), token));
+                    else if (array.isNumeric())
+                        values[sp - 1] = Value.number(array.number(array.index(Value.asNumber(values[sp]), token)));
+                    else
+                        set(sp - 1, array.get(array.index(Value.asNumber(values[sp]), token)));
+                    break;
+                }
+                case OpCode.SET_INDEX: {
+                    Token token = frame.closure.function.chunk.tokens[ip - 1];
+                    LoxIndexable indexable = LoxIndexable.check(get(sp - 3), token);
+                    if (indexable instanceof LoxArray array && Value.isNumber(values[sp - 2])
+                            && Value.isNumber(values[sp - 1]))
+                        array.set(array.index(Value.asNumber(values[sp - 2]), token), Value.asNumber(values[sp - 1]));
+                    else
+                        indexable.set(get(sp - 2), get(sp - 1), token);
+                    copy(sp - 1, sp - 3);
+                    sp -= 2;
+                    break;
+                }
+                case OpCode.PRINT:
+                    System.out.println(pop());
+                    break;
+                case OpCode.JUMP:
+                    ip += 2 + (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    if (!Value.isTruthy(values[sp - 1]))
+                        ip += 2 + (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                    else
+                        ip += 2;
+                    break;
+                case OpCode.LOOP:
+                    ip -= (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) - 2;
+                    break;
+                case OpCode.AND_RIGHT:
+                    --sp;
+                    if (Value.isTruthy(values[sp]))
+                        copy(sp, sp - 1);
+                    break;
+                case OpCode.CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    callValue(peek(argCount), argCount, frame.closure.function.chunk.tokens[ip - 2]);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    var function = (VmFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    var closure = new Closure(function);
+                    for (int i = 0; i < function.upvalueCount; ++i) {
+                        boolean isLocal = code[ip++] != 0;
+                        int index = code[ip++] & 0xff;
+                        closure.upvalues[i] = isLocal
+                                ? captureUpvalue(frame.base + index)
+                                : frame.closure.upvalues[index];
+                    }
+                    push(closure);
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    closeUpvalues(sp - 1);
+                    --sp;
+                    break;
+                case OpCode.RETURN: {
+                    closeUpvalues(frame.base);
+                    --frameCount;
+                    // the result takes the callee's slot
+                    copy(sp - 1, frame.base);
+                    sp = frame.base;
+                    if (frameCount == 0)
+                        return;
+                    ++sp;
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    break;
+                }
+                case OpCode.YIELD:
+                    LoxGenerator.yieldValue(pop());
+                    break;
+                case OpCode.CLASS:
+                    push(new Klass((String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]));
+                    ip += 2;
+                    break;
+                case OpCode.METHOD: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    var method = (Closure) pop();
+                    var klass = (Klass) peek(0);
+                    (method.function.isStatic ? klass.staticMethods : klass.methods).put(name, method);
+                    break;
+                }
+                case OpCode.INHERIT: {
+                    var klass = (Klass) pop();
+                    if (!(peek(0) instanceof Klass superclass))
+                        throw new RuntimeError(frame.closure.function.chunk.tokens[ip - 1],
+                                "superclass must be a class");
+                    // flattened like `LoxClass`: the class's own methods are added on top afterwards
+                    klass.methods.putAll(superclass.methods);
+                    klass.staticMethods.putAll(superclass.staticMethods);
+                    break;
+                }
+                case OpCode.GET_SUPER: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    Token token = frame.closure.function.chunk.tokens[ip - 1];
+                    ip += 2;
+                    var superclass = (Klass) pop();
+                    Closure method = superclass.methods.get(name);
+                    if (null == method)
+                        throw new RuntimeError(token, "undefined superclass method '" + name + "'");
+                    if (method.function.isGetter) {
+                        // the receiver is already in place, like for `GET_PROPERTY`
+                        frame.ip = ip;
+                        call(method, 0, token);
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        break;
+                    }
+                    set(sp - 1, new BoundMethod(peek(0), method));
+                    break;
+                }
+                case OpCode.ERROR:
+                    throw new RuntimeError(frame.closure.function.chunk.tokens[ip - 1],
+                            (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]);
+                default:
+                    throw new IllegalStateException("unknown opcode " + op);
+            }
+        }
+    }
+}
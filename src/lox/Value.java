@@ -0,0 +1,72 @@
+package lox;
+
+/*
+ * NaN-boxed values for `VM`: numbers, booleans and nil live in a `long` as IEEE 754 bits, the other
+ * bit patterns being quiet NaNs no arithmetic produces. anything else is tagged `OBJECT` and kept in
+ * an `Object[]` next to the `long[]`, at the same index. values only get boxed into `Object`s when
+ * they cross over to code that deals in them: globals, fields, natives and printing.
+ */
+final class Value {
+    private static final long QNAN = 0x7ffc000000000000L;
+    static final long NIL = QNAN | 1;
+    static final long FALSE = QNAN | 2;
+    static final long TRUE = QNAN | 3;
+    static final long OBJECT = QNAN | 4;
+
+    private Value() {
+    }
+
+    static boolean isNumber(long value) {
+        return (value & QNAN) != QNAN;
+    }
+
+    // `doubleToLongBits` collapses every NaN into the canonical one, which is outside the tag space
+    // and lets equal numbers compare equal as longs, like `Double.equals`
+    static long number(double value) {
+        return Double.doubleToLongBits(value);
+    }
+
+    static double asNumber(long value) {
+        return Double.longBitsToDouble(value);
+    }
+
+    static long bool(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    // `Interpreter.isTruthy`
+    static boolean isTruthy(long value) {
+        if (isNumber(value))
+            return asNumber(value) != 0.;
+        return value != NIL && value != FALSE;
+    }
+
+    // `Interpreter.isEqual`. `leftRef`/`rightRef` only matter for `OBJECT`s
+    static boolean isEqual(long left, Object leftRef, long right, Object rightRef) {
+        if (left == OBJECT && right == OBJECT)
+            return Interpreter.isEqual(leftRef, rightRef);
+        return left == right;
+    }
+
+    static long tag(Object value) {
+        if (null == value)
+            return NIL;
+        if (value instanceof Double number)
+            return number(number);
+        if (value instanceof Boolean bool)
+            return bool(bool);
+        return OBJECT;
+    }
+
+    static Object box(long value, Object ref) {
+        if (value == OBJECT)
+            return ref;
+        if (value == NIL)
+            return null;
+        if (value == TRUE)
+            return true;
+        if (value == FALSE)
+            return false;
+        return asNumber(value);
+    }
+}
@@ -0,0 +1,134 @@
+package lox;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * `Kernels` on the Vector API: each loop handles `SPECIES.length()` elements per step and finishes
+ * the remainder one by one, or in one masked step. products are rounded before they're added, with
+ * `mul` then `add` rather than `fma`, so each element rounds the same in the lanes, in the remainder
+ * and in `Kernels.Scalar`. only loaded when the jdk.incubator.vector module is present, see
+ * `Kernels.INSTANCE`
+ */
+final class VectorKernels implements Kernels {
+    // vectors are made inside the methods using them: a vector kept in a static field stays boxed
+    // and takes the slow path of every operation it's part of
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public double sum(double[] a, int length) {
+        var sum = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            sum = sum.add(DoubleVector.fromArray(SPECIES, a, i));
+        }
+        double total = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; ++i) {
+            total += a[i];
+        }
+        return total;
+    }
+
+    @Override
+    public double dot(double[] a, double[] b, int length) {
+        var sum = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            sum = sum.add(DoubleVector.fromArray(SPECIES, a, i).mul(DoubleVector.fromArray(SPECIES, b, i)));
+        }
+        double total = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; ++i) {
+            total += a[i] * b[i];
+        }
+        return total;
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, double[] y, int length) {
+        var factor = DoubleVector.broadcast(SPECIES, alpha);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, y, i).add(DoubleVector.fromArray(SPECIES, x, i).mul(factor)).intoArray(y, i);
+        }
+        for (; i < length; ++i) {
+            y[i] += alpha * x[i];
+        }
+    }
+
+    @Override
+    public void map(double[] a, TokenType operator, double k, double[] out, int length) {
+        VectorOperators.Binary op = switch (operator) {
+            case PLUS -> VectorOperators.ADD;
+            case MINUS -> VectorOperators.SUB;
+            case STAR -> VectorOperators.MUL;
+            case SLASH -> VectorOperators.DIV;
+            default -> throw new IllegalArgumentException(operator.toString());
+        };
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).lanewise(op, k).intoArray(out, i);
+        }
+        // the remainder goes through a mask, so it computes exactly like the lanes did
+        if (i < length) {
+            VectorMask<Double> rest = SPECIES.indexInRange(i, length);
+            DoubleVector.fromArray(SPECIES, a, i, rest).lanewise(op, k).intoArray(out, i, rest);
+        }
+    }
+
+    // min and max are spelled out separately, as the Vector API only compiles to vector
+    // instructions when the operator is a constant
+
+    @Override
+    public double min(double[] a, int length) {
+        // starts from the first element, which is neutral for min and max
+        var min = DoubleVector.broadcast(SPECIES, a[0]);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            min = min.min(DoubleVector.fromArray(SPECIES, a, i));
+        }
+        double result = min.reduceLanes(VectorOperators.MIN);
+        for (; i < length; ++i) {
+            result = Math.min(result, a[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public double max(double[] a, int length) {
+        var max = DoubleVector.broadcast(SPECIES, a[0]);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            max = max.max(DoubleVector.fromArray(SPECIES, a, i));
+        }
+        double result = max.reduceLanes(VectorOperators.MAX);
+        for (; i < length; ++i) {
+            result = Math.max(result, a[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public void compare(double[] a, TokenType comparison, double k, double[] out, int length) {
+        VectorOperators.Comparison op = switch (comparison) {
+            case LESS -> VectorOperators.LT;
+            case LESS_EQUAL -> VectorOperators.LE;
+            case GREATER -> VectorOperators.GT;
+            case GREATER_EQUAL -> VectorOperators.GE;
+            case EQUAL_EQUAL -> VectorOperators.EQ;
+            case BANG_EQUAL -> VectorOperators.NE;
+            default -> throw new IllegalArgumentException(comparison.toString());
+        };
+        var zero = DoubleVector.zero(SPECIES);
+        var one = DoubleVector.broadcast(SPECIES, 1);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            zero.blend(one, DoubleVector.fromArray(SPECIES, a, i).compare(op, k)).intoArray(out, i);
+        }
+        if (i < length) {
+            VectorMask<Double> rest = SPECIES.indexInRange(i, length);
+            zero.blend(one, DoubleVector.fromArray(SPECIES, a, i, rest).compare(op, k)).intoArray(out, i, rest);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package lox;
+
+/* compile-time half of a function for the bytecode `VM`; closures over it are created at runtime */
+class VmFunction {
+    final String name;
+    final Chunk chunk = new Chunk();
+    int arity = 0;
+    int upvalueCount = 0;
+    final boolean isInitializer;
+    final boolean isStatic;
+    final boolean isGetter;
+    final boolean isGenerator;
+
+    VmFunction(String name, boolean isInitializer, boolean isStatic, boolean isGetter, boolean isGenerator) {
+        this.name = name;
+        this.isInitializer = isInitializer;
+        this.isStatic = isStatic;
+        this.isGetter = isGetter;
+        this.isGenerator = isGenerator;
+    }
+
+    @Override
+    public String toString() {
+        return null == name ? "<script>" : "<fn " + name + ">";
+    }
+}